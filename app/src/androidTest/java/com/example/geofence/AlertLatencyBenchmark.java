@@ -0,0 +1,347 @@
+package com.example.geofence;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Time from a tracker writing an outside position to the app having decided
+ * the pet left and built the notification, through a local Realtime
+ * Database emulator.
+ *
+ * The monitor is the one ForegroundService builds, listening with its own
+ * FirebaseApp. The trackers write with a second FirebaseApp, so every update
+ * makes the round trip through the emulator instead of being raised locally.
+ * Users/{uid}/Pets, Geofences and Trackers are seeded for each run and
+ * removed after it.
+ *
+ * Every tracker writes at the given rate, alternating between 5 m inside and
+ * 5 m outside the east edge of its yard, so every other write is an exit.
+ * Exits that never alert (an inside write replaced before it was checked)
+ * are counted as missed. Results go to logcat under the Benchmark tag, one
+ * line per tracker count.
+ *
+ * Start the emulator from the project root (firebase.json listens on every
+ * interface, port 9000), then run on a device or the Android emulator:
+ *   firebase emulators:start --only database
+ *   ./gradlew connectedAndroidTest \
+ *       -Pandroid.testInstrumentationRunnerArguments.class=com.example.geofence.AlertLatencyBenchmark \
+ *       -Pandroid.testInstrumentationRunnerArguments.benchmark=true
+ *
+ * Without benchmark=true it is skipped, so connectedAndroidTest doesn't need
+ * the emulator. Other instrumentation arguments, all optional:
+ *   emulatorHost  10.0.2.2, the development machine from the Android emulator
+ *   emulatorPort  9000
+ *   trackers      10,100,1000
+ *   rate          writes per second per tracker, 1
+ *   seconds       length of each run, 30
+ *   profile       power profile, balanced
+ */
+@RunWith(AndroidJUnit4.class)
+public class AlertLatencyBenchmark {
+
+    private static final String TAG = "Benchmark";
+    private static final int YARDS = 100;
+    private static final double YARD_HALF_METERS = 50;
+    private static final double EDGE_OFFSET_METERS = 5;
+    private static final double BASE_LAT = 30.2820;
+    private static final double BASE_LNG = -97.7375;
+    private static final double YARD_SPACING = 0.002;
+    private static final long READY_TIMEOUT_MS = 60000;
+    private static final long DRAIN_MS = 5000;
+
+    private Context context;
+    private Bundle arguments;
+    private FirebaseApp appSide;
+    private FirebaseApp trackerSide;
+    private DatabaseReference appRoot;
+    private DatabaseReference trackerRoot;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        arguments = InstrumentationRegistry.getArguments();
+        assumeTrue("needs the database emulator, run with benchmark=true",
+                Boolean.parseBoolean(arguments.getString("benchmark")));
+        String host = arguments.getString("emulatorHost", "10.0.2.2");
+        int port = Integer.parseInt(arguments.getString("emulatorPort", "9000"));
+
+        FirebaseApp defaultApp = FirebaseApp.initializeApp(context);
+        appSide = FirebaseApp.initializeApp(context, defaultApp.getOptions(), "benchmark-app");
+        trackerSide = FirebaseApp.initializeApp(context, defaultApp.getOptions(), "benchmark-trackers");
+        FirebaseDatabase appDatabase = FirebaseDatabase.getInstance(appSide);
+        FirebaseDatabase trackerDatabase = FirebaseDatabase.getInstance(trackerSide);
+        appDatabase.useEmulator(host, port);
+        trackerDatabase.useEmulator(host, port);
+        appRoot = appDatabase.getReference();
+        trackerRoot = trackerDatabase.getReference();
+    }
+
+    @After
+    public void tearDown() {
+        if (appSide != null) {
+            appSide.delete();
+            trackerSide.delete();
+        }
+    }
+
+    @Test
+    public void alertLatency() throws Exception {
+        double rate = Double.parseDouble(arguments.getString("rate", "1"));
+        int seconds = Integer.parseInt(arguments.getString("seconds", "30"));
+        AdaptiveSampler.PowerProfile profile = AdaptiveSampler.PowerProfile.forName(
+                arguments.getString("profile", AdaptiveSampler.PowerProfile.BALANCED.name));
+
+        for (String count : arguments.getString("trackers", "10,100,1000").split(",")) {
+            run(Integer.parseInt(count.trim()), rate, seconds, profile);
+        }
+    }
+
+    private void run(final int trackerCount, double rate, int seconds, AdaptiveSampler.PowerProfile profile)
+            throws Exception {
+        final String uid = "benchmark-" + trackerCount;
+        seed(uid, trackerCount);
+
+        // Write time of each tracker's latest outside position, 0 once it alerted
+        final AtomicLongArray outsideWrittenAt = new AtomicLongArray(trackerCount);
+        final long[] latencies = new long[(int) (trackerCount * rate * seconds) + trackerCount];
+        final AtomicInteger latencyCount = new AtomicInteger();
+        final AtomicLong exitsWritten = new AtomicLong();
+
+        PetMonitor.Alerts alerts = new PetMonitor.Alerts() {
+            @Override
+            public void onPetLeft(Pet pet, double lat, double lng) {
+                ForegroundService.buildOutOfBoundsNotification(context, pet);
+                long now = System.nanoTime();
+                int tracker = trackerIndex(pet.getPetTrackerID());
+                // Only the worker thread gets here, so the count needs no more than visibility
+                long writtenAt = outsideWrittenAt.getAndSet(tracker, 0);
+                int i = latencyCount.get();
+                if (writtenAt != 0 && i < latencies.length) {
+                    latencies[i] = now - writtenAt;
+                    latencyCount.set(i + 1);
+                }
+            }
+
+            @Override
+            public void onPetReturned(Pet pet) {
+            }
+        };
+
+        final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor();
+        final AdaptiveSampler sampler = new AdaptiveSampler(new AdaptiveSampler.Timer() {
+            @Override
+            public long nowMillis() {
+                return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+            }
+
+            @Override
+            public void schedule(Runnable task, long delayMillis) {
+                if (!worker.isShutdown()) {
+                    worker.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        }, profile);
+        Executor mainThread = ContextCompat.getMainExecutor(context);
+        final PetMonitor<ValueEventListener, DataSnapshot> monitor =
+                ForegroundService.createPetMonitor(appRoot, worker, mainThread, alerts, sampler);
+        ScheduledExecutorService writers = Executors.newScheduledThreadPool(2);
+
+        try {
+            startMonitoring(monitor, uid);
+            long readyBy = System.currentTimeMillis() + READY_TIMEOUT_MS;
+            while (monitor.getProcessedCount() < trackerCount) {
+                assertTrue("trackers didn't report in time", System.currentTimeMillis() < readyBy);
+                Thread.sleep(50);
+            }
+
+            long periodMicros = (long) (1e6 / rate);
+            for (int t = 0; t < trackerCount; t++) {
+                final int tracker = t;
+                final boolean[] outside = {false};
+                writers.scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        outside[0] = !outside[0];
+                        if (outside[0]) {
+                            exitsWritten.incrementAndGet();
+                            outsideWrittenAt.set(tracker, System.nanoTime());
+                        }
+                        trackerRoot.child("Trackers").child(trackerID(tracker)).setValue(position(tracker, outside[0]));
+                    }
+                }, periodMicros * t / trackerCount, periodMicros, TimeUnit.MICROSECONDS);
+            }
+            Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+            writers.shutdownNow();
+            writers.awaitTermination(5, TimeUnit.SECONDS);
+            Thread.sleep(DRAIN_MS);
+
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+                @Override
+                public void run() {
+                    monitor.stop();
+                }
+            });
+        } finally {
+            writers.shutdownNow();
+            worker.shutdownNow();
+            clear(uid, trackerCount);
+        }
+
+        int count = Math.min(latencyCount.get(), latencies.length);
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        Log.i(TAG, String.format("trackers=%d rate=%.2f profile=%s exits=%d alerts=%d missed=%d"
+                        + " p50_ms=%.1f p90_ms=%.1f p99_ms=%.1f max_ms=%.1f",
+                trackerCount, rate, profile.name, exitsWritten.get(), count, exitsWritten.get() - count,
+                percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                percentile(sorted, 1)));
+        assertTrue("no exit was alerted", count > 0);
+    }
+
+    // Loads the fences and pets the way ForegroundService does, then attaches the tracker listeners
+    private void startMonitoring(final PetMonitor<ValueEventListener, DataSnapshot> monitor, final String uid)
+            throws InterruptedException {
+        final CountDownLatch loaded = new CountDownLatch(1);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                appRoot.child("Users").child(uid).addListenerForSingleValueEvent(new ValueEventListener() {
+                    @Override
+                    public void onDataChange(@NonNull DataSnapshot snapshot) {
+                        for (DataSnapshot fence : snapshot.child("Geofences").getChildren()) {
+                            FenceRecord record = FenceRecord.read(fence.getValue());
+                            if (record != null) {
+                                monitor.putFence(fence.getKey(), record.compile());
+                            }
+                        }
+                        List<Pet> pets = new ArrayList<>();
+                        for (DataSnapshot pet : snapshot.child("Pets").getChildren()) {
+                            pets.add(new Pet(pet.child("petName").getValue(String.class),
+                                    pet.child("petTrackerID").getValue(String.class), "000"));
+                        }
+                        monitor.setPets(pets);
+                        monitor.start();
+                        loaded.countDown();
+                    }
+
+                    @Override
+                    public void onCancelled(@NonNull DatabaseError error) {
+                        Log.e(TAG, "Reading the seeded user failed: " + error.getMessage());
+                    }
+                });
+            }
+        });
+        assertTrue("seeded user couldn't be read", loaded.await(READY_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private void seed(String uid, int trackerCount) throws InterruptedException {
+        Map<String, Object> updates = new HashMap<>();
+        for (int y = 0; y < Math.min(YARDS, trackerCount); y++) {
+            updates.put("Users/" + uid + "/Geofences/yard" + y, yard(y).toMap());
+        }
+        for (int t = 0; t < trackerCount; t++) {
+            Map<String, Object> pet = new HashMap<>();
+            pet.put("petName", "pet" + t);
+            pet.put("petTrackerID", trackerID(t));
+            updates.put("Users/" + uid + "/Pets/pet" + t, pet);
+            updates.put("Trackers/" + trackerID(t), position(t, false));
+        }
+        write(updates);
+    }
+
+    private void clear(String uid, int trackerCount) throws InterruptedException {
+        Map<String, Object> updates = new HashMap<>();
+        updates.put("Users/" + uid, null);
+        for (int t = 0; t < trackerCount; t++) {
+            updates.put("Trackers/" + trackerID(t), null);
+        }
+        write(updates);
+    }
+
+    private void write(Map<String, Object> updates) throws InterruptedException {
+        final CountDownLatch written = new CountDownLatch(1);
+        final DatabaseError[] failure = {null};
+        trackerRoot.updateChildren(updates, new DatabaseReference.CompletionListener() {
+            @Override
+            public void onComplete(@Nullable DatabaseError error, @NonNull DatabaseReference ref) {
+                failure[0] = error;
+                written.countDown();
+            }
+        });
+        assertTrue("emulator didn't answer, is it running?", written.await(READY_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertNull(failure[0] == null ? null : failure[0].getMessage(), failure[0]);
+    }
+
+    private static String trackerID(int tracker) {
+        return "benchmark-" + tracker;
+    }
+
+    private static int trackerIndex(String trackerID) {
+        return Integer.parseInt(trackerID.substring("benchmark-".length()));
+    }
+
+    // A 100 m square, YARDS of them in a row
+    private static FenceRecord yard(int yard) {
+        double lat = BASE_LAT;
+        double lng = BASE_LNG + yard * YARD_SPACING;
+        double dLat = YARD_HALF_METERS / GeoMath.METERS_PER_DEGREE;
+        double dLng = dLat / Math.cos(Math.toRadians(lat));
+        return FenceRecord.fromPoints(
+                new double[]{lat - dLat, lat - dLat, lat + dLat, lat + dLat},
+                new double[]{lng - dLng, lng + dLng, lng + dLng, lng - dLng});
+    }
+
+    // Just inside or just outside the east edge of the tracker's yard
+    private static Map<String, Object> position(int tracker, boolean outside) {
+        double meters = YARD_HALF_METERS + (outside ? EDGE_OFFSET_METERS : -EDGE_OFFSET_METERS);
+        Map<String, Object> values = new HashMap<>();
+        values.put("isActive", true);
+        values.put("latitude", BASE_LAT);
+        values.put("longitude", BASE_LNG + (tracker % YARDS) * YARD_SPACING
+                + meters / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(BASE_LAT))));
+        return values;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(p * sorted.length))] / 1e6;
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.geofence;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.gms.maps.CameraUpdateFactory;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Frame time on a real map as the number of pets grows, with one raw marker
+ * per pet versus PetClusterLayer (ClusterManager with the
+ * NonHierarchicalViewBasedAlgorithm the app uses).
+ *
+ * The map is MapBenchmarkActivity's, zoomed out over the whole city so every
+ * pet is in view. For each run a tracker batch moves 10% of the pets once a
+ * second, the way TrackerPipeline posts them, and the camera pans a little so
+ * the map redraws and the clusters are recomputed. Frames are timed with
+ * Choreographer callbacks on the main thread, where markers are added, moved
+ * and rendered; a long frame is one where the main thread held up the next
+ * vsync. Results go to logcat under the Benchmark tag, one line per pet count
+ * and mode.
+ *
+ * Skipped unless run with benchmark=true, like AlertLatencyBenchmark:
+ *   ./gradlew connectedAndroidTest \
+ *       -Pandroid.testInstrumentationRunnerArguments.class=com.example.geofence.PetClusterBenchmark \
+ *       -Pandroid.testInstrumentationRunnerArguments.benchmark=true
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetClusterBenchmark {
+
+    private static final String TAG = "Benchmark";
+    private static final int[] PET_COUNTS = {200, 1000, 5000};
+    private static final int SECONDS = 10;
+    private static final float ZOOM = 11f;
+    private static final LatLng CITY = new LatLng(30.3, -97.7);
+    // Twice the 60 Hz frame budget
+    private static final long JANK_NANOS = 33_000_000L;
+
+    private ActivityScenario<MapBenchmarkActivity> scenario;
+    private MapBenchmarkActivity activity;
+    private GoogleMap map;
+
+    // Time between frames, recorded while running
+    private static class FrameRecorder implements Choreographer.FrameCallback {
+        final List<Long> intervals = new ArrayList<>();
+        private long last;
+        private boolean running;
+
+        void start() {
+            intervals.clear();
+            last = 0;
+            running = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            running = false;
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!running) {
+                return;
+            }
+            if (last != 0) {
+                intervals.add(frameTimeNanos - last);
+            }
+            last = frameTimeNanos;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    // What the test does to the map on the main thread, raw markers or the cluster layer
+    private interface Pets {
+        void add(List<LatLng> positions);
+
+        void move(int index, LatLng position);
+
+        void onCameraIdle();
+
+        void clear();
+    }
+
+    @Before
+    public void setUp() throws InterruptedException {
+        Bundle arguments = InstrumentationRegistry.getArguments();
+        assumeTrue("timing run, run with benchmark=true", Boolean.parseBoolean(arguments.getString("benchmark")));
+
+        scenario = ActivityScenario.launch(MapBenchmarkActivity.class);
+        scenario.onActivity(new ActivityScenario.ActivityAction<MapBenchmarkActivity>() {
+            @Override
+            public void perform(MapBenchmarkActivity launched) {
+                activity = launched;
+            }
+        });
+        map = activity.awaitMap(30, TimeUnit.SECONDS);
+        assertNotNull("map not ready", map);
+    }
+
+    @After
+    public void tearDown() {
+        if (scenario != null) {
+            scenario.close();
+        }
+    }
+
+    @Test
+    public void rawMarkersVsClusters() {
+        for (int petCount : PET_COUNTS) {
+            run(petCount, "raw", rawMarkers());
+            run(petCount, "clustered", clusterLayer());
+        }
+    }
+
+    private Pets rawMarkers() {
+        return new Pets() {
+            final List<Marker> markers = new ArrayList<>();
+
+            @Override
+            public void add(List<LatLng> positions) {
+                for (LatLng position : positions) {
+                    markers.add(map.addMarker(new MarkerOptions().position(position)));
+                }
+            }
+
+            @Override
+            public void move(int index, LatLng position) {
+                markers.get(index).setPosition(position);
+            }
+
+            @Override
+            public void onCameraIdle() {
+            }
+
+            @Override
+            public void clear() {
+                for (Marker marker : markers) {
+                    marker.remove();
+                }
+                markers.clear();
+            }
+        };
+    }
+
+    private Pets clusterLayer() {
+        return new Pets() {
+            PetClusterLayer layer;
+
+            @Override
+            public void add(List<LatLng> positions) {
+                layer = new PetClusterLayer(activity, map);
+                for (int i = 0; i < positions.size(); i++) {
+                    layer.movePet("pet" + i, positions.get(i).latitude, positions.get(i).longitude);
+                }
+                assertEquals(positions.size(), layer.getPetCount());
+            }
+
+            @Override
+            public void move(int index, LatLng position) {
+                layer.movePet("pet" + index, position.latitude, position.longitude);
+            }
+
+            @Override
+            public void onCameraIdle() {
+                layer.onCameraIdle();
+            }
+
+            @Override
+            public void clear() {
+                layer.clear();
+            }
+        };
+    }
+
+    private void run(int petCount, String mode, final Pets pets) {
+        final Random random = new Random(petCount);
+        final List<LatLng> positions = new ArrayList<>();
+        // Pets spread over a city
+        for (int i = 0; i < petCount; i++) {
+            positions.add(new LatLng(30.1 + random.nextDouble() * 0.4, -97.9 + random.nextDouble() * 0.4));
+        }
+
+        final FrameRecorder recorder = new FrameRecorder();
+        onMain(new Runnable() {
+            @Override
+            public void run() {
+                map.moveCamera(CameraUpdateFactory.newLatLngZoom(CITY, ZOOM));
+                map.setOnCameraIdleListener(new GoogleMap.OnCameraIdleListener() {
+                    @Override
+                    public void onCameraIdle() {
+                        pets.onCameraIdle();
+                    }
+                });
+                pets.add(positions);
+            }
+        });
+        // Let the first render and clustering settle before timing
+        SystemClock.sleep(2000);
+
+        onMain(new Runnable() {
+            @Override
+            public void run() {
+                recorder.start();
+            }
+        });
+        for (int s = 0; s < SECONDS; s++) {
+            final float pan = s % 2 == 0 ? 40 : -40;
+            onMain(new Runnable() {
+                @Override
+                public void run() {
+                    // A tracker batch moves some of the pets a few meters
+                    for (int i = 0; i < positions.size() / 10; i++) {
+                        int index = random.nextInt(positions.size());
+                        LatLng p = positions.get(index);
+                        LatLng moved = new LatLng(p.latitude + 0.00005, p.longitude - 0.00005);
+                        positions.set(index, moved);
+                        pets.move(index, moved);
+                    }
+                    map.animateCamera(CameraUpdateFactory.scrollBy(pan, 0), 300, null);
+                }
+            });
+            SystemClock.sleep(1000);
+        }
+        onMain(new Runnable() {
+            @Override
+            public void run() {
+                recorder.stop();
+                map.setOnCameraIdleListener(null);
+                pets.clear();
+            }
+        });
+
+        Long[] intervals = recorder.intervals.toArray(new Long[0]);
+        assertTrue(intervals.length > 0);
+        Arrays.sort(intervals);
+        int janky = 0;
+        for (long interval : intervals) {
+            if (interval > JANK_NANOS) {
+                janky++;
+            }
+        }
+        Log.i(TAG, String.format("pets=%d mode=%s frames=%d frame_p50_ms=%.1f frame_p90_ms=%.1f"
+                        + " frame_p99_ms=%.1f frame_max_ms=%.1f janky=%d",
+                petCount, mode, intervals.length, percentile(intervals, 0.50), percentile(intervals, 0.90),
+                percentile(intervals, 0.99), intervals[intervals.length - 1] / 1e6, janky));
+    }
+
+    private static double percentile(Long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))] / 1e6;
+    }
+
+    private static void onMain(Runnable runnable) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(runnable);
+    }
+}
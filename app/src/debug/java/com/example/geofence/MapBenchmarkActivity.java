@@ -0,0 +1,46 @@
+package com.example.geofence;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.OnMapReadyCallback;
+import com.google.android.gms.maps.SupportMapFragment;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A full screen map with nothing else on it, so PetClusterBenchmark can
+ * measure frames without logging in or going through MapsActivity. Only in
+ * debug builds.
+ */
+public class MapBenchmarkActivity extends AppCompatActivity {
+
+    private final CountDownLatch ready = new CountDownLatch(1);
+    private volatile GoogleMap map;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        SupportMapFragment mapFragment = SupportMapFragment.newInstance();
+        getSupportFragmentManager().beginTransaction()
+                .add(android.R.id.content, mapFragment)
+                .commitNow();
+        mapFragment.getMapAsync(new OnMapReadyCallback() {
+            @Override
+            public void onMapReady(@NonNull GoogleMap googleMap) {
+                map = googleMap;
+                ready.countDown();
+            }
+        });
+    }
+
+    // Blocks a test thread until the map is ready, null if it wasn't in time
+    public GoogleMap awaitMap(long timeout, TimeUnit unit) throws InterruptedException {
+        ready.await(timeout, unit);
+        return map;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.geofence;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides how soon a tracker needs its next containment check.
+ *
+ * After a check the pet's safe radius says how far it is from the closest
+ * fence edge. Assuming the pet moves no faster than the profile's speed, it
+ * can't reach that edge for safeRadius / speed, so updates before then are
+ * held back (only the newest kept) and checked once that time is up. The wait
+ * is capped by the profile, which also bounds the extra alert delay for a pet
+ * that is faster than assumed. Pets near an edge or outside are on the
+ * pipeline's priority lane and never wait.
+ *
+ * Only used from the pipeline's worker thread, except setProfile().
+ */
+public class AdaptiveSampler {
+
+    public interface Timer {
+        long nowMillis();
+
+        // Runs the task on the worker after the delay
+        void schedule(Runnable task, long delayMillis);
+    }
+
+    /**
+     * Assumed top speed of a pet and the longest a check can be put off.
+     */
+    public static final class PowerProfile {
+
+        // Every update is checked
+        public static final PowerProfile REAL_TIME = new PowerProfile("real_time", 0, 0);
+        // A dog at a sprint, checked at least every 10 seconds
+        public static final PowerProfile BALANCED = new PowerProfile("balanced", 10, 10000);
+        // A dog at a trot, checked at least every 30 seconds
+        public static final PowerProfile BATTERY_SAVER = new PowerProfile("battery_saver", 4, 30000);
+
+        public final String name;
+        public final double petSpeedMetersPerSecond;
+        public final long maxIntervalMillis;
+
+        private PowerProfile(String name, double petSpeedMetersPerSecond, long maxIntervalMillis) {
+            this.name = name;
+            this.petSpeedMetersPerSecond = petSpeedMetersPerSecond;
+            this.maxIntervalMillis = maxIntervalMillis;
+        }
+
+        // Profile stored under name, BALANCED for anything unknown
+        public static PowerProfile forName(String name) {
+            if (REAL_TIME.name.equals(name)) {
+                return REAL_TIME;
+            }
+            if (BATTERY_SAVER.name.equals(name)) {
+                return BATTERY_SAVER;
+            }
+            return BALANCED;
+        }
+    }
+
+    private final Timer timer;
+    private volatile PowerProfile profile;
+    // When each tracker is next due, trackers without an entry are always due
+    private final Map<String, Long> dueAt = new HashMap<>();
+
+    public AdaptiveSampler(Timer timer, PowerProfile profile) {
+        this.timer = timer;
+        this.profile = profile;
+    }
+
+    // Takes effect from each tracker's next check
+    public void setProfile(PowerProfile profile) {
+        this.profile = profile;
+    }
+
+    public PowerProfile getProfile() {
+        return profile;
+    }
+
+    public long nowMillis() {
+        return timer.nowMillis();
+    }
+
+    public boolean isDue(String trackerID, long now) {
+        Long due = dueAt.get(trackerID);
+        return due == null || now >= due;
+    }
+
+    // Time the tracker is next due, or now if it already is
+    public long getDueAt(String trackerID, long now) {
+        Long due = dueAt.get(trackerID);
+        return due == null ? now : Math.max(now, due);
+    }
+
+    public void onEvaluated(String trackerID, double safeRadiusMeters, long now) {
+        long interval = intervalMillis(safeRadiusMeters);
+        if (interval <= 0) {
+            dueAt.remove(trackerID);
+        } else {
+            dueAt.put(trackerID, now + interval);
+        }
+    }
+
+    // How long a pet this far from every edge can go unchecked
+    public long intervalMillis(double safeRadiusMeters) {
+        PowerProfile current = profile;
+        if (current.maxIntervalMillis <= 0 || !(safeRadiusMeters > 0)) {
+            return 0;
+        }
+        double millis = safeRadiusMeters / current.petSpeedMetersPerSecond * 1000;
+        return (long) Math.min(current.maxIntervalMillis, millis);
+    }
+
+    public void schedule(Runnable task, long delayMillis) {
+        timer.schedule(task, delayMillis);
+    }
+
+    public void forget(String trackerID) {
+        dueAt.remove(trackerID);
+    }
+}
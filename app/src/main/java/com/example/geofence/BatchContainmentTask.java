@@ -0,0 +1,65 @@
+package com.example.geofence;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork-join split of GeofenceEngine.containsAll. Ranges are split on 64
+ * position boundaries so every task writes its own words of the result and
+ * no locking is needed.
+ *
+ * Kept out of GeofenceEngine because ForkJoinPool is only on API 21+.
+ */
+class BatchContainmentTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+    // One word of the result per task
+    private static final int LEAF_SIZE = 64;
+
+    // ForkJoinPool.commonPool() needs API 24, so keep our own
+    private static ForkJoinPool pool;
+
+    private final GeofenceEngine engine;
+    private final double[] lats;
+    private final double[] lngs;
+    private final long[] words;
+    private final int from;
+    private final int to;
+
+    private BatchContainmentTask(GeofenceEngine engine, double[] lats, double[] lngs, long[] words, int from, int to) {
+        this.engine = engine;
+        this.lats = lats;
+        this.lngs = lngs;
+        this.words = words;
+        this.from = from;
+        this.to = to;
+    }
+
+    static void run(GeofenceEngine engine, double[] lats, double[] lngs, long[] words) {
+        sharedPool().invoke(new BatchContainmentTask(engine, lats, lngs, words, 0, lats.length));
+    }
+
+    private static synchronized ForkJoinPool sharedPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= LEAF_SIZE) {
+            engine.containsRange(lats, lngs, from, to, words, new ArrayList<CompiledFence>());
+            return;
+        }
+
+        // Split on a word boundary
+        int mid = ((from + to) / 2) & ~63;
+        if (mid <= from) {
+            mid = from + 64;
+        }
+        invokeAll(new BatchContainmentTask(engine, lats, lngs, words, from, mid),
+                new BatchContainmentTask(engine, lats, lngs, words, mid, to));
+    }
+}
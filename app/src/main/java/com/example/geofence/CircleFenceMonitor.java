@@ -0,0 +1,107 @@
+package com.example.geofence;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * CoarseFenceMonitor that checks the circles itself.
+ *
+ * GeofencingClient only watches the phone's own location, while the positions
+ * checked here come from the pet trackers through Firebase, so the circles are
+ * tested locally. That's one distance per fence, with no polygon walk and no
+ * allocation. Circles are kept in parallel arrays; removing one moves the last
+ * circle into its slot.
+ */
+public class CircleFenceMonitor implements CoarseFenceMonitor {
+
+    private final Map<String, Integer> slotsByKey = new HashMap<>();
+    private String[] keys = new String[8];
+    private double[] lats = new double[8];
+    private double[] lngs = new double[8];
+    private double[] innerRadii = new double[8];
+    private double[] outerRadii = new double[8];
+    private int count = 0;
+
+    @Override
+    public void setRegion(String key, double lat, double lng, double innerRadius, double outerRadius) {
+        Integer slot = slotsByKey.get(key);
+        int i;
+        if (slot != null) {
+            i = slot;
+        } else {
+            if (count == keys.length) {
+                grow();
+            }
+            i = count++;
+            keys[i] = key;
+            slotsByKey.put(key, i);
+        }
+        lats[i] = lat;
+        lngs[i] = lng;
+        innerRadii[i] = innerRadius;
+        outerRadii[i] = outerRadius;
+    }
+
+    @Override
+    public void removeRegion(String key) {
+        Integer slot = slotsByKey.remove(key);
+        if (slot == null) {
+            return;
+        }
+        int i = slot;
+        int last = --count;
+        if (i != last) {
+            keys[i] = keys[last];
+            lats[i] = lats[last];
+            lngs[i] = lngs[last];
+            innerRadii[i] = innerRadii[last];
+            outerRadii[i] = outerRadii[last];
+            slotsByKey.put(keys[i], i);
+        }
+        keys[last] = null;
+    }
+
+    @Override
+    public void clear() {
+        slotsByKey.clear();
+        Arrays.fill(keys, 0, count, null);
+        count = 0;
+    }
+
+    @Override
+    public int classify(double lat, double lng, double[] margin) {
+        boolean near = false;
+        double outsideMargin = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            double d = GeoMath.distanceMeters(lats[i], lngs[i], lat, lng);
+            if (d < innerRadii[i]) {
+                margin[0] = innerRadii[i] - d;
+                return INSIDE;
+            }
+            if (d <= outerRadii[i]) {
+                near = true;
+            } else {
+                outsideMargin = Math.min(outsideMargin, d - outerRadii[i]);
+            }
+        }
+        if (near) {
+            return NEAR;
+        }
+        margin[0] = outsideMargin;
+        return OUTSIDE;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    private void grow() {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        lats = Arrays.copyOf(lats, capacity);
+        lngs = Arrays.copyOf(lngs, capacity);
+        innerRadii = Arrays.copyOf(innerRadii, capacity);
+        outerRadii = Arrays.copyOf(outerRadii, capacity);
+    }
+}
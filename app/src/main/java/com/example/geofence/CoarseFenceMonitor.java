@@ -0,0 +1,34 @@
+package com.example.geofence;
+
+/**
+ * Coarse circular regions around each safe area, checked before the exact
+ * polygon test.
+ *
+ * Every fence gets two circles on the same center: an inner one that fits
+ * inside the polygon and an outer one that holds all of it. A position inside
+ * any inner circle is inside a safe area, a position outside every outer
+ * circle is outside all of them, and only positions in between need the
+ * polygon test. This is the same job an OS region monitor does with circles,
+ * kept behind an interface so tests can drive it with a fake.
+ */
+public interface CoarseFenceMonitor {
+
+    int OUTSIDE = 0;
+    int INSIDE = 1;
+    // Between an inner and an outer circle, the exact test has to decide
+    int NEAR = 2;
+
+    // Adds or replaces the circles for a fence
+    void setRegion(String key, double lat, double lng, double innerRadius, double outerRadius);
+
+    void removeRegion(String key);
+
+    void clear();
+
+    /**
+     * Returns OUTSIDE, INSIDE or NEAR for the position. For OUTSIDE and INSIDE
+     * margin[0] is set to how far in meters the position can move before the
+     * answer could change.
+     */
+    int classify(double lat, double lng, double[] margin);
+}
@@ -0,0 +1,409 @@
+package com.example.geofence;
+
+import java.util.Arrays;
+
+/**
+ * A safe area compiled into primitive arrays.
+ *
+ * Polygon.getPoints() copies a new list out of the Maps SDK every time it is
+ * called, so the vertices are copied once here when the fences load. The
+ * containment test is the same one PolyUtil.containsLocation(point, polygon, false)
+ * runs (rhumb line edges), with the radians and mercator values for each vertex
+ * worked out up front so a check doesn't allocate anything.
+ *
+ * A fence can also be a circle, made with circle(). Its one vertex is the
+ * center and a check is a single flat distance against the radius, using the
+ * cosine of the center latitude worked out here.
+ */
+public class CompiledFence {
+
+    // The circles are shrunk and grown by this fraction to cover the flat distance approximation
+    private static final double CIRCLE_SLACK = 0.01;
+    // Candidate circle centers tried per side of the bounding box
+    private static final int CIRCLE_GRID = 5;
+
+    private final double[] lats;
+    private final double[] lngs;
+
+    // Per vertex values used by the containment test
+    private final double[] latRad;
+    private final double[] lngRad;
+    private final double[] mercLat;
+    // Wrapped longitude delta of the edge ending at vertex i
+    private final double[] edgeDLng;
+
+    // Bounding box in degrees
+    private final double minLat;
+    private final double maxLat;
+    private final double minLng;
+    private final double maxLng;
+    // Fences crossing the antimeridian can't use the longitude part of the box
+    private final boolean wrapsLng;
+
+    // Precomputed inside/outside cells, null for fences crossing the antimeridian and circles
+    private final FenceCoverage coverage;
+
+    // Radius in meters of a circle fence, 0 for a polygon
+    private final double radius;
+    private final double cosCenterLat;
+    private final double radiusDegreesSquared;
+
+    // Circles on one center that fit inside and around the fence, in meters
+    private double circleLat;
+    private double circleLng;
+    private double innerRadius;
+    private double outerRadius;
+
+    public CompiledFence(double[] lats, double[] lngs) {
+        if (lats.length != lngs.length) {
+            throw new IllegalArgumentException("lats and lngs must be the same length");
+        }
+
+        int n = lats.length;
+        this.lats = lats.clone();
+        this.lngs = lngs.clone();
+        latRad = new double[n];
+        lngRad = new double[n];
+        mercLat = new double[n];
+        edgeDLng = new double[n];
+
+        double loLat = Double.POSITIVE_INFINITY;
+        double hiLat = Double.NEGATIVE_INFINITY;
+        double loLng = Double.POSITIVE_INFINITY;
+        double hiLng = Double.NEGATIVE_INFINITY;
+        boolean wraps = false;
+
+        for (int i = 0; i < n; i++) {
+            latRad[i] = Math.toRadians(lats[i]);
+            lngRad[i] = Math.toRadians(lngs[i]);
+            mercLat[i] = mercator(latRad[i]);
+
+            loLat = Math.min(loLat, lats[i]);
+            hiLat = Math.max(hiLat, lats[i]);
+            loLng = Math.min(loLng, lngs[i]);
+            hiLng = Math.max(hiLng, lngs[i]);
+        }
+
+        for (int i = 0; i < n; i++) {
+            int prev = (i == 0 ? n : i) - 1;
+            edgeDLng[i] = wrap(lngRad[i] - lngRad[prev]);
+            if (Math.abs(lngs[i] - lngs[prev]) > 180) {
+                wraps = true;
+            }
+        }
+
+        minLat = loLat;
+        maxLat = hiLat;
+        minLng = wraps ? -180 : loLng;
+        maxLng = wraps ? 180 : hiLng;
+        wrapsLng = wraps;
+
+        radius = 0;
+        cosCenterLat = 0;
+        radiusDegreesSquared = 0;
+
+        coverage = wraps ? null : new FenceCoverage(this);
+        fitCircles();
+    }
+
+    private CompiledFence(double centerLat, double centerLng, double radiusMeters) {
+        if (!(radiusMeters > 0)) {
+            throw new IllegalArgumentException("radius must be positive");
+        }
+        lats = new double[]{centerLat};
+        lngs = new double[]{centerLng};
+        latRad = new double[0];
+        lngRad = new double[0];
+        mercLat = new double[0];
+        edgeDLng = new double[0];
+
+        radius = radiusMeters;
+        cosCenterLat = Math.cos(Math.toRadians(centerLat));
+        double radiusDegrees = radiusMeters / GeoMath.METERS_PER_DEGREE;
+        radiusDegreesSquared = radiusDegrees * radiusDegrees;
+
+        double dLng = radiusDegrees / cosCenterLat;
+        boolean wraps = centerLng - dLng < -180 || centerLng + dLng >= 180;
+        minLat = centerLat - radiusDegrees;
+        maxLat = centerLat + radiusDegrees;
+        minLng = wraps ? -180 : centerLng - dLng;
+        maxLng = wraps ? 180 : centerLng + dLng;
+        wrapsLng = wraps;
+        coverage = null;
+
+        circleLat = centerLat;
+        circleLng = centerLng;
+        innerRadius = radiusMeters * (1 - CIRCLE_SLACK);
+        outerRadius = radiusMeters * (1 + CIRCLE_SLACK);
+    }
+
+    public static CompiledFence circle(double centerLat, double centerLng, double radiusMeters) {
+        return new CompiledFence(centerLat, centerLng, radiusMeters);
+    }
+
+    public boolean isCircle() {
+        return radius > 0;
+    }
+
+    // Radius in meters of a circle fence, 0 for a polygon
+    public double getRadius() {
+        return radius;
+    }
+
+    public int size() {
+        return lats.length;
+    }
+
+    public double getLatitude(int i) {
+        return lats[i];
+    }
+
+    public double getLongitude(int i) {
+        return lngs[i];
+    }
+
+    public double getMinLatitude() {
+        return minLat;
+    }
+
+    public double getMaxLatitude() {
+        return maxLat;
+    }
+
+    public double getMinLongitude() {
+        return minLng;
+    }
+
+    public double getMaxLongitude() {
+        return maxLng;
+    }
+
+    // True if the other fence has the same vertices in the same order (and the same radius)
+    public boolean hasSameVertices(CompiledFence other) {
+        return radius == other.radius && Arrays.equals(lats, other.lats) && Arrays.equals(lngs, other.lngs);
+    }
+
+    public boolean boxContains(double lat, double lng) {
+        if (lat < minLat || lat > maxLat) {
+            return false;
+        }
+        return wrapsLng || (lng >= minLng && lng <= maxLng);
+    }
+
+    public FenceCoverage getCoverage() {
+        return coverage;
+    }
+
+    public double getCircleLatitude() {
+        return circleLat;
+    }
+
+    public double getCircleLongitude() {
+        return circleLng;
+    }
+
+    // Every point within this distance of the circle center is inside, 0 if no circle fits
+    public double getInnerRadius() {
+        return innerRadius;
+    }
+
+    // Every vertex is within this distance of the circle center
+    public double getOuterRadius() {
+        return outerRadius;
+    }
+
+    public boolean contains(double lat, double lng) {
+        if (lats.length == 0 || !boxContains(lat, lng)) {
+            return false;
+        }
+        if (radius > 0) {
+            double x = GeoMath.wrapDegrees(lng - lngs[0]) * cosCenterLat;
+            double y = lat - lats[0];
+            return x * x + y * y <= radiusDegreesSquared;
+        }
+        if (coverage != null) {
+            byte cell = coverage.classify(lat, lng);
+            if (cell != FenceCoverage.BOUNDARY) {
+                return cell == FenceCoverage.INSIDE;
+            }
+        }
+        return containsExact(lat, lng);
+    }
+
+    // Distance in meters from the point to the closest edge of the fence
+    public double distanceToBoundary(double lat, double lng) {
+        int n = lats.length;
+        if (n == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (radius > 0) {
+            return Math.abs(GeoMath.distanceMeters(lats[0], lngs[0], lat, lng) - radius);
+        }
+
+        // Project the edges into meters around the point
+        double metersPerLng = GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(lat));
+        double x1 = GeoMath.wrapDegrees(lngs[n - 1] - lng) * metersPerLng;
+        double y1 = (lats[n - 1] - lat) * GeoMath.METERS_PER_DEGREE;
+        double best = Double.POSITIVE_INFINITY;
+
+        for (int i = 0; i < n; i++) {
+            double x2 = GeoMath.wrapDegrees(lngs[i] - lng) * metersPerLng;
+            double y2 = (lats[i] - lat) * GeoMath.METERS_PER_DEGREE;
+
+            // Closest point on the segment to the origin
+            double dx = x2 - x1;
+            double dy = y2 - y1;
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared == 0 ? 0 : -(x1 * dx + y1 * dy) / lengthSquared;
+            t = Math.max(0, Math.min(1, t));
+            double cx = x1 + t * dx;
+            double cy = y1 + t * dy;
+            best = Math.min(best, cx * cx + cy * cy);
+
+            x1 = x2;
+            y1 = y2;
+        }
+        return Math.sqrt(best);
+    }
+
+    // Lower bound in meters on distanceToBoundary, zero when the point is in the box
+    public double distanceToBox(double lat, double lng) {
+        double dLat = Math.max(0, Math.max(minLat - lat, lat - maxLat));
+        double dLng = wrapsLng ? 0 : Math.max(0, Math.max(minLng - lng, lng - maxLng));
+        if (dLat == 0 && dLng == 0) {
+            return 0;
+        }
+        // Use the latitude furthest from the equator so the bound stays low
+        double farLat = Math.max(Math.abs(lat), Math.max(Math.abs(minLat), Math.abs(maxLat)));
+        double x = dLng * Math.cos(Math.toRadians(farLat));
+        return Math.sqrt(x * x + dLat * dLat) * GeoMath.METERS_PER_DEGREE;
+    }
+
+    // Tries the vertex average and a grid over the box, keeps the center that fits the biggest inner circle
+    private void fitCircles() {
+        int n = lats.length;
+        circleLat = (minLat + maxLat) / 2;
+        circleLng = (minLng + maxLng) / 2;
+        innerRadius = 0;
+        outerRadius = Double.POSITIVE_INFINITY;
+        if (n == 0 || wrapsLng) {
+            return;
+        }
+
+        double sumLat = 0;
+        double sumLng = 0;
+        for (int i = 0; i < n; i++) {
+            sumLat += lats[i];
+            sumLng += lngs[i];
+        }
+        double best = innerRadiusAt(sumLat / n, sumLng / n);
+        if (best > 0) {
+            circleLat = sumLat / n;
+            circleLng = sumLng / n;
+        }
+        // Odd grid size so the box center is one of the candidates
+        for (int row = 0; row < CIRCLE_GRID; row++) {
+            for (int col = 0; col < CIRCLE_GRID; col++) {
+                double lat = minLat + (maxLat - minLat) * (row + 0.5) / CIRCLE_GRID;
+                double lng = minLng + (maxLng - minLng) * (col + 0.5) / CIRCLE_GRID;
+                double radius = innerRadiusAt(lat, lng);
+                if (radius > best) {
+                    best = radius;
+                    circleLat = lat;
+                    circleLng = lng;
+                }
+            }
+        }
+        innerRadius = best * (1 - CIRCLE_SLACK);
+
+        double farthest = 0;
+        for (int i = 0; i < n; i++) {
+            farthest = Math.max(farthest, GeoMath.distanceMeters(circleLat, circleLng, lats[i], lngs[i]));
+        }
+        outerRadius = farthest * (1 + CIRCLE_SLACK);
+    }
+
+    private double innerRadiusAt(double lat, double lng) {
+        return contains(lat, lng) ? distanceToBoundary(lat, lng) : 0;
+    }
+
+    // Same walk as PolyUtil.containsLocation with geodesic = false
+    boolean containsExact(double lat, double lng) {
+        int n = lats.length;
+        double lat3 = Math.toRadians(lat);
+        double lng3 = Math.toRadians(lng);
+        double merc3 = mercator(lat3);
+
+        double lat1 = latRad[n - 1];
+        double lng1 = lngRad[n - 1];
+        double merc1 = mercLat[n - 1];
+        int nIntersect = 0;
+
+        for (int i = 0; i < n; i++) {
+            double dLng3 = wrap(lng3 - lng1);
+            // Point equal to a vertex is inside
+            if (lat3 == lat1 && dLng3 == 0) {
+                return true;
+            }
+            double lat2 = latRad[i];
+            double merc2 = mercLat[i];
+            if (intersects(lat1, lat2, merc1, merc2, edgeDLng[i], lat3, merc3, dLng3)) {
+                nIntersect++;
+            }
+            lat1 = lat2;
+            lng1 = lngRad[i];
+            merc1 = merc2;
+        }
+
+        return (nIntersect & 1) != 0;
+    }
+
+    // Does the segment (lat1, 0) -> (lat2, lng2) cross the meridian ray going
+    // south from (lat3, lng3)? Longitudes are offset so the segment starts at 0.
+    private static boolean intersects(double lat1, double lat2, double merc1, double merc2,
+                                      double lng2, double lat3, double merc3, double lng3) {
+        // Both ends on the same side of lng3
+        if ((lng3 >= 0 && lng3 >= lng2) || (lng3 < 0 && lng3 < lng2)) {
+            return false;
+        }
+        // Point is the South Pole
+        if (lat3 <= -Math.PI / 2) {
+            return false;
+        }
+        // Any segment end is a pole
+        if (lat1 <= -Math.PI / 2 || lat2 <= -Math.PI / 2 || lat1 >= Math.PI / 2 || lat2 >= Math.PI / 2) {
+            return false;
+        }
+        if (lng2 <= -Math.PI) {
+            return false;
+        }
+        double linearLat = (lat1 * (lng2 - lng3) + lat2 * lng3) / lng2;
+        // Northern hemisphere and point under lat-lng line
+        if (lat1 >= 0 && lat2 >= 0 && lat3 < linearLat) {
+            return false;
+        }
+        // Southern hemisphere and point above lat-lng line
+        if (lat1 <= 0 && lat2 <= 0 && lat3 >= linearLat) {
+            return true;
+        }
+        // North Pole
+        if (lat3 >= Math.PI / 2) {
+            return true;
+        }
+        // Compare against the rhumb line latitude at lng3
+        return merc3 >= (merc1 * (lng2 - lng3) + merc2 * lng3) / lng2;
+    }
+
+    private static double mercator(double latRad) {
+        return Math.log(Math.tan(latRad * 0.5 + Math.PI / 4));
+    }
+
+    // Wraps a longitude delta into [-PI, PI)
+    private static double wrap(double n) {
+        if (n >= -Math.PI && n < Math.PI) {
+            return n;
+        }
+        double m = 2 * Math.PI;
+        return (((n + Math.PI) % m) + m) % m - Math.PI;
+    }
+}
@@ -36,6 +36,8 @@ public class DrawerBaseActivity extends AppCompatActivity implements NavigationV
 
         navigationView = drawerLayout.findViewById(R.id.nav_View);
         navigationView.setNavigationItemSelectedListener(this);
+        // The metrics panel is a debugging aid, release builds don't show it
+        navigationView.getMenu().findItem(R.id.nav_Metrics).setVisible(BuildConfig.DEBUG);
 
         ActionBarDrawerToggle toggle = new ActionBarDrawerToggle(this, drawerLayout, toolbar, R.string.drawer_open, R.string.drawer_close);
         drawerLayout.addDrawerListener(toggle);
@@ -59,6 +61,10 @@ public class DrawerBaseActivity extends AppCompatActivity implements NavigationV
                 startActivity(new Intent(this, SettingsActivity.class));
                 overridePendingTransition(0,0);
                 break;
+            case (R.id.nav_Metrics):
+                startActivity(new Intent(this, MetricsActivity.class));
+                overridePendingTransition(0,0);
+                break;
             case (R.id.nav_Logout):
                 startActivity(new Intent(this, LogoutActivity.class));
                 overridePendingTransition(0,0);
@@ -0,0 +1,248 @@
+package com.example.geofence;
+
+import java.util.Arrays;
+
+/**
+ * Hierarchical grid of cells over one safe area, worked out when the fence is
+ * compiled, so most positions can be classified with a hash lookup instead of
+ * walking the polygon.
+ *
+ * Cells are Web Mercator tiles. Edges are rhumb lines, which are straight in
+ * that projection, so a cell no edge touches is either fully inside or fully
+ * outside the fence. Cells the boundary crosses are split up to DEPTH levels
+ * below the starting zoom, and only positions that land in a boundary cell at
+ * the finest level still need the exact point-in-polygon test.
+ */
+public class FenceCoverage {
+
+    public static final byte OUTSIDE = 0;
+    public static final byte INSIDE = 1;
+    public static final byte BOUNDARY = 2;
+
+    // Key packs zoom, x and y, so x and y have to fit in 29 bits
+    private static final int MAX_ZOOM = 29;
+    private static final int DEPTH = 5;
+    private static final long EMPTY = -1;
+
+    private final int minZoom;
+    private final int maxZoom;
+    private final double scale;
+
+    // Open addressing table of leaf cells
+    private final long[] keys;
+    private final byte[] values;
+    private final int mask;
+    private final int cellCount;
+
+    // Vertices in tile units at maxZoom, only needed while building
+    private double[] vx;
+    private double[] vy;
+
+    // Leaf cells collected while building
+    private long[] builtKeys = new long[64];
+    private byte[] builtValues = new byte[64];
+    private int builtCount = 0;
+
+    public FenceCoverage(CompiledFence fence) {
+        int n = fence.size();
+
+        // Pick the zoom where one cell is about as big as the whole fence
+        double spanX = (fence.getMaxLongitude() - fence.getMinLongitude()) / 360;
+        double spanY = Math.abs(tileY(fence.getMaxLatitude(), 1) - tileY(fence.getMinLatitude(), 1));
+        double span = Math.max(spanX, spanY);
+        int zoom = span > 0 ? (int) Math.floor(-Math.log(span) / Math.log(2)) : MAX_ZOOM;
+        minZoom = Math.max(0, Math.min(MAX_ZOOM - DEPTH, zoom));
+        maxZoom = minZoom + DEPTH;
+        scale = Math.pow(2, maxZoom);
+
+        vx = new double[n];
+        vy = new double[n];
+        for (int i = 0; i < n; i++) {
+            vx[i] = tileX(fence.getLongitude(i), scale);
+            vy[i] = tileY(fence.getLatitude(i), scale);
+        }
+
+        if (n > 0) {
+            int[] edges = new int[n];
+            for (int i = 0; i < n; i++) {
+                edges[i] = i;
+            }
+
+            // Start from the cells at minZoom under the bounding box
+            int shift = DEPTH;
+            long x0 = (long) Math.floor(min(vx)) >> shift;
+            long x1 = (long) Math.floor(max(vx)) >> shift;
+            long y0 = (long) Math.floor(min(vy)) >> shift;
+            long y1 = (long) Math.floor(max(vy)) >> shift;
+            for (long x = x0; x <= x1; x++) {
+                for (long y = y0; y <= y1; y++) {
+                    build(minZoom, x, y, edges, n);
+                }
+            }
+        }
+
+        // Keep the table at most half full
+        int capacity = 16;
+        while (capacity < builtCount * 2) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new byte[capacity];
+        mask = capacity - 1;
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < builtCount; i++) {
+            int slot = slot(builtKeys[i]);
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = builtKeys[i];
+            values[slot] = builtValues[i];
+        }
+        cellCount = builtCount;
+
+        vx = null;
+        vy = null;
+        builtKeys = null;
+        builtValues = null;
+    }
+
+    // Returns INSIDE, OUTSIDE or BOUNDARY for the cell holding the point
+    public byte classify(double lat, double lng) {
+        long x = (long) Math.floor(tileX(lng, scale));
+        long y = (long) Math.floor(tileY(lat, scale));
+
+        for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+            int shift = maxZoom - zoom;
+            long key = key(zoom, x >> shift, y >> shift);
+            int slot = slot(key);
+            while (keys[slot] != EMPTY) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        // Not under any cell, so outside the bounding box
+        return OUTSIDE;
+    }
+
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    // Approximate heap used by the cell table
+    public long getMemoryBytes() {
+        return 64 + keys.length * 9L;
+    }
+
+    private void build(int zoom, long x, long y, int[] edges, int edgeCount) {
+        double size = 1L << (maxZoom - zoom);
+        double left = x * size;
+        double top = y * size;
+        double right = left + size;
+        double bottom = top + size;
+
+        // Keep only the edges touching this cell for its children
+        int[] touching = new int[edgeCount];
+        int touchingCount = 0;
+        for (int e = 0; e < edgeCount; e++) {
+            if (edgeTouchesCell(edges[e], left, top, right, bottom)) {
+                touching[touchingCount++] = edges[e];
+            }
+        }
+
+        if (touchingCount == 0) {
+            boolean inside = containsPoint((left + right) / 2, (top + bottom) / 2);
+            addCell(key(zoom, x, y), inside ? INSIDE : OUTSIDE);
+        } else if (zoom == maxZoom) {
+            addCell(key(zoom, x, y), BOUNDARY);
+        } else {
+            for (int child = 0; child < 4; child++) {
+                build(zoom + 1, x * 2 + (child & 1), y * 2 + (child >> 1), touching, touchingCount);
+            }
+        }
+    }
+
+    // Does the edge ending at vertex i touch the closed rectangle?
+    private boolean edgeTouchesCell(int i, double left, double top, double right, double bottom) {
+        int prev = (i == 0 ? vx.length : i) - 1;
+        double x1 = vx[prev];
+        double y1 = vy[prev];
+        double x2 = vx[i];
+        double y2 = vy[i];
+
+        if (Math.max(x1, x2) < left || Math.min(x1, x2) > right
+                || Math.max(y1, y2) < top || Math.min(y1, y2) > bottom) {
+            return false;
+        }
+
+        // The line crosses the rectangle if the corners aren't all on one side of it
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double c1 = dx * (top - y1) - dy * (left - x1);
+        double c2 = dx * (top - y1) - dy * (right - x1);
+        double c3 = dx * (bottom - y1) - dy * (left - x1);
+        double c4 = dx * (bottom - y1) - dy * (right - x1);
+        boolean allAbove = c1 > 0 && c2 > 0 && c3 > 0 && c4 > 0;
+        boolean allBelow = c1 < 0 && c2 < 0 && c3 < 0 && c4 < 0;
+        return !allAbove && !allBelow;
+    }
+
+    // Even-odd test in tile space, only used on cells no edge touches
+    private boolean containsPoint(double x, double y) {
+        boolean inside = false;
+        int n = vx.length;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            if ((vy[i] > y) != (vy[j] > y)
+                    && x < (vx[j] - vx[i]) * (y - vy[i]) / (vy[j] - vy[i]) + vx[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    private void addCell(long key, byte value) {
+        if (builtCount == builtKeys.length) {
+            builtKeys = Arrays.copyOf(builtKeys, builtCount * 2);
+            builtValues = Arrays.copyOf(builtValues, builtCount * 2);
+        }
+        builtKeys[builtCount] = key;
+        builtValues[builtCount] = value;
+        builtCount++;
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+    }
+
+    private static long key(int zoom, long x, long y) {
+        return ((long) zoom << 58) | (x << 29) | y;
+    }
+
+    private static double tileX(double lng, double scale) {
+        return (lng + 180) / 360 * scale;
+    }
+
+    private static double tileY(double lat, double scale) {
+        double latRad = Math.toRadians(lat);
+        double mercator = Math.log(Math.tan(latRad * 0.5 + Math.PI / 4));
+        return (Math.PI - mercator) / (2 * Math.PI) * scale;
+    }
+
+    private static double min(double[] values) {
+        double result = Double.POSITIVE_INFINITY;
+        for (double value : values) {
+            result = Math.min(result, value);
+        }
+        return result;
+    }
+
+    private static double max(double[] values) {
+        double result = Double.NEGATIVE_INFINITY;
+        for (double value : values) {
+            result = Math.max(result, value);
+        }
+        return result;
+    }
+}
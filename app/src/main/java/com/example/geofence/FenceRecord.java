@@ -0,0 +1,271 @@
+package com.example.geofence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The stored form of a safe area under Users/{uid}/Geofences/{key}.
+ *
+ * Fences used to be saved with setValue(polygon), which reflectively wrote the
+ * whole Maps Polygon (colors, width, holes, id, a latitude/longitude object per
+ * point and so on). A record now holds only:
+ *
+ *   v    record version
+ *   pts  vertices as an encoded polyline string with 6 decimal places
+ *        (fixed point deltas, about 0.1 m resolution)
+ *   r    radius in meters, only for a circle; pts then holds just the center
+ *
+ * Records written before this had a "box" with the bounding box as well. It
+ * is ignored, the bounds come from the vertices when the fence is compiled.
+ *
+ * read() takes the plain value DataSnapshot.getValue() returns and decodes the
+ * string straight into primitive arrays. Records without "v" are the old
+ * Polygon form and are read through readLegacy(); isLegacy() tells the caller
+ * to write the record back in the new form. Records of any other version are
+ * not read, so a fence saved by a newer app is skipped rather than misread.
+ */
+public class FenceRecord {
+
+    public static final int VERSION = 1;
+
+    static final String KEY_VERSION = "v";
+    static final String KEY_POINTS = "pts";
+    static final String KEY_RADIUS = "r";
+
+    private static final double SCALE = 1e6;
+
+    private final double[] lats;
+    private final double[] lngs;
+    // Meters for a circle, 0 for a polygon
+    private final double radius;
+    private final boolean legacy;
+
+    private FenceRecord(double[] lats, double[] lngs, double radius, boolean legacy) {
+        this.lats = lats;
+        this.lngs = lngs;
+        this.radius = radius;
+        this.legacy = legacy;
+    }
+
+    public static FenceRecord fromPoints(double[] lats, double[] lngs) {
+        if (lats.length != lngs.length) {
+            throw new IllegalArgumentException("lats and lngs must be the same length");
+        }
+        // Round the same way encoding does, so a record reads back exactly as it was created
+        double[] roundedLats = new double[lats.length];
+        double[] roundedLngs = new double[lngs.length];
+        for (int i = 0; i < lats.length; i++) {
+            roundedLats[i] = Math.round(lats[i] * SCALE) / SCALE;
+            roundedLngs[i] = Math.round(lngs[i] * SCALE) / SCALE;
+        }
+        return new FenceRecord(roundedLats, roundedLngs, 0, false);
+    }
+
+    public static FenceRecord fromCircle(double centerLat, double centerLng, double radiusMeters) {
+        if (!(radiusMeters > 0)) {
+            throw new IllegalArgumentException("radius must be positive");
+        }
+        FenceRecord center = fromPoints(new double[]{centerLat}, new double[]{centerLng});
+        // Centimeters are plenty
+        double radius = Math.round(radiusMeters * 100) / 100.0;
+        return new FenceRecord(center.lats, center.lngs, radius, false);
+    }
+
+    /**
+     * Reads either record format, returns null if the value isn't a fence.
+     */
+    public static FenceRecord read(Object value) {
+        if (!(value instanceof Map)) {
+            return null;
+        }
+        Map<?, ?> map = (Map<?, ?>) value;
+        Object version = map.get(KEY_VERSION);
+        if (version == null) {
+            return readLegacy(map);
+        }
+        if (!(version instanceof Number) || ((Number) version).doubleValue() != VERSION) {
+            return null;
+        }
+
+        Object points = map.get(KEY_POINTS);
+        if (!(points instanceof String)) {
+            return null;
+        }
+        FenceRecord record = decode((String) points);
+        Object radius = map.get(KEY_RADIUS);
+        if (record == null || radius == null) {
+            return record;
+        }
+        if (!(radius instanceof Number) || !(((Number) radius).doubleValue() > 0) || record.size() != 1) {
+            return null;
+        }
+        return new FenceRecord(record.lats, record.lngs, ((Number) radius).doubleValue(), false);
+    }
+
+    // The old setValue(polygon) form, points is a list (or a map keyed "0", "1", ...) of latitude/longitude
+    static FenceRecord readLegacy(Map<?, ?> map) {
+        Object points = map.get("points");
+        List<?> pointList;
+        if (points instanceof List) {
+            pointList = (List<?>) points;
+        } else if (points instanceof Map) {
+            Map<?, ?> pointMap = (Map<?, ?>) points;
+            List<Object> ordered = new ArrayList<>();
+            for (int i = 0; pointMap.containsKey(String.valueOf(i)); i++) {
+                ordered.add(pointMap.get(String.valueOf(i)));
+            }
+            pointList = ordered;
+        } else {
+            return null;
+        }
+
+        int n = pointList.size();
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        for (int i = 0; i < n; i++) {
+            if (!(pointList.get(i) instanceof Map)) {
+                return null;
+            }
+            Map<?, ?> point = (Map<?, ?>) pointList.get(i);
+            Object lat = point.get("latitude");
+            Object lng = point.get("longitude");
+            if (!(lat instanceof Number) || !(lng instanceof Number)) {
+                return null;
+            }
+            lats[i] = ((Number) lat).doubleValue();
+            lngs[i] = ((Number) lng).doubleValue();
+        }
+        FenceRecord record = fromPoints(lats, lngs);
+        return new FenceRecord(record.lats, record.lngs, 0, true);
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put(KEY_VERSION, VERSION);
+        map.put(KEY_POINTS, encode(lats, lngs));
+        if (radius > 0) {
+            map.put(KEY_RADIUS, radius);
+        }
+        return map;
+    }
+
+    public CompiledFence compile() {
+        if (radius > 0) {
+            return CompiledFence.circle(lats[0], lngs[0], radius);
+        }
+        return new CompiledFence(lats, lngs);
+    }
+
+    public boolean isCircle() {
+        return radius > 0;
+    }
+
+    public double getRadius() {
+        return radius;
+    }
+
+    // True if this was read from the old format and should be written back
+    public boolean isLegacy() {
+        return legacy;
+    }
+
+    public int size() {
+        return lats.length;
+    }
+
+    public double getLatitude(int i) {
+        return lats[i];
+    }
+
+    public double getLongitude(int i) {
+        return lngs[i];
+    }
+
+    private static long toFixed(double degrees) {
+        return Math.round(degrees * SCALE);
+    }
+
+    // Encoded polyline algorithm with a 1e6 factor
+    static String encode(double[] lats, double[] lngs) {
+        StringBuilder sb = new StringBuilder(lats.length * 8);
+        long prevLat = 0;
+        long prevLng = 0;
+        for (int i = 0; i < lats.length; i++) {
+            long lat = toFixed(lats[i]);
+            long lng = toFixed(lngs[i]);
+            encodeValue(lat - prevLat, sb);
+            encodeValue(lng - prevLng, sb);
+            prevLat = lat;
+            prevLng = lng;
+        }
+        return sb.toString();
+    }
+
+    private static void encodeValue(long value, StringBuilder sb) {
+        long v = value < 0 ? ~(value << 1) : value << 1;
+        while (v >= 0x20) {
+            sb.append((char) ((0x20 | (v & 0x1f)) + 63));
+            v >>= 5;
+        }
+        sb.append((char) (v + 63));
+    }
+
+    static FenceRecord decode(String encoded) {
+        // Each vertex takes at least two characters, size the arrays once and trim at the end
+        int capacity = encoded.length() / 2;
+        double[] lats = new double[capacity];
+        double[] lngs = new double[capacity];
+        int n = 0;
+
+        int index = 0;
+        int length = encoded.length();
+        long lat = 0;
+        long lng = 0;
+        long[] result = new long[1];
+        while (index < length) {
+            index = decodeValue(encoded, index, result);
+            if (index < 0 || index >= length) {
+                return null;
+            }
+            lat += result[0];
+            index = decodeValue(encoded, index, result);
+            if (index < 0) {
+                return null;
+            }
+            lng += result[0];
+
+            lats[n] = lat / SCALE;
+            lngs[n] = lng / SCALE;
+            n++;
+        }
+
+        if (n != capacity) {
+            double[] trimmedLats = new double[n];
+            double[] trimmedLngs = new double[n];
+            System.arraycopy(lats, 0, trimmedLats, 0, n);
+            System.arraycopy(lngs, 0, trimmedLngs, 0, n);
+            lats = trimmedLats;
+            lngs = trimmedLngs;
+        }
+        return new FenceRecord(lats, lngs, 0, false);
+    }
+
+    // Returns the index after the value, or -1 if the string ends part way through
+    private static int decodeValue(String encoded, int index, long[] out) {
+        long result = 0;
+        int shift = 0;
+        int b;
+        do {
+            if (index >= encoded.length()) {
+                return -1;
+            }
+            b = encoded.charAt(index++) - 63;
+            result |= (long) (b & 0x1f) << shift;
+            shift += 5;
+        } while (b >= 0x20);
+        out[0] = (result & 1) != 0 ? ~(result >> 1) : result >> 1;
+        return index;
+    }
+}
@@ -4,64 +4,597 @@ import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.Service;
+import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Binder;
 import android.os.Build;
 import android.os.IBinder;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.NotificationManagerCompat;
+import androidx.core.content.ContextCompat;
 
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.FirebaseDatabase;
+import com.google.firebase.database.ValueEventListener;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Watches the pets for as long as the user is logged in, whether or not
+ * MapsActivity is open.
+ *
+ * The safe area, pet and tracker listeners, the containment pipeline and the
+ * exit alerts all live in one PetMonitor created in onCreate, with a single
+ * background thread doing the checks. onStartCommand can be called any number
+ * of times without starting anything twice. onDestroy (logout) detaches every
+ * listener and stops the thread. MapsActivity binds to get the monitor and
+ * draw the pets.
+ *
+ * Pets far inside a safe area are checked less often, how much less is the
+ * power profile picked in SettingsActivity.
+ *
+ * The fences, pets and pet positions are also kept in a MapSnapshot, written a
+ * few seconds after they change. On startup the monitor is loaded from it on
+ * the worker, so checks start before Firebase answers, and MapsActivity draws
+ * from it. The Firebase listeners are attached once it is loaded.
+ *
+ * Every checked position is appended to a PositionHistory, which is compacted
+ * every few hours: full detail for a day, one position per 30 seconds for a
+ * month, nothing older.
+ *
+ * The monitor's listener and update counts are registered with Metrics for
+ * as long as the service runs, next to the alerts sent.
+ */
 public class ForegroundService extends Service{
 
     public static final String CHANNEL_ID = "foreground_channel";
+    private static final int NOTIFICATION_ID = 1001;
+    // Changes that come close together end up in one write
+    private static final long SNAPSHOT_DELAY_MS = 5000;
+    private static final long HISTORY_FULL_MS = TimeUnit.DAYS.toMillis(1);
+    private static final long HISTORY_KEEP_MS = TimeUnit.DAYS.toMillis(30);
+    private static final long HISTORY_THIN_INTERVAL_MS = 30000;
+    private static final long HISTORY_COMPACT_HOURS = 6;
+
+    public class LocalBinder extends Binder {
+        public PetMonitor<ValueEventListener, DataSnapshot> getMonitor() {
+            return petMonitor;
+        }
+
+        public PositionHistory getHistory() {
+            return history;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final Metrics.Counter notificationsSent = Metrics.getDefault().counter("notifications_sent_total",
+            "Pet left its safe area notifications posted");
+
+    private ScheduledExecutorService trackerWorker;
+    private PetMonitor<ValueEventListener, DataSnapshot> petMonitor;
+
+    private DatabaseReference databaseReference;
+    private DatabaseReference geofenceReference;
+    private DatabaseReference petsReference;
+    private ChildEventListener geofenceListener;
+    private ValueEventListener petsListener;
+
+    private PositionHistory history;
+    private final Runnable compactHistory = new Runnable() {
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            try {
+                history.compact(now - HISTORY_KEEP_MS, now - HISTORY_FULL_MS, HISTORY_THIN_INTERVAL_MS);
+            } catch (IOException e) {
+                Log.i("Service", "Could not compact position history: " + e.getMessage());
+            }
+        }
+    };
+
+    // Set once the snapshot has been read, which happens before any listener is attached
+    private MapSnapshot snapshot;
+    private File snapshotFile;
+    private boolean isMonitoring = false;
+    private final AtomicBoolean snapshotWriteScheduled = new AtomicBoolean(false);
+    private final Runnable writeSnapshot = new Runnable() {
+        @Override
+        public void run() {
+            snapshotWriteScheduled.set(false);
+            try {
+                snapshot.writeIfDirty(snapshotFile);
+            } catch (IOException e) {
+                Log.i("Service", "Could not save map snapshot: " + e.getMessage());
+            }
+        }
+    };
+    // Keeps the snapshot's pets and positions current
+    private final PetMonitor.Observer snapshotObserver = new PetMonitor.Observer() {
+        @Override
+        public void onPetsChanged(List<Pet> pets) {
+            snapshot.setPets(pets);
+            scheduleSnapshotWrite();
+        }
+
+        @Override
+        public void onPetMoved(String petName, long timeMillis, double lat, double lng, long receivedNanos) {
+            snapshot.setPosition(petName, lat, lng);
+            scheduleSnapshotWrite();
+        }
+    };
+
+    // Held here, SharedPreferences only keeps a weak reference to it
+    private SharedPreferences settings;
+    private final SharedPreferences.OnSharedPreferenceChangeListener settingsListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+            if (SettingsActivity.KEY_POWER_PROFILE.equals(key)) {
+                petMonitor.setPowerProfile(readPowerProfile());
+            }
+        }
+    };
 
     @Override
-    public int onStartCommand(Intent intent, int flags, int startId) {
-        new Thread(
-                new Runnable() {
+    public void onCreate() {
+        super.onCreate();
+        createNotificationChannel();
+
+        // One low priority thread for every tracker, it only wakes up when an update arrives
+        trackerWorker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                return new Thread(new Runnable() {
                     @Override
                     public void run() {
-                        while (true) {
-                            Log.i("Service", "Service is running...");
-                            try {
-                                Thread.sleep(2000);
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
-                            }
-                        }
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
                     }
-                }
-        ).start();
+                }, "pet-monitor");
+            }
+        });
+        settings = getSharedPreferences(SettingsActivity.PREFS_NAME, Context.MODE_PRIVATE);
+        petMonitor = createPetMonitor();
+        settings.registerOnSharedPreferenceChangeListener(settingsListener);
 
-        createNotificationChannel();
+        history = new PositionHistory(new File(getFilesDir(), "history"));
+        petMonitor.setRecorder(new TrackerPipeline.Recorder() {
+            @Override
+            public void onChecked(String trackerID, long timeMillis, double lat, double lng, boolean inside) {
+                try {
+                    history.append(trackerID, timeMillis, lat, lng,
+                            inside ? 0 : PositionHistory.FLAG_OUTSIDE);
+                } catch (IOException e) {
+                    Log.i("Service", "Could not save position: " + e.getMessage());
+                }
+            }
+        });
+        trackerWorker.scheduleWithFixedDelay(compactHistory, 1, HISTORY_COMPACT_HOURS * 60, TimeUnit.MINUTES);
+        registerMetrics();
+    }
 
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
         NotificationCompat.Builder builder = new NotificationCompat.Builder(this, CHANNEL_ID)
                 .setContentTitle("Pet Tracker Running")
                 .setContentText("The tracker service is running.")
                 .setSmallIcon(R.drawable.ic_launcher_background);
 
-        startForeground(1001, builder.build());
+        startForeground(NOTIFICATION_ID, builder.build());
+
+        // Already watching, a second start must not add listeners
+        if (!isMonitoring) {
+            String uid = currentUserID();
+            if (uid == null) {
+                Log.i("Service", "No user logged in, stopping");
+                stopSelf();
+                return START_NOT_STICKY;
+            }
+            startMonitoring(uid);
+        }
 
-        return super.onStartCommand(intent, flags, startId);
+        // Brought back after the process is killed, the listeners are attached again in onStartCommand
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (geofenceListener != null) {
+            geofenceReference.removeEventListener(geofenceListener);
+            geofenceListener = null;
+        }
+        if (petsListener != null) {
+            petsReference.removeEventListener(petsListener);
+            petsListener = null;
+        }
+        settings.unregisterOnSharedPreferenceChangeListener(settingsListener);
+        unregisterMetrics();
+        petMonitor.removeObserver(snapshotObserver);
+        petMonitor.stop();
+        trackerWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                history.flush();
+            }
+        });
+        // A write still waiting runs before the thread ends, the compaction is dropped
+        trackerWorker.shutdown();
     }
 
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        return null;
+        return binder;
+    }
+
+    // UserApplication is empty when the service is restarted on its own
+    private String currentUserID() {
+        String uid = UserApplication.getmUserID();
+        if (uid != null && !uid.isEmpty()) {
+            return uid;
+        }
+        FirebaseUser user = FirebaseAuth.getInstance().getCurrentUser();
+        return user == null ? null : user.getUid();
+    }
+
+    private PetMonitor<ValueEventListener, DataSnapshot> createPetMonitor() {
+        databaseReference = FirebaseDatabase.getInstance().getReference();
+
+        PetMonitor.Alerts alerts = new PetMonitor.Alerts() {
+            @Override
+            public void onPetLeft(Pet pet, double lat, double lng) {
+                sendOutOfBoundsNotification(pet);
+            }
+
+            @Override
+            public void onPetReturned(Pet pet) {
+                Log.i("Service", pet.getPetName() + " is safe :)");
+            }
+        };
+
+        // Wakeups for held back updates run on the same thread as everything else
+        AdaptiveSampler.Timer timer = new AdaptiveSampler.Timer() {
+            @Override
+            public long nowMillis() {
+                return SystemClock.elapsedRealtime();
+            }
+
+            @Override
+            public void schedule(Runnable task, long delayMillis) {
+                if (!trackerWorker.isShutdown()) {
+                    trackerWorker.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+        };
+        AdaptiveSampler sampler = new AdaptiveSampler(timer, readPowerProfile());
+
+        return createPetMonitor(databaseReference, trackerWorker, ContextCompat.getMainExecutor(this), alerts, sampler);
+    }
+
+    /**
+     * A PetMonitor listening to the Trackers nodes under root. The alert
+     * latency benchmark builds its monitor here too, against the emulator.
+     */
+    static PetMonitor<ValueEventListener, DataSnapshot> createPetMonitor(final DatabaseReference root, Executor worker,
+            Executor mainThread, PetMonitor.Alerts alerts, AdaptiveSampler sampler) {
+        // The listeners hand updates to the monitor, which isn't built yet
+        final AtomicReference<PetMonitor<ValueEventListener, DataSnapshot>> monitor = new AtomicReference<>();
+
+        TrackerSubscriptionManager.Source<ValueEventListener> trackers = new TrackerSubscriptionManager.Source<ValueEventListener>() {
+            @Override
+            public ValueEventListener attach(final String trackerID) {
+                ValueEventListener listener = new ValueEventListener() {
+                    @Override
+                    public void onDataChange(@NonNull DataSnapshot snapshot) {
+                        // Parsing and the containment check happen on the worker
+                        monitor.get().offer(trackerID, snapshot);
+                    }
+
+                    @Override
+                    public void onCancelled(@NonNull DatabaseError error) {
+
+                    }
+                };
+                root.child("Trackers").child(trackerID).addValueEventListener(listener);
+                return listener;
+            }
+
+            @Override
+            public void detach(String trackerID, ValueEventListener handle) {
+                root.child("Trackers").child(trackerID).removeEventListener(handle);
+            }
+        };
+
+        TrackerPipeline.Parser<DataSnapshot> parser = new TrackerPipeline.Parser<DataSnapshot>() {
+            @Override
+            public boolean parse(DataSnapshot snapshot, TrackerSample out) {
+                return TrackerSample.read(
+                        snapshot.child("isActive").getValue(),
+                        snapshot.child("latitude").getValue(),
+                        snapshot.child("longitude").getValue(),
+                        out);
+            }
+        };
+
+        GeofenceEngine engine = new GeofenceEngine(new StrRTree(), new CircleFenceMonitor());
+        monitor.set(new PetMonitor<>(engine, trackers, parser, worker, mainThread, alerts, sampler));
+        return monitor.get();
+    }
+
+    // Read only when the metrics are dumped, the monitor already counts these
+    private void registerMetrics() {
+        Metrics metrics = Metrics.getDefault();
+        metrics.register("firebase_tracker_listeners", "Trackers/{id} listeners attached", new Metrics.Reading() {
+            @Override
+            public long read() {
+                return petMonitor.getActiveListenerCount();
+            }
+        });
+        metrics.register("tracker_updates_checked", "Tracker updates checked against the safe areas", new Metrics.Reading() {
+            @Override
+            public long read() {
+                return petMonitor.getProcessedCount();
+            }
+        });
+        metrics.register("tracker_updates_dropped_stale", "Tracker updates replaced by a newer one before they were checked",
+                new Metrics.Reading() {
+            @Override
+            public long read() {
+                return petMonitor.getCoalescedCount();
+            }
+        });
+        metrics.register("tracker_updates_deferred", "Tracker updates held back by the power profile", new Metrics.Reading() {
+            @Override
+            public long read() {
+                return petMonitor.getDeferredCount();
+            }
+        });
+        metrics.register("containment_cache_hits", "Checks answered from the tracker's safe radius",
+                new Metrics.Reading() {
+            @Override
+            public long read() {
+                return petMonitor.getCacheHitCount();
+            }
+        });
+        metrics.register("containment_cache_misses", "Checks that had to ask the safe areas again",
+                new Metrics.Reading() {
+            @Override
+            public long read() {
+                return petMonitor.getCacheMissCount();
+            }
+        });
+        metrics.register("containment_coarse_decisions", "Cache misses decided by the coarse circles alone",
+                new Metrics.Reading() {
+            @Override
+            public long read() {
+                return petMonitor.getCoarseDecisionCount();
+            }
+        });
+        // Read when the metrics are shown, so they follow every fence added, changed or removed
+        metrics.register("fence_coverage_cells", "Inside/outside cells precomputed for the safe areas",
+                new Metrics.Reading() {
+            @Override
+            public long read() {
+                return petMonitor.getEngine().getCoverageCellCount();
+            }
+        });
+        metrics.register("fence_coverage_bytes", "Approximate heap used by the safe area cell coverage",
+                new Metrics.Reading() {
+            @Override
+            public long read() {
+                return petMonitor.getEngine().getCoverageMemoryBytes();
+            }
+        });
+    }
+
+    private void unregisterMetrics() {
+        Metrics metrics = Metrics.getDefault();
+        metrics.unregister("firebase_tracker_listeners");
+        metrics.unregister("tracker_updates_checked");
+        metrics.unregister("tracker_updates_dropped_stale");
+        metrics.unregister("tracker_updates_deferred");
+        metrics.unregister("containment_cache_hits");
+        metrics.unregister("containment_cache_misses");
+        metrics.unregister("containment_coarse_decisions");
+        metrics.unregister("fence_coverage_cells");
+        metrics.unregister("fence_coverage_bytes");
+    }
+
+    private AdaptiveSampler.PowerProfile readPowerProfile() {
+        return AdaptiveSampler.PowerProfile.forName(
+                settings.getString(SettingsActivity.KEY_POWER_PROFILE, AdaptiveSampler.PowerProfile.BALANCED.name));
+    }
+
+    private void startMonitoring(final String uid) {
+        isMonitoring = true;
+        geofenceReference = databaseReference.child("Users").child(uid).child("Geofences");
+        petsReference = databaseReference.child("Users").child(uid).child("Pets");
+        snapshotFile = new File(getFilesDir(), MapSnapshot.FILE_NAME);
+
+        // Reading the snapshot and compiling its fences takes tens of ms with many fences, so it runs on
+        // the worker. The listeners are attached after it, so what Firebase sends always replaces it.
+        final Executor mainThread = ContextCompat.getMainExecutor(this);
+        trackerWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                final MapSnapshot saved = loadSnapshot(uid);
+                mainThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Destroyed while the snapshot was read
+                        if (trackerWorker.isShutdown()) {
+                            return;
+                        }
+                        if (saved != null) {
+                            snapshot = saved;
+                            petMonitor.setPets(saved.getPets());
+                        } else {
+                            snapshot = new MapSnapshot(uid);
+                        }
+                        attachListeners();
+                    }
+                });
+            }
+        });
+    }
+
+    private void attachListeners() {
+        // Each callback only touches the one fence it is about
+        geofenceListener = new ChildEventListener() {
+            @Override
+            public void onChildAdded(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                FenceRecord record = FenceRecord.read(snapshot.getValue());
+                if (record != null) {
+                    petMonitor.putFence(snapshot.getKey(), record.compile());
+                    ForegroundService.this.snapshot.putFence(snapshot.getKey(), record);
+                    scheduleSnapshotWrite();
+                }
+            }
+
+            @Override
+            public void onChildChanged(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                onChildAdded(snapshot, previousChildName);
+            }
+
+            @Override
+            public void onChildRemoved(@NonNull DataSnapshot snapshot) {
+                petMonitor.removeFence(snapshot.getKey());
+                ForegroundService.this.snapshot.removeFence(snapshot.getKey());
+                scheduleSnapshotWrite();
+            }
+
+            @Override
+            public void onChildMoved(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+
+            }
+        };
+        geofenceReference.addChildEventListener(geofenceListener);
+
+        // Fences from the snapshot that were deleted since get no onChildRemoved
+        geofenceReference.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot dataSnapshot) {
+                Set<String> fenceKeys = new HashSet<>();
+                for (DataSnapshot child : dataSnapshot.getChildren()){
+                    fenceKeys.add(child.getKey());
+                }
+                petMonitor.retainFences(fenceKeys);
+                snapshot.retainFences(fenceKeys);
+                scheduleSnapshotWrite();
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+
+            }
+        });
+
+        petsListener = new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                // Every change delivers the full list
+                List<Pet> pets = new ArrayList<>();
+                for (DataSnapshot dataSnapshot : snapshot.getChildren()){
+                    String petName = dataSnapshot.child("petName").getValue(String.class);
+                    String petTID = dataSnapshot.child("petTrackerID").getValue(String.class);
+                    pets.add(new Pet(petName, petTID, "000"));
+                }
+                petMonitor.setPets(pets);
+                Log.i("Service", "Active tracker listeners: " + petMonitor.getActiveListenerCount());
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+
+            }
+        };
+        petsReference.addValueEventListener(petsListener);
+        petMonitor.addObserver(snapshotObserver);
+        petMonitor.start();
+    }
+
+    // On the worker: the last saved fences go into the engine, null if there is no snapshot of this user
+    private MapSnapshot loadSnapshot(String uid) {
+        MapSnapshot saved = MapSnapshot.read(snapshotFile);
+        if (saved == null || !uid.equals(saved.getUserID())) {
+            return null;
+        }
+        for (Map.Entry<String, FenceRecord> entry : saved.getFences().entrySet()) {
+            petMonitor.putFence(entry.getKey(), entry.getValue().compile());
+        }
+        Log.i("Service", "Loaded " + saved.getFences().size() + " safe areas from the map snapshot");
+        return saved;
+    }
+
+    private void scheduleSnapshotWrite() {
+        if (snapshotWriteScheduled.compareAndSet(false, true) && !trackerWorker.isShutdown()) {
+            trackerWorker.schedule(writeSnapshot, SNAPSHOT_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Runs on the tracker worker thread, NotificationManagerCompat is fine with that
+    private void sendOutOfBoundsNotification(Pet pet){
+        Log.i("Service", pet.getPetName() + " is out of bounds!");
+
+        NotificationManagerCompat notificationManagerCompat = NotificationManagerCompat.from(this);
+        notificationManagerCompat.notify(0, buildOutOfBoundsNotification(this, pet));
+        notificationsSent.increment();
+    }
+
+    static Notification buildOutOfBoundsNotification(Context context, Pet pet){
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, MapsActivity.CHANNEL_ID)
+                .setContentTitle("Pet Outside Safe Area!")
+                .setContentText("Your pet, " + pet.getPetName() + ", has left the safe area.")
+                .setSmallIcon(R.drawable.ic_launcher_background)
+                .setPriority(Notification.PRIORITY_MAX);
+        return builder.build();
     }
 
     private void createNotificationChannel(){
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager notificationManager = getSystemService(NotificationManager.class);
+
             CharSequence name = "channel";
             String description = "channel description";
-            int importance = NotificationManager.IMPORTANCE_LOW;
-            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, name, importance);
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, name, NotificationManager.IMPORTANCE_LOW);
             channel.setDescription(description);
-            NotificationManager notificationManager = getSystemService(NotificationManager.class);
             notificationManager.createNotificationChannel(channel);
+
+            // Exit alerts, the same channel MapsActivity sets up, in case the service starts on its own
+            NotificationChannel alertChannel = new NotificationChannel(MapsActivity.CHANNEL_ID, name, NotificationManager.IMPORTANCE_HIGH);
+            alertChannel.setDescription(description);
+            notificationManager.createNotificationChannel(alertChannel);
         }
     }
 }
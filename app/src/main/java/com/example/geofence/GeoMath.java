@@ -0,0 +1,54 @@
+package com.example.geofence;
+
+/**
+ * Small distance helpers shared by the geofence code. Safe areas are yard
+ * sized, so a local equirectangular approximation is plenty accurate.
+ */
+public final class GeoMath {
+
+    public static final double EARTH_RADIUS = 6371009;
+    public static final double METERS_PER_DEGREE = EARTH_RADIUS * Math.PI / 180;
+
+    private GeoMath() {
+    }
+
+    public static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        double dLng = wrapDegrees(lng2 - lng1);
+        double x = dLng * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = lat2 - lat1;
+        return Math.sqrt(x * x + y * y) * METERS_PER_DEGREE;
+    }
+
+    // Wraps a longitude delta into [-180, 180)
+    public static double wrapDegrees(double degrees) {
+        if (degrees >= -180 && degrees < 180) {
+            return degrees;
+        }
+        return (((degrees + 180) % 360) + 360) % 360 - 180;
+    }
+
+    /**
+     * Area of a polygon on the sphere in square meters, the same as
+     * SphericalUtil.computeArea() but on plain arrays. Each edge adds the
+     * signed area of the triangle it makes with the north pole.
+     */
+    public static double areaSquareMeters(double[] lats, double[] lngs) {
+        int n = lats.length;
+        if (n < 3) {
+            return 0;
+        }
+        double total = 0;
+        double prevTanLat = Math.tan((Math.PI / 2 - Math.toRadians(lats[n - 1])) / 2);
+        double prevLng = Math.toRadians(lngs[n - 1]);
+        for (int i = 0; i < n; i++) {
+            double tanLat = Math.tan((Math.PI / 2 - Math.toRadians(lats[i])) / 2);
+            double lng = Math.toRadians(lngs[i]);
+            double dLng = lng - prevLng;
+            double t = tanLat * prevTanLat;
+            total += 2 * Math.atan2(t * Math.sin(dLng), 1 + t * Math.cos(dLng));
+            prevTanLat = tanLat;
+            prevLng = lng;
+        }
+        return Math.abs(total * EARTH_RADIUS * EARTH_RADIUS);
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.geofence;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the compiled safe areas and answers "is this position inside any of
+ * them?" without going back to the Maps SDK.
+ *
+ * Fences are keyed by their Firebase push ID so a change to one safe area only
+ * touches that fence in the index. Fences change on the main thread while
+ * tracker updates are checked on a background thread, so the public methods
+ * are synchronized.
+ */
+public class GeofenceEngine {
+
+    // Batches smaller than this aren't worth handing to the fork-join pool. Forking
+    // costs about 4 us, a position 0.1 to 0.7 us from 10 to 1000 fences, so two
+    // 64-position halves already pay off. TrackerPipeline sends up to 512.
+    private static final int PARALLEL_THRESHOLD = 128;
+    private static final boolean FORK_JOIN_AVAILABLE = isForkJoinAvailable();
+
+    private final Map<String, CompiledFence> fencesByKey = new HashMap<>();
+    private final GeofenceIndex index;
+    // Optional circle gate in front of the polygon test, null checks every position exactly
+    private final CoarseFenceMonitor monitor;
+
+    // Reused between checks so a lookup doesn't allocate
+    private final ArrayList<CompiledFence> candidates = new ArrayList<>();
+
+    // Bumped on every change so cached decisions know when they're stale
+    private long version = 0;
+
+    private final Metrics.Histogram fencesTested = fencesTestedHistogram();
+
+    public GeofenceEngine() {
+        this(new StrRTree());
+    }
+
+    public GeofenceEngine(GeofenceIndex index) {
+        this(index, null);
+    }
+
+    public GeofenceEngine(GeofenceIndex index, CoarseFenceMonitor monitor) {
+        this.index = index;
+        this.monitor = monitor;
+    }
+
+    // Safe areas run through the exact test per position, shared with TrackerContainment's cached decisions
+    static Metrics.Histogram fencesTestedHistogram() {
+        return Metrics.getDefault().histogram("fences_tested_per_update",
+                "Safe areas run through the exact containment test per tracker position", Metrics.SMALL_COUNTS);
+    }
+
+    public synchronized void put(String key, CompiledFence fence) {
+        CompiledFence previous = fencesByKey.put(key, fence);
+        if (previous != null) {
+            // Unchanged fence, keep the one already indexed
+            if (previous.hasSameVertices(fence)) {
+                fencesByKey.put(key, previous);
+                return;
+            }
+            index.remove(previous);
+        }
+        index.insert(fence);
+        if (monitor != null) {
+            monitor.setRegion(key, fence.getCircleLatitude(), fence.getCircleLongitude(),
+                    fence.getInnerRadius(), fence.getOuterRadius());
+        }
+        version++;
+    }
+
+    public synchronized void remove(String key) {
+        CompiledFence previous = fencesByKey.remove(key);
+        if (previous != null) {
+            index.remove(previous);
+            if (monitor != null) {
+                monitor.removeRegion(key);
+            }
+            version++;
+        }
+    }
+
+    // Drops every fence whose key isn't in keys
+    public synchronized void retainAll(Collection<String> keys) {
+        Iterator<Map.Entry<String, CompiledFence>> iterator = fencesByKey.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, CompiledFence> entry = iterator.next();
+            if (!keys.contains(entry.getKey())) {
+                index.remove(entry.getValue());
+                if (monitor != null) {
+                    monitor.removeRegion(entry.getKey());
+                }
+                iterator.remove();
+                version++;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        fencesByKey.clear();
+        index.clear();
+        if (monitor != null) {
+            monitor.clear();
+        }
+        version++;
+    }
+
+    public synchronized int size() {
+        return fencesByKey.size();
+    }
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    public synchronized boolean contains(double lat, double lng) {
+        return contains(lat, lng, candidates);
+    }
+
+    /**
+     * Asks the coarse monitor about the position without running a polygon
+     * test. Returns CoarseFenceMonitor.NEAR when there is no monitor, meaning
+     * the caller has to check exactly.
+     */
+    public synchronized int classifyCoarse(double lat, double lng, double[] margin) {
+        if (monitor == null) {
+            return CoarseFenceMonitor.NEAR;
+        }
+        return monitor.classify(lat, lng, margin);
+    }
+
+    /**
+     * Checks many positions at once, e.g. every tracker's first snapshot.
+     * Bit i of the result is set if position i is inside a safe area. Large
+     * batches are split across the fork-join pool; fences must not change
+     * while this runs.
+     */
+    public synchronized BitSet containsAll(double[] lats, double[] lngs) {
+        if (lats.length != lngs.length) {
+            throw new IllegalArgumentException("lats and lngs must be the same length");
+        }
+
+        long[] words = new long[(lats.length + 63) / 64];
+        if (FORK_JOIN_AVAILABLE && lats.length >= PARALLEL_THRESHOLD) {
+            BatchContainmentTask.run(this, lats, lngs, words);
+        } else {
+            containsRange(lats, lngs, 0, lats.length, words, candidates);
+        }
+        return BitSet.valueOf(words);
+    }
+
+    // Sets the bits for positions [from, to), each caller brings its own scratch list
+    void containsRange(double[] lats, double[] lngs, int from, int to, long[] words,
+                       ArrayList<CompiledFence> scratch) {
+        for (int i = from; i < to; i++) {
+            if (contains(lats[i], lngs[i], scratch)) {
+                words[i >> 6] |= 1L << (i & 63);
+            }
+        }
+    }
+
+    private boolean contains(double lat, double lng, ArrayList<CompiledFence> scratch) {
+        scratch.clear();
+        index.search(lat, lng, scratch);
+        // Indexed loop so the check doesn't allocate an iterator
+        for (int i = 0; i < scratch.size(); i++) {
+            if (scratch.get(i).contains(lat, lng)) {
+                fencesTested.record(i + 1);
+                return true;
+            }
+        }
+        fencesTested.record(scratch.size());
+        return false;
+    }
+
+    // Distance in meters from the point to the closest edge of any fence
+    public synchronized double distanceToNearestBoundary(double lat, double lng) {
+        double best = Double.POSITIVE_INFINITY;
+        for (CompiledFence fence : fencesByKey.values()) {
+            // Boxes further than the best edge so far can't hold a closer one
+            if (fence.distanceToBox(lat, lng) < best) {
+                best = Math.min(best, fence.distanceToBoundary(lat, lng));
+            }
+        }
+        return best;
+    }
+
+    public synchronized int getCoverageCellCount() {
+        int cells = 0;
+        for (CompiledFence fence : fencesByKey.values()) {
+            if (fence.getCoverage() != null) {
+                cells += fence.getCoverage().getCellCount();
+            }
+        }
+        return cells;
+    }
+
+    // Approximate heap used by the precomputed cell coverage of every fence
+    public synchronized long getCoverageMemoryBytes() {
+        long bytes = 0;
+        for (CompiledFence fence : fencesByKey.values()) {
+            if (fence.getCoverage() != null) {
+                bytes += fence.getCoverage().getMemoryBytes();
+            }
+        }
+        return bytes;
+    }
+
+    public synchronized List<CompiledFence> getFences() {
+        return new ArrayList<>(fencesByKey.values());
+    }
+
+    private static boolean isForkJoinAvailable() {
+        try {
+            Class.forName("java.util.concurrent.ForkJoinPool");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.example.geofence;
+
+import java.util.List;
+
+/**
+ * Spatial index over the bounding boxes of the compiled safe areas, used to
+ * narrow a containment check down to the fences that could hold the point.
+ */
+public interface GeofenceIndex {
+
+    // Replaces everything in the index with the given fences
+    void build(List<CompiledFence> fences);
+
+    void insert(CompiledFence fence);
+
+    boolean remove(CompiledFence fence);
+
+    void clear();
+
+    int size();
+
+    // Adds every fence whose bounding box contains the point to out
+    void search(double lat, double lng, List<CompiledFence> out);
+}
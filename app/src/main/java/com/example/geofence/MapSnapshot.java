@@ -0,0 +1,299 @@
+package com.example.geofence;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The safe areas, pets and last known pet positions of one user, saved in the
+ * app's files so a cold start can draw them before Firebase answers.
+ *
+ * ForegroundService keeps it up to date and writes it a few seconds after a
+ * change. MapsActivity and the service read it on startup, then the live
+ * listeners replace whatever changed in the meantime. The file is
+ * memory-mapped and read in one pass:
+ *
+ *   int     MAGIC, int VERSION, string userID
+ *   int     fence count, then per fence: string key, double radius,
+ *           int vertex count, that many (double lat, double lng)
+ *   int     pet count, then per pet: string name, string tracker ID
+ *   int     position count, then per position: string pet name, double lat, double lng
+ *
+ * Strings are a short byte length followed by UTF-8. read() returns null for
+ * a missing file, another version or anything damaged, and the app starts the
+ * way it did before. Fences are stored as records, compiling them again is
+ * far cheaper than the round trip the snapshot saves.
+ *
+ * Changes come from the main thread and writes from the worker, so every
+ * method is synchronized.
+ */
+public class MapSnapshot {
+
+    public static final String FILE_NAME = "map_snapshot.bin";
+
+    static final int MAGIC = 0x4746534E;
+    static final int VERSION = 1;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String userID;
+    private final Map<String, FenceRecord> fences = new LinkedHashMap<>();
+    private final List<Pet> pets = new ArrayList<>();
+    // Keyed by pet name, the same as the markers
+    private final Map<String, double[]> positions = new LinkedHashMap<>();
+    private boolean dirty = false;
+
+    public MapSnapshot(String userID) {
+        this.userID = userID;
+    }
+
+    public String getUserID() {
+        return userID;
+    }
+
+    public synchronized void putFence(String key, FenceRecord record) {
+        fences.put(key, record);
+        dirty = true;
+    }
+
+    public synchronized void removeFence(String key) {
+        if (fences.remove(key) != null) {
+            dirty = true;
+        }
+    }
+
+    public synchronized void retainFences(Collection<String> keys) {
+        if (fences.keySet().retainAll(new HashSet<>(keys))) {
+            dirty = true;
+        }
+    }
+
+    // Positions of pets that are no longer in the list are dropped
+    public synchronized void setPets(List<Pet> newPets) {
+        pets.clear();
+        pets.addAll(newPets);
+        Set<String> names = new HashSet<>();
+        for (Pet pet : newPets) {
+            names.add(pet.getPetName());
+        }
+        positions.keySet().retainAll(names);
+        dirty = true;
+    }
+
+    public synchronized void setPosition(String petName, double lat, double lng) {
+        positions.put(petName, new double[]{lat, lng});
+        dirty = true;
+    }
+
+    public synchronized Map<String, FenceRecord> getFences() {
+        return new LinkedHashMap<>(fences);
+    }
+
+    public synchronized List<Pet> getPets() {
+        return new ArrayList<>(pets);
+    }
+
+    // {lat, lng}, or null if the pet hasn't reported yet
+    public synchronized double[] getPosition(String petName) {
+        double[] position = positions.get(petName);
+        return position == null ? null : position.clone();
+    }
+
+    public synchronized boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Writes the snapshot if anything changed since the last write. The new
+     * file replaces the old one in a single rename, so a reader never sees
+     * half of it. Returns true if it was written.
+     */
+    public boolean writeIfDirty(File file) throws IOException {
+        byte[] bytes;
+        synchronized (this) {
+            if (!dirty) {
+                return false;
+            }
+            bytes = encode();
+            dirty = false;
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(bytes);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            synchronized (this) {
+                dirty = true;
+            }
+            throw new IOException("Could not replace " + file);
+        }
+        return true;
+    }
+
+    /**
+     * Maps the file and reads it, returns null if it is missing, from another
+     * version or damaged.
+     */
+    public static MapSnapshot read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = in.getChannel();
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return decode(buffer);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    synchronized byte[] encode() {
+        List<byte[]> strings = new ArrayList<>();
+        int size = 4 + 4 + 4;
+        size += stringSize(userID, strings);
+        for (Map.Entry<String, FenceRecord> entry : fences.entrySet()) {
+            size += stringSize(entry.getKey(), strings) + 8 + 4 + entry.getValue().size() * 16;
+        }
+        size += 4;
+        for (Pet pet : pets) {
+            size += stringSize(pet.getPetName(), strings) + stringSize(pet.getPetTrackerID(), strings);
+        }
+        size += 4;
+        for (String petName : positions.keySet()) {
+            size += stringSize(petName, strings) + 16;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        int s = 0;
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        putString(buffer, strings.get(s++));
+
+        buffer.putInt(fences.size());
+        for (FenceRecord record : fences.values()) {
+            putString(buffer, strings.get(s++));
+            buffer.putDouble(record.getRadius());
+            buffer.putInt(record.size());
+            for (int i = 0; i < record.size(); i++) {
+                buffer.putDouble(record.getLatitude(i));
+                buffer.putDouble(record.getLongitude(i));
+            }
+        }
+
+        buffer.putInt(pets.size());
+        for (int i = 0; i < pets.size(); i++) {
+            putString(buffer, strings.get(s++));
+            putString(buffer, strings.get(s++));
+        }
+
+        buffer.putInt(positions.size());
+        for (double[] position : positions.values()) {
+            putString(buffer, strings.get(s++));
+            buffer.putDouble(position[0]);
+            buffer.putDouble(position[1]);
+        }
+        return buffer.array();
+    }
+
+    static MapSnapshot decode(ByteBuffer buffer) {
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            MapSnapshot snapshot = new MapSnapshot(getString(buffer));
+
+            int fenceCount = count(buffer, 8 + 4);
+            for (int f = 0; f < fenceCount; f++) {
+                String key = getString(buffer);
+                double radius = buffer.getDouble();
+                int n = count(buffer, 16);
+                double[] lats = new double[n];
+                double[] lngs = new double[n];
+                for (int i = 0; i < n; i++) {
+                    lats[i] = buffer.getDouble();
+                    lngs[i] = buffer.getDouble();
+                }
+                FenceRecord record = radius > 0
+                        ? FenceRecord.fromCircle(lats[0], lngs[0], radius)
+                        : FenceRecord.fromPoints(lats, lngs);
+                snapshot.fences.put(key, record);
+            }
+
+            int petCount = count(buffer, 4);
+            for (int p = 0; p < petCount; p++) {
+                String name = getString(buffer);
+                String trackerID = getString(buffer);
+                snapshot.pets.add(new Pet(name, trackerID, "000"));
+            }
+
+            int positionCount = count(buffer, 2 + 16);
+            for (int p = 0; p < positionCount; p++) {
+                String petName = getString(buffer);
+                snapshot.positions.put(petName, new double[]{buffer.getDouble(), buffer.getDouble()});
+            }
+
+            if (buffer.hasRemaining()) {
+                return null;
+            }
+            return snapshot;
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    // Reads a count, rejecting one the rest of the buffer can't hold
+    private static int count(ByteBuffer buffer, int minBytesEach) {
+        int count = buffer.getInt();
+        if (count < 0 || (long) count * minBytesEach > buffer.remaining()) {
+            throw new IllegalArgumentException("bad count " + count);
+        }
+        return count;
+    }
+
+    private static int stringSize(String value, List<byte[]> strings) {
+        byte[] bytes = (value == null ? "" : value).getBytes(UTF_8);
+        if (bytes.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("string too long");
+        }
+        strings.add(bytes);
+        return 2 + bytes.length;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort();
+        if (length < 0) {
+            throw new IllegalArgumentException("bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
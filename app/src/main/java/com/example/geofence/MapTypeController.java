@@ -0,0 +1,38 @@
+package com.example.geofence;
+
+/**
+ * Decides between the normal and hybrid map types from the zoom level.
+ *
+ * Only consulted when the camera goes idle, not on every camera move, and the
+ * thresholds have a gap between them so zooming around 19 doesn't flip the
+ * tiles back and forth. update() says whether the map type has to change, so
+ * setMapType is only called when it does.
+ */
+public class MapTypeController {
+
+    // Switch to hybrid at or above this zoom
+    static final float HYBRID_ZOOM = 19f;
+    // Switch back to normal only below this zoom
+    static final float NORMAL_ZOOM = 18.5f;
+
+    private boolean hybrid = false;
+
+    // Returns true if the map type has changed
+    public boolean update(float zoom) {
+        boolean wanted = hybrid ? zoom >= NORMAL_ZOOM : zoom >= HYBRID_ZOOM;
+        if (wanted == hybrid) {
+            return false;
+        }
+        hybrid = wanted;
+        return true;
+    }
+
+    // For when the map type was set directly, e.g. hybrid while drawing a safe area
+    public void setHybrid(boolean hybrid) {
+        this.hybrid = hybrid;
+    }
+
+    public boolean isHybrid() {
+        return hybrid;
+    }
+}
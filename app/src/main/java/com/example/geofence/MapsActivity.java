@@ -20,31 +20,38 @@ import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.content.ComponentName;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.graphics.Color;
+import android.graphics.Point;
 import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.location.LocationRequest;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
+import android.os.SystemClock;
 import android.security.keystore.KeyProtection;
 import android.util.Log;
+import android.view.Choreographer;
+import android.view.MotionEvent;
 import android.view.View;
 import android.widget.Button;
 import android.widget.Toast;
 
 import com.google.android.gms.location.FusedLocationProviderClient;
-import com.google.android.gms.location.GeofencingClient;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.maps.CameraUpdate;
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.OnMapReadyCallback;
+import com.google.android.gms.maps.Projection;
 import com.google.android.gms.maps.SupportMapFragment;
 import com.google.android.gms.maps.model.BitmapDescriptor;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.Circle;
 import com.google.android.gms.maps.model.CircleOptions;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
@@ -54,9 +61,9 @@ import com.google.android.gms.maps.model.MarkerOptions;
 import com.example.geofence.databinding.ActivityMapsBinding;
 import com.google.android.gms.maps.model.Polygon;
 import com.google.android.gms.maps.model.PolygonOptions;
-import com.google.maps.android.PolyUtil;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
+import com.google.firebase.database.ChildEventListener;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
 import com.google.firebase.database.DatabaseReference;
@@ -64,15 +71,22 @@ import com.google.firebase.database.FirebaseDatabase;
 import com.google.firebase.database.ValueEventListener;
 import com.google.maps.android.SphericalUtil;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.lang.Math;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class MapsActivity extends DrawerBaseActivity implements OnMapReadyCallback, GoogleMap.OnMapLongClickListener {
+public class MapsActivity extends DrawerBaseActivity implements OnMapReadyCallback {
 
     // Used for location permissions
     private boolean mLocationPermissionsGranted = false;
@@ -84,32 +98,84 @@ public class MapsActivity extends DrawerBaseActivity implements OnMapReadyCallba
 
     private ActivityMapsBinding binding;
     private FusedLocationProviderClient fusedLocationProviderClient;
-    private GeofencingClient geofencingClient;
 
     // Store the points for the Geofence Polygon
     private List<LatLng> latLngList = new ArrayList<>();
-
-    // Also store markers and polygons in array to be cleared separately
-    private List<Marker> markerList = new ArrayList<>();
-    private List<Polygon> polygonList = new ArrayList<>();
+    // Simplifies the outline traced on vDrawOverlay while the finger moves
+    private PathSimplifier pathSimplifier;
+    private static final double DRAW_TOLERANCE_METERS = 1.5;
+    // Circle safe areas are dragged out from their center instead of traced
+    private boolean isCircleMode = false;
+    private LatLng circleCenter;
+    private Circle draftCircle;
+    private static final double MIN_CIRCLE_RADIUS_METERS = 3;
+    private static final double MAX_CIRCLE_RADIUS_METERS = 100;
+
+    // Safe areas on the map, keyed by their Firebase push ID
+    private Map<String, Polygon> polygonsByKey = new HashMap<>();
+    private Map<String, Circle> circlesByKey = new HashMap<>();
     private List<Polygon> polygonToAdd = new ArrayList<>();
-    private boolean hasPolyBeenDrawn = false;
+    // Outline of the safe area being drawn, shown once it has three points
+    private Polygon draftPolygon;
     private boolean isPetSafe = false;
 
-    // Pet location
-    LatLng pLoc;
     // Marker pMarker;
-    private Map<String, Marker> pMarkerMap = new HashMap<>();
+    private PetClusterLayer petClusterLayer;
+    // Where each pet has been, the earlier part read from the service's history
+    private TrailLayer trailLayer;
+    private ExecutorService trailWorker;
+    private PositionHistory positionHistory;
+    private static final long TRAIL_MS = 24 * 60 * 60 * 1000L;
+
+    // Checks the outline being drawn for self-crossings, only the newest outline matters
+    private ExecutorService editorWorker;
+    private final AtomicInteger draftGeneration = new AtomicInteger();
+    private Circle crossingHighlight;
+
+    // Safe area listener for drawing, detached in onStop
+    private ChildEventListener geofenceListener;
+
+    // Saved by ForegroundService, drawn before Firebase answers and then dropped
+    private MapSnapshot mapSnapshot;
+    // Time to the first safe area drawn from the snapshot and from Firebase, logged once per launch
+    private long createdAt;
+    private boolean isFirebaseFenceLogged = false;
+
+    // Pets are watched by ForegroundService, bound while the activity is visible to draw them
+    private PetMonitor<ValueEventListener, DataSnapshot> petMonitor;
+    private PetMonitor.Observer petObserver;
+    private boolean isPetObserverAttached = false;
+    private final ServiceConnection monitorConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            petMonitor = ((ForegroundService.LocalBinder) service).getMonitor();
+            positionHistory = ((ForegroundService.LocalBinder) service).getHistory();
+            attachPetObserver();
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            petMonitor = null;
+            positionHistory = null;
+            isPetObserverAttached = false;
+        }
+    };
+
+    // Marker moves are applied once per frame, map type only changes when the camera is idle
+    private MarkerRenderScheduler markerRenderScheduler;
+    private final MapTypeController mapTypeController = new MapTypeController();
 
     // Notifications
     public static final String CHANNEL_ID = "channel_1";
-    public boolean notifHasBeenSent = false;
 
     // Buttons
     Button bAdd_Safe_Area;
     Button bConfirm;
     Button bDelete;
     Button bCancel;
+    Button bCircle_Mode;
+    // Catches the drawing finger while a safe area is being added
+    View vDrawOverlay;
 
     // Locking map in Hybrid mode
     private MutableLiveData<Boolean> isMapModeLocked = new MutableLiveData<Boolean>();
@@ -118,13 +184,11 @@ public class MapsActivity extends DrawerBaseActivity implements OnMapReadyCallba
     UserApplication userApplication = (UserApplication) this.getApplication();
     String mUID;
 
-    // Pet Name and Tracker ID list
-    List<Pet> petNameTracker;
-
     @RequiresApi(api = Build.VERSION_CODES.O)
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        createdAt = SystemClock.elapsedRealtime();
 
         binding = ActivityMapsBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
@@ -137,15 +201,23 @@ public class MapsActivity extends DrawerBaseActivity implements OnMapReadyCallba
 
         mUID = userApplication.getmUserID();
 
+        // Read while the map loads, it only belongs to the user who saved it
+        mapSnapshot = MapSnapshot.read(new File(getFilesDir(), MapSnapshot.FILE_NAME));
+        if (mapSnapshot != null && !mapSnapshot.getUserID().equals(mUID)) {
+            mapSnapshot = null;
+        }
+
         // Locked map mode
         isMapModeLocked.setValue(false);
 
         // Pet tracker
-        petNameTracker = new ArrayList<Pet>();
+        editorWorker = Executors.newSingleThreadExecutor();
+        trailWorker = Executors.newSingleThreadExecutor();
+        markerRenderScheduler = createMarkerRenderScheduler();
+        petObserver = createPetObserver();
 
         // Clients
         fusedLocationProviderClient = LocationServices.getFusedLocationProviderClient(this);
-        geofencingClient = LocationServices.getGeofencingClient(this);
 
         // Get permissions
         enableUserLocation();
@@ -153,7 +225,7 @@ public class MapsActivity extends DrawerBaseActivity implements OnMapReadyCallba
         // Notifications
         createNotificationChannel();
 
-        // Foreground Service
+        // Foreground Service, does the monitoring; starting it again while it runs changes nothing
         Intent intent = new Intent(this, ForegroundService.class);
         startForegroundService(intent);
 
@@ -162,6 +234,8 @@ public class MapsActivity extends DrawerBaseActivity implements OnMapReadyCallba
         bConfirm = (Button) findViewById(R.id.Confirm);
         bDelete = (Button) findViewById(R.id.Delete);
         bCancel = (Button) findViewById(R.id.Cancel);
+        bCircle_Mode = (Button) findViewById(R.id.Circle_Mode);
+        vDrawOverlay = findViewById(R.id.Draw_Overlay);
     }
 
     // Manipulates the map once available.
@@ -169,6 +243,12 @@ public class MapsActivity extends DrawerBaseActivity implements OnMapReadyCallba
     @Override
     public void onMapReady(@NonNull GoogleMap googleMap) {
         mMap = googleMap;
+        // Called again by initMap once location is allowed, the old layers go first
+        releasePetLayers();
+        // Pet markers are clustered by zoom level
+        petClusterLayer = new PetClusterLayer(this, mMap);
+        trailLayer = new TrailLayer(mMap);
+        attachPetObserver();
 
         // To handle Marker zoom
         LatLngBounds.Builder builder = new LatLngBounds.Builder();
@@ -213,6 +293,7 @@ public class MapsActivity extends DrawerBaseActivity implements OnMapReadyCallba
         databaseReference = firebaseDatabase.getReference();
         geofenceReference = firebaseDatabase.getReference("Users/"+ mUID + "/Geofences");
 
+        showSnapshot();
         addPolygonsFromDatabase();
 
         // If location is enabled
@@ -262,121 +343,17 @@ public class MapsActivity extends DrawerBaseActivity implements OnMapReadyCallba
             // locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, locationListener);
             //locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, 0, 0, locationListener);
 
-            // Make a list for Pet name and Tracker ID
-            databaseReference.child("Users").child(mUID).child("Pets").addValueEventListener(new ValueEventListener() {
-                @Override
-                public void onDataChange(@NonNull DataSnapshot snapshot) {
-                    for (DataSnapshot dataSnapshot : snapshot.getChildren()){
-
-                        String petName = dataSnapshot.child("petName").getValue(String.class);
-                        String petTID = dataSnapshot.child("petTrackerID").getValue(String.class);
-
-                        Pet pet = new Pet(petName, petTID, "000");
-                        Log.i("Yo", pet.getPetTrackerID());
-
-                        petNameTracker.add(pet);
-                        Log.i("Yo", "Pet Name Tracker: " + petNameTracker.get(0));
-                    }
-
-                    for (Pet pet : petNameTracker) {
-                        // Read from database (pet location)
-                        databaseReference.child("Trackers").child(pet.getPetTrackerID()).addValueEventListener(new ValueEventListener() {
-                            @Override
-                            public void onDataChange(@NonNull DataSnapshot snapshot) {
-
-                                // Reading
-                                if (snapshot != null && snapshot.child("isActive").getValue(Boolean.class)) {
-                                    pLoc = new LatLng(
-                                            snapshot.child("latitude").getValue(Double.class),
-                                            snapshot.child("longitude").getValue(Double.class)
-                                    );
-
-                                    Log.i("Yo", String.valueOf(pLoc));
-
-                                    //final LatLng latLng = pLoc;
-
-                                    Marker previousMarker = pMarkerMap.get(pet.getPetName());
-
-                                    // Update position
-                                    if (previousMarker != null){
-                                        previousMarker.setPosition(pLoc);
-                                    }
-                                    // Create new one
-                                    else{
-                                        Marker pMarker = mMap.addMarker(new MarkerOptions().position(pLoc).title(pet.getPetName() + " is here!"));
-                                        // pMarker.showInfoWindow();
-                                        pMarkerMap.put(pet.getPetName(), pMarker);
-                                    }
-
-//                                    if (pMarker != null) {
-//                                        pMarker.remove();
-//                                        pMarker = null;
-//                                    }
-//
-//                                    pMarker = mMap.addMarker(new MarkerOptions().position(pLoc).title(petNameTracker.get(finalI).getPetName() + " is here!"));
-//                                    pMarker.showInfoWindow();
-//
-//                                    builder.include(pMarker.getPosition());
-
-//                                    LatLngBounds bounds = builder.build();
-//                                    CameraUpdate cameraUpdate = CameraUpdateFactory.newLatLngBounds(bounds, 500);
-//                                    mMap.moveCamera(cameraUpdate);
-
-                                    // Check if the pet is inside the geofence
-                                    if (polygonList.size() != 0 && pLoc != null) {
-                                        // Only send notif if pet is outside area and notif has not been sent already
-                                        // This is done to avoid spamming everytime pet moves
-
-                                        if (!isPetInArea(pLoc) && !notifHasBeenSent) {
-                                            // Send notification
-                                            Log.i("Yo", pet.getPetName() + " is out of bounds!");
-
-                                            NotificationCompat.Builder builder = new NotificationCompat.Builder(MapsActivity.this, CHANNEL_ID)
-                                                    .setContentTitle("Pet Outside Safe Area!")
-                                                    .setContentText("Your pet, " + pet.getPetName() + ", has left the safe area.")
-                                                    .setSmallIcon(R.drawable.ic_launcher_background)
-                                                    .setPriority(Notification.PRIORITY_MAX);
-
-                                            NotificationManagerCompat notificationManagerCompat = NotificationManagerCompat.from(MapsActivity.this);
-                                            notificationManagerCompat.notify(0, builder.build());
-
-                                            notifHasBeenSent = true;
-                                        }
-
-                                        // Reset the notification when pet re-enters geofence
-                                        else if (isPetInArea(pLoc)) {
-                                            Log.i("Yo", "Pet is safe :)");
-                                            notifHasBeenSent = false;
-                                        }
-                                    }
-                                }
-                            }
-
-                            @Override
-                            public void onCancelled(@NonNull DatabaseError error) {
-
-                            }
-                        });
-                    }
-                }
-
-                @Override
-                public void onCancelled(@NonNull DatabaseError error) {
-
-                }
-            });
-
-            Log.i("Yo", petNameTracker.toString());
-
         }
 
-        // Change Map Type based on Zoom
-        mMap.setOnCameraMoveListener(new GoogleMap.OnCameraMoveListener() {
+        // Change Map Type based on Zoom, once the camera has settled
+        mMap.setOnCameraIdleListener(new GoogleMap.OnCameraIdleListener() {
             @Override
-            public void onCameraMove() {
+            public void onCameraIdle() {
                 if(!isMapModeLocked.getValue()) {
                     changeMapTypeZoom();
                 }
+                petClusterLayer.onCameraIdle();
+                trailLayer.onCameraIdle();
             }
         });
 
@@ -391,6 +368,7 @@ public class MapsActivity extends DrawerBaseActivity implements OnMapReadyCallba
         });
 
         // Add UI for Geofence //
+        setUpDrawOverlay();
         bAdd_Safe_Area.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
@@ -400,38 +378,50 @@ public class MapsActivity extends DrawerBaseActivity implements OnMapReadyCallba
                 bDelete.setVisibility(View.VISIBLE);
                 bDelete.setEnabled(false);
                 bCancel.setVisibility(View.VISIBLE);
+                bCircle_Mode.setVisibility(View.VISIBLE);
                 isMapModeLocked.setValue(true);
                 mMap.setMapType(GoogleMap.MAP_TYPE_HYBRID);
-                mMap.setOnMapLongClickListener(MapsActivity.this);
+                mapTypeController.setHybrid(true);
+                // Touches go to the overlay instead of moving the map
+                vDrawOverlay.setVisibility(View.VISIBLE);
             }
         });
 
         bConfirm.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearPolyMarkers();
-                polygonList.addAll(polygonToAdd);
+                if (isCircleMode){
+                    // Too small or too large, keep editing
+                    if (!addCircle()){
+                        return;
+                    }
+                    discardDraft();
+                    closeEditor();
+                    return;
+                }
+                // Too small or too large, keep editing
+                if (!addPolygon(latLngList)){
+                    return;
+                }
+                discardDraft();
                 for (Polygon polygon : polygonToAdd){
-                    geofenceReference.push().setValue(polygon);
+                    DatabaseReference fenceReference = geofenceReference.push();
+                    FenceRecord record = toFenceRecord(polygon.getPoints());
+                    fenceReference.setValue(record.toMap());
                 }
                 //polygonToAdd.clear();
                 clearPolygons(polygonToAdd);
-                hasPolyBeenDrawn = false;
-                bConfirm.setVisibility(View.INVISIBLE);
-                bDelete.setVisibility(View.INVISIBLE);
-                bCancel.setVisibility(View.INVISIBLE);
-                bAdd_Safe_Area.setVisibility(View.VISIBLE);
-                isMapModeLocked.setValue(false);
-                mMap.setOnMapLongClickListener(null);
+                closeEditor();
             }
         });
 
-        // Click Polygon to delete
+        // Click to throw away the outline and trace again
         bDelete.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearPolyMarkers();
-                deleteAPolygon(polygonToAdd);
+                discardDraft();
+                bConfirm.setEnabled(false);
+                bDelete.setEnabled(false);
                 //isMapModeLocked = false;
                 //bDelete.setEnabled(false);
                 //bConfirm.setEnabled(false);
@@ -441,19 +431,163 @@ public class MapsActivity extends DrawerBaseActivity implements OnMapReadyCallba
         bCancel.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                clearPolyMarkers();
+                discardDraft();
                 clearPolygons(polygonToAdd);
-                hasPolyBeenDrawn = false;
-                bConfirm.setVisibility(View.INVISIBLE);
-                bDelete.setVisibility(View.INVISIBLE);
-                bCancel.setVisibility(View.INVISIBLE);
-                bAdd_Safe_Area.setVisibility(View.VISIBLE);
-                isMapModeLocked.setValue(false);
-                mMap.setOnMapLongClickListener(null);
+                closeEditor();
             }
         });
 
+        // Switch between tracing an outline and dragging out a circle
+        bCircle_Mode.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                discardDraft();
+                isCircleMode = !isCircleMode;
+                bCircle_Mode.setText(isCircleMode ? "Outline" : "Circle");
+                bConfirm.setEnabled(false);
+                bDelete.setEnabled(false);
+            }
+        });
 
+
+    }
+
+    private void closeEditor(){
+        bConfirm.setVisibility(View.INVISIBLE);
+        bDelete.setVisibility(View.INVISIBLE);
+        bCancel.setVisibility(View.INVISIBLE);
+        bCircle_Mode.setVisibility(View.INVISIBLE);
+        bAdd_Safe_Area.setVisibility(View.VISIBLE);
+        // The next safe area starts as a traced outline again
+        isCircleMode = false;
+        bCircle_Mode.setText("Circle");
+        isMapModeLocked.setValue(false);
+        vDrawOverlay.setVisibility(View.GONE);
+    }
+
+    // Pets drawn from the service's updates, moves are applied on the next frame
+    private PetMonitor.Observer createPetObserver(){
+        return new PetMonitor.Observer() {
+            @Override
+            public void onPetsChanged(List<Pet> pets) {
+                List<String> petNames = new ArrayList<>();
+                for (Pet pet : pets) {
+                    petNames.add(pet.getPetName());
+                }
+                petClusterLayer.retainPets(petNames);
+                trailLayer.retainPets(petNames);
+                for (Pet pet : pets) {
+                    loadTrail(pet);
+                }
+            }
+
+            @Override
+            public void onPetMoved(String petName, long timeMillis, double lat, double lng, long receivedNanos) {
+                markerRenderScheduler.post(petName, lat, lng, receivedNanos);
+                trailLayer.addPosition(petName, timeMillis, lat, lng);
+            }
+        };
+    }
+
+    // Once both the map and the service are there
+    private void attachPetObserver(){
+        if (petMonitor != null && petClusterLayer != null && !isPetObserverAttached) {
+            petMonitor.addObserver(petObserver);
+            isPetObserverAttached = true;
+        }
+    }
+
+    // The observer is attached again to the next layers, which replays every pet to them
+    private void releasePetLayers(){
+        if (petMonitor != null && isPetObserverAttached) {
+            petMonitor.removeObserver(petObserver);
+        }
+        isPetObserverAttached = false;
+        markerRenderScheduler.clear();
+        if (trailLayer != null) {
+            trailLayer.clear();
+            trailLayer = null;
+        }
+        if (petClusterLayer != null) {
+            petClusterLayer.clear();
+            petClusterLayer = null;
+        }
+    }
+
+    // The last day of a pet's positions, read and simplified on trailWorker
+    private void loadTrail(Pet pet){
+        final String petName = pet.getPetName();
+        final String trackerID = pet.getPetTrackerID();
+        final PositionHistory history = positionHistory;
+        if (history == null || trackerID == null || trailLayer.hasTrail(petName)) {
+            return;
+        }
+        trailLayer.startLoading(petName);
+        trailWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Copied out first so the history isn't locked while the pyramid is built
+                final List<double[]> positions = new ArrayList<>();
+                // Positions up to this time are in the pyramid, Long.MIN_VALUE if there were none
+                final long[] loadedUntil = {Long.MIN_VALUE};
+                try {
+                    history.scan(trackerID, System.currentTimeMillis() - TRAIL_MS, Long.MAX_VALUE,
+                            new PositionHistory.Visitor() {
+                        @Override
+                        public void onPosition(long timestampMillis, double lat, double lng, int flags) {
+                            positions.add(new double[]{lat, lng});
+                            loadedUntil[0] = timestampMillis;
+                        }
+                    });
+                } catch (IOException e) {
+                    Log.i("Yo", "Could not read the trail of " + petName);
+                }
+                final TrailPyramid pyramid = new TrailPyramid();
+                for (double[] position : positions) {
+                    pyramid.add(position[0], position[1]);
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (trailLayer != null) {
+                            trailLayer.setLoaded(petName, pyramid, loadedUntil[0]);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private MarkerRenderScheduler createMarkerRenderScheduler(){
+        MarkerRenderScheduler.FrameSource frameSource = new MarkerRenderScheduler.FrameSource() {
+            @Override
+            public void postFrameCallback(final Runnable frame) {
+                Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+                    @Override
+                    public void doFrame(long frameTimeNanos) {
+                        frame.run();
+                    }
+                });
+            }
+        };
+
+        MarkerRenderScheduler.Renderer renderer = new MarkerRenderScheduler.Renderer() {
+            @Override
+            public void moveMarker(String petName, double lat, double lng) {
+                if (petClusterLayer != null) {
+                    petClusterLayer.movePet(petName, lat, lng);
+                }
+            }
+        };
+
+        return new MarkerRenderScheduler(frameSource, renderer);
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        editorWorker.shutdown();
+        trailWorker.shutdown();
     }
 
     // Disable Back button navigation
@@ -534,193 +668,475 @@ public class MapsActivity extends DrawerBaseActivity implements OnMapReadyCallba
         }
     }
 
-    /**
-     * This onMapLongClick function will be adjusted to be used in
-     * an "editor" state for geofencing in the future. For now, there
-     * is no UI for entering the "editor" state as I'm trying to get
-     * the basic functionality down.
-     */
+    // Trace the yard outline with one finger
+    private void setUpDrawOverlay(){
+        vDrawOverlay.setOnTouchListener(new View.OnTouchListener() {
+            @Override
+            public boolean onTouch(View view, MotionEvent event) {
+                Projection projection = mMap.getProjection();
+                if (isCircleMode){
+                    dragCircle(projection, event);
+                    return true;
+                }
+                switch (event.getActionMasked()){
+                    case MotionEvent.ACTION_DOWN:
+                        discardDraft();
+                        pathSimplifier = new PathSimplifier(DRAW_TOLERANCE_METERS);
+                        addTracePoint(projection, event.getX(), event.getY());
+                        break;
+                    case MotionEvent.ACTION_MOVE:
+                        // Touch points between two frames arrive together in the history
+                        for (int h = 0; h < event.getHistorySize(); h++){
+                            addTracePoint(projection, event.getHistoricalX(h), event.getHistoricalY(h));
+                        }
+                        addTracePoint(projection, event.getX(), event.getY());
+                        updateDraftPolygon();
+                        break;
+                    case MotionEvent.ACTION_UP:
+                        addTracePoint(projection, event.getX(), event.getY());
+                        pathSimplifier.finish();
+                        updateDraftPolygon();
+                        bDelete.setEnabled(true);
+                        Log.i("Yo", "Traced " + pathSimplifier.getInputCount() + " points, kept " + pathSimplifier.size());
+                        break;
+                    case MotionEvent.ACTION_CANCEL:
+                        discardDraft();
+                        break;
+                }
+                return true;
+            }
+        });
+    }
 
-    @Override
-    public void onMapLongClick(@NonNull LatLng latLng) {
-        addPolyMarker(latLng);
+    // Finger down on the center, the radius follows the finger
+    private void dragCircle(Projection projection, MotionEvent event){
+        LatLng latLng = projection.fromScreenLocation(new Point(Math.round(event.getX()), Math.round(event.getY())));
+        switch (event.getActionMasked()){
+            case MotionEvent.ACTION_DOWN:
+                discardDraft();
+                circleCenter = latLng;
+                bConfirm.setEnabled(false);
+                break;
+            case MotionEvent.ACTION_MOVE:
+            case MotionEvent.ACTION_UP:
+                if (circleCenter == null){
+                    break;
+                }
+                double radius = SphericalUtil.computeDistanceBetween(circleCenter, latLng);
+                if (draftCircle == null){
+                    draftCircle = mMap.addCircle(safeAreaCircleOptions().center(circleCenter).radius(radius));
+                }
+                else{
+                    draftCircle.setRadius(radius);
+                }
+                if (event.getActionMasked() == MotionEvent.ACTION_UP){
+                    bConfirm.setEnabled(true);
+                    bDelete.setEnabled(true);
+                }
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                discardDraft();
+                break;
+        }
+    }
+
+    private void addTracePoint(Projection projection, float x, float y){
+        LatLng latLng = projection.fromScreenLocation(new Point(Math.round(x), Math.round(y)));
+        pathSimplifier.add(latLng.latitude, latLng.longitude);
+    }
+
+    // One preview polygon, moved with setPoints as the outline grows
+    private void updateDraftPolygon(){
+        latLngList.clear();
+        if (pathSimplifier != null){
+            for (int i = 0; i < pathSimplifier.size(); i++){
+                latLngList.add(new LatLng(pathSimplifier.getLatitude(i), pathSimplifier.getLongitude(i)));
+            }
+        }
+
+        if(latLngList.size() < 3){
+            if(draftPolygon != null){
+                draftPolygon.remove();
+                draftPolygon = null;
+            }
+            bConfirm.setEnabled(false);
+            return;
+        }
+
+        if(draftPolygon == null){
+            draftPolygon = mMap.addPolygon(safeAreaOptions().addAll(latLngList));
+        }
+        else{
+            draftPolygon.setPoints(latLngList);
+        }
+        // Enabled again once the check says the outline doesn't cross itself
+        bConfirm.setEnabled(false);
+        validateDraft();
+    }
+
+    private void validateDraft(){
+        final int generation = draftGeneration.incrementAndGet();
+        final boolean finished = pathSimplifier.isFinished();
+        final double[] lats = new double[latLngList.size()];
+        final double[] lngs = new double[latLngList.size()];
+        for (int i = 0; i < latLngList.size(); i++){
+            lats[i] = latLngList.get(i).latitude;
+            lngs[i] = latLngList.get(i).longitude;
+        }
 
-        // Complex shapes will be ineffective, polygon should have 4 sides
-        if(latLngList.size() == 4){
-            // Clear markers
-            clearPolyMarkers();
-            // Sort latLngList
-            // If latLngList isn't sorted, polygon will be drawn incorrectly
-            sortLatLngClockwise(latLngList);
-            addPolygon(latLngList);
-            latLngList.clear();
+        editorWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                // A newer outline is already queued
+                if (generation != draftGeneration.get()){
+                    return;
+                }
+                final SelfIntersectionValidator.Crossing crossing = SelfIntersectionValidator.findCrossing(lats, lngs);
+                ContextCompat.getMainExecutor(MapsActivity.this).execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == draftGeneration.get()){
+                            showCrossing(crossing, finished);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    // Marks where the outline first crosses itself, only an outline without one can be saved
+    private void showCrossing(SelfIntersectionValidator.Crossing crossing, boolean finished){
+        if (crossing == null){
+            clearCrossing();
+            bConfirm.setEnabled(finished);
+            return;
         }
 
-        if(hasPolyBeenDrawn == true){
-            bConfirm.setEnabled(true);
-            bDelete.setEnabled(true);
-            hasPolyBeenDrawn = false;
+        LatLng center = new LatLng(crossing.latitude, crossing.longitude);
+        if (crossingHighlight == null){
+            crossingHighlight = mMap.addCircle(new CircleOptions()
+                    .center(center)
+                    .radius(2)
+                    .strokeColor(Color.RED)
+                    .fillColor(Color.argb(128, 255, 0, 0)));
+        }
+        else{
+            crossingHighlight.setCenter(center);
+        }
+        bConfirm.setEnabled(false);
+        if (finished){
+            Toast.makeText(MapsActivity.this, "Safe Area can't cross itself", Toast.LENGTH_SHORT).show();
         }
     }
 
-    private void addPolyMarker(LatLng latLng){
-        MarkerOptions markerOptions = new MarkerOptions().position(latLng).icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_BLUE));
-        Marker marker = mMap.addMarker(markerOptions);
-        markerList.add(marker);
-        latLngList.add(latLng);
+    private void clearCrossing(){
+        if (crossingHighlight != null){
+            crossingHighlight.remove();
+            crossingHighlight = null;
+        }
     }
 
-    private void clearPolyMarkers(){
-        // Remove all Polygon Markers from map
-        for (Marker marker : markerList){
-            marker.remove();
+    private void discardDraft(){
+        // Results still on their way are for an outline that's gone
+        draftGeneration.incrementAndGet();
+        clearCrossing();
+        pathSimplifier = null;
+        latLngList.clear();
+        if(draftPolygon != null){
+            draftPolygon.remove();
+            draftPolygon = null;
         }
+        circleCenter = null;
+        if(draftCircle != null){
+            draftCircle.remove();
+            draftCircle = null;
+        }
+    }
 
-        // Clear all items in list
-        markerList.clear();
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Listeners were detached in onStop, put them back once the map is up
+        if (mMap != null) {
+            addPolygonsFromDatabase();
+        }
+        bindService(new Intent(this, ForegroundService.class), monitorConnection, 0);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (geofenceListener != null) {
+            geofenceReference.removeEventListener(geofenceListener);
+            geofenceListener = null;
+        }
+        // The service keeps watching, only the drawing stops
+        if (petMonitor != null) {
+            petMonitor.removeObserver(petObserver);
+            petMonitor = null;
+        }
+        positionHistory = null;
+        isPetObserverAttached = false;
+        markerRenderScheduler.clear();
+        // Positions keep coming in while stopped, the trails are read again from the history
+        if (trailLayer != null) {
+            trailLayer.clear();
+        }
+        unbindService(monitorConnection);
     }
 
     private void addPolygonsFromDatabase(){
-        geofenceReference.addValueEventListener(new ValueEventListener() {
+        if (geofenceListener != null) {
+            return;
+        }
+
+        // Each callback only touches the one fence it is about
+        geofenceListener = new ChildEventListener() {
             @Override
-            public void onDataChange(@NonNull DataSnapshot snapshot) {
-                clearPolygons(polygonList);
+            public void onChildAdded(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                FenceRecord record = FenceRecord.read(snapshot.getValue());
+                if (record == null) {
+                    Log.i("Yo", "Unreadable safe area " + snapshot.getKey());
+                    return;
+                }
+                // Old setValue(polygon) records are rewritten once, the change callback then sees the same fence
+                if (record.isLegacy()) {
+                    snapshot.getRef().setValue(record.toMap());
+                }
 
-                for (DataSnapshot dataSnapshot : snapshot.getChildren()){
-                    PolygonOptions polygonOptions = new PolygonOptions();
-                    int strokeColor = dataSnapshot.child("strokeColor").getValue(Integer.class);
-                    int fillColor = dataSnapshot.child("fillColor").getValue(Integer.class);
-                    int strokeWidth = dataSnapshot.child("strokeWidth").getValue(Integer.class);
-                    LatLng latlng0 = new LatLng(
-                            dataSnapshot.child("points").child("0").child("latitude").getValue(Double.class),
-                            dataSnapshot.child("points").child("0").child("longitude").getValue(Double.class));
-                    LatLng latlng1 = new LatLng(
-                            dataSnapshot.child("points").child("1").child("latitude").getValue(Double.class),
-                            dataSnapshot.child("points").child("1").child("longitude").getValue(Double.class));
-                    LatLng latlng2 = new LatLng(
-                            dataSnapshot.child("points").child("2").child("latitude").getValue(Double.class),
-                            dataSnapshot.child("points").child("2").child("longitude").getValue(Double.class));
-                    LatLng latlng3 = new LatLng(
-                            dataSnapshot.child("points").child("3").child("latitude").getValue(Double.class),
-                            dataSnapshot.child("points").child("3").child("longitude").getValue(Double.class));
-
-                    List<LatLng> latlngdb = new ArrayList<>();
-                    latlngdb.add(latlng0);
-                    latlngdb.add(latlng1);
-                    latlngdb.add(latlng2);
-                    latlngdb.add(latlng3);
-
-                    polygonOptions.strokeColor(strokeColor);
-                    polygonOptions.fillColor(fillColor);
-                    polygonOptions.strokeWidth(strokeWidth);
-                    polygonOptions.addAll(latlngdb);
-
-                    Polygon polygon = mMap.addPolygon(polygonOptions);
-                    polygonList.add(polygon);
+                if (record.isCircle()) {
+                    showCircle(snapshot.getKey(), record);
+                }
+                else {
+                    showPolygon(snapshot.getKey(), record);
                 }
+                if(!isFirebaseFenceLogged){
+                    isFirebaseFenceLogged = true;
+                    Log.i("Yo", "First safe area from Firebase after " + (SystemClock.elapsedRealtime() - createdAt) + " ms");
+                }
+            }
+
+            @Override
+            public void onChildChanged(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+                onChildAdded(snapshot, previousChildName);
+            }
+
+            @Override
+            public void onChildRemoved(@NonNull DataSnapshot snapshot) {
+                removeFenceShape(snapshot.getKey());
+            }
+
+            @Override
+            public void onChildMoved(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+
             }
 
             @Override
             public void onCancelled(@NonNull DatabaseError error) {
 
             }
-        });
+        };
+        geofenceReference.addChildEventListener(geofenceListener);
+
+        // Coming back from onStop or drawn from the snapshot: fences deleted in the meantime get no onChildRemoved
+        if (!polygonsByKey.isEmpty() || !circlesByKey.isEmpty()) {
+            removeDeletedFences();
+        }
 
         //notifHasBeenSent = true;
     }
 
-    private void addPolygon(List<LatLng> latLngs){
-        Double sizeOfPolygon = squareMetersToSquareFeet(SphericalUtil.computeArea(latLngs));
-        if(sizeOfPolygon < 100 || sizeOfPolygon > 36000){
-            Log.i("Yo", sizeOfPolygon.toString());
-            Toast.makeText(MapsActivity.this, "Safe Area must be between\n100 and 36000 sqft", Toast.LENGTH_SHORT).show();
+    // Last saved fences and pets, the live listeners then fix whatever changed since
+    private void showSnapshot(){
+        if (mapSnapshot == null) {
+            return;
         }
-        else{
-            PolygonOptions polygonOptions = new PolygonOptions();
-            polygonOptions.strokeColor(Color.argb(225, 0, 0, 225));
-            polygonOptions.fillColor(Color.argb(65, 0, 0, 225));
-            polygonOptions.strokeWidth(4);
-            polygonOptions.addAll(latLngs);
-            Polygon polygon = mMap.addPolygon(polygonOptions);
-
-            polygonToAdd.add(polygon);
-            hasPolyBeenDrawn = true;
+        for (Map.Entry<String, FenceRecord> entry : mapSnapshot.getFences().entrySet()) {
+            if (entry.getValue().isCircle()) {
+                showCircle(entry.getKey(), entry.getValue());
+            }
+            else {
+                showPolygon(entry.getKey(), entry.getValue());
+            }
+        }
+        for (Pet pet : mapSnapshot.getPets()) {
+            double[] position = mapSnapshot.getPosition(pet.getPetName());
+            if (position != null) {
+                petClusterLayer.movePet(pet.getPetName(), position[0], position[1]);
+            }
         }
+        if(!mapSnapshot.getFences().isEmpty()){
+            Log.i("Yo", "First safe area from snapshot after " + (SystemClock.elapsedRealtime() - createdAt) + " ms");
+        }
+        mapSnapshot = null;
     }
 
-    private void deleteAPolygon(List<Polygon> pList){
-        // Pop off one polygon, delete one by one
-        if(!pList.isEmpty()){
-            Polygon pRemove = pList.get(pList.size() - 1);
-            pRemove.remove();
+    private void showPolygon(String key, FenceRecord record){
+        List<LatLng> latlngdb = new ArrayList<>();
+        for (int i = 0; i < record.size(); i++) {
+            latlngdb.add(new LatLng(record.getLatitude(i), record.getLongitude(i)));
+        }
 
-            pList.remove(pList.size() - 1);
+        // A fence edited from another device may have changed shape
+        Circle circle = circlesByKey.remove(key);
+        if (circle != null) {
+            circle.remove();
+        }
+        Polygon polygon = polygonsByKey.get(key);
+        if (polygon == null) {
+            polygon = mMap.addPolygon(safeAreaOptions().addAll(latlngdb));
+            polygonsByKey.put(key, polygon);
         }
+        else {
+            polygon.setPoints(latlngdb);
+        }
+    }
 
-        if(pList.isEmpty()){
-            bDelete.setEnabled(false);
-            bConfirm.setEnabled(false);
+    private void showCircle(String key, FenceRecord record){
+        LatLng center = new LatLng(record.getLatitude(0), record.getLongitude(0));
+
+        Polygon polygon = polygonsByKey.remove(key);
+        if (polygon != null) {
+            polygon.remove();
+        }
+        Circle circle = circlesByKey.get(key);
+        if (circle == null) {
+            circle = mMap.addCircle(safeAreaCircleOptions().center(center).radius(record.getRadius()));
+            circlesByKey.put(key, circle);
+        }
+        else {
+            circle.setCenter(center);
+            circle.setRadius(record.getRadius());
         }
     }
 
-    private void clearPolygons(List<Polygon> pList){
-        // Remove all polygons from map
-        for(Polygon polygon : pList){
+    private void removeFenceShape(String key){
+        Polygon polygon = polygonsByKey.remove(key);
+        if (polygon != null) {
             polygon.remove();
         }
+        Circle circle = circlesByKey.remove(key);
+        if (circle != null) {
+            circle.remove();
+        }
+    }
 
-        pList.clear();
+    // Every safe area is drawn the same way, so the style isn't stored with the fence
+    private PolygonOptions safeAreaOptions(){
+        PolygonOptions polygonOptions = new PolygonOptions();
+        polygonOptions.strokeColor(Color.argb(225, 0, 0, 225));
+        polygonOptions.fillColor(Color.argb(65, 0, 0, 225));
+        polygonOptions.strokeWidth(4);
+        return polygonOptions;
     }
 
-    private void sortLatLngClockwise(List<LatLng> latLngs){
-        // Calculate center point
-        LatLng center = findCenterPoint(latLngs);
+    private CircleOptions safeAreaCircleOptions(){
+        CircleOptions circleOptions = new CircleOptions();
+        circleOptions.strokeColor(Color.argb(225, 0, 0, 225));
+        circleOptions.fillColor(Color.argb(65, 0, 0, 225));
+        circleOptions.strokeWidth(4);
+        return circleOptions;
+    }
 
-        // Sort by angles
-        for (int i = 0; i < latLngs.size()-1; i++){
-            for(int j = 1; j < latLngs.size(); j++){
-                if(findAngle(center, latLngs.get(j)) < findAngle(center, latLngs.get(i))){
-                    LatLng temp = latLngs.get(i);
-                    latLngs.set(i, latLngs.get(j));
-                    latLngs.set(j, temp);
-                }
-            }
+    // Saves the circle being drawn, returns false if it is the wrong size
+    private boolean addCircle(){
+        if (draftCircle == null){
+            return false;
         }
-
+        double radius = draftCircle.getRadius();
+        if(radius < MIN_CIRCLE_RADIUS_METERS || radius > MAX_CIRCLE_RADIUS_METERS){
+            Log.i("Yo", String.valueOf(radius));
+            Toast.makeText(MapsActivity.this, "Circle Safe Area radius must be\nbetween 3 and 100 m", Toast.LENGTH_SHORT).show();
+            return false;
+        }
+        DatabaseReference fenceReference = geofenceReference.push();
+        FenceRecord record = FenceRecord.fromCircle(circleCenter.latitude, circleCenter.longitude, radius);
+        fenceReference.setValue(record.toMap());
+        return true;
     }
 
-    private LatLng findCenterPoint(List<LatLng> latLngs){
-        double cLatitude = 0;
-        double cLongitude = 0;
+    // Returns false if the area is the wrong size
+    private boolean addPolygon(List<LatLng> latLngs){
+        double[] lats = new double[latLngs.size()];
+        double[] lngs = new double[latLngs.size()];
+        for (int i = 0; i < latLngs.size(); i++){
+            lats[i] = latLngs.get(i).latitude;
+            lngs[i] = latLngs.get(i).longitude;
+        }
+        Double sizeOfPolygon = squareMetersToSquareFeet(GeoMath.areaSquareMeters(lats, lngs));
+        if(sizeOfPolygon < 100 || sizeOfPolygon > 36000){
+            Log.i("Yo", sizeOfPolygon.toString());
+            Toast.makeText(MapsActivity.this, "Safe Area must be between\n100 and 36000 sqft", Toast.LENGTH_SHORT).show();
+            return false;
+        }
+        else{
+            PolygonOptions polygonOptions = safeAreaOptions();
+            polygonOptions.addAll(latLngs);
+            Polygon polygon = mMap.addPolygon(polygonOptions);
 
-        for (LatLng latlng:latLngList){
-            cLatitude += latlng.latitude;
-            cLongitude += latlng.longitude;
+            polygonToAdd.add(polygon);
+            return true;
         }
+    }
 
-        return new LatLng(cLatitude/ (double) latLngs.size(), cLongitude/ (double) latLngs.size());
+    private void removeDeletedFences(){
+        // Fires after the child listener has caught up, only the keys are looked at
+        geofenceReference.addListenerForSingleValueEvent(new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                Set<String> fenceKeys = new HashSet<>();
+                for (DataSnapshot dataSnapshot : snapshot.getChildren()){
+                    fenceKeys.add(dataSnapshot.getKey());
+                }
+
+                List<String> deleted = new ArrayList<>();
+                for (String key : polygonsByKey.keySet()){
+                    if (!fenceKeys.contains(key)){
+                        deleted.add(key);
+                    }
+                }
+                for (String key : circlesByKey.keySet()){
+                    if (!fenceKeys.contains(key)){
+                        deleted.add(key);
+                    }
+                }
+                for (String key : deleted){
+                    removeFenceShape(key);
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+
+            }
+        });
     }
 
-    private double findAngle(LatLng center, LatLng point){
-        return Math.atan((point.latitude - center.latitude) / (point.longitude - center.longitude));
+
+    private void clearPolygons(List<Polygon> pList){
+        // Remove all polygons from map
+        for(Polygon polygon : pList){
+            polygon.remove();
+        }
+
+        pList.clear();
     }
 
-    private boolean isPetInArea(LatLng latlng){
-        boolean bool = false;
-        for (Polygon polygon : polygonList){
-            if(PolyUtil.containsLocation(latlng, polygon.getPoints(), false)){
-                return true;
-            }
+    // The outline as the record saved under Geofences, in place of the serialized Polygon
+    private FenceRecord toFenceRecord(List<LatLng> latLngs){
+        double[] lats = new double[latLngs.size()];
+        double[] lngs = new double[latLngs.size()];
+        for (int i = 0; i < latLngs.size(); i++){
+            lats[i] = latLngs.get(i).latitude;
+            lngs[i] = latLngs.get(i).longitude;
         }
-        return false;
+        return FenceRecord.fromPoints(lats, lngs);
     }
 
     private void changeMapTypeZoom(){
-        if (mMap.getCameraPosition().zoom >= 19){
-            mMap.setMapType(GoogleMap.MAP_TYPE_HYBRID);
-        }
-        else{
-            mMap.setMapType(GoogleMap.MAP_TYPE_NORMAL);
+        // Only touch the map when the type actually changes
+        if (mapTypeController.update(mMap.getCameraPosition().zoom)){
+            mMap.setMapType(mapTypeController.isHybrid() ? GoogleMap.MAP_TYPE_HYBRID : GoogleMap.MAP_TYPE_NORMAL);
         }
     }
 
@@ -0,0 +1,134 @@
+package com.example.geofence;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Buffers pet marker positions and applies them once per display frame.
+ *
+ * Tracker batches can arrive several times inside one frame; moving markers
+ * straight away mutates the map over and over for nothing. post() only records
+ * the newest position per pet and asks for a frame callback, and the markers
+ * are touched from that callback. At most MAX_MARKERS_PER_FRAME are applied in
+ * one frame, the rest roll over to the next one so a burst of 200+ pets can't
+ * stall a frame while the map is being panned.
+ *
+ * A position posted with the time its tracker update came in has the time
+ * until its marker moved recorded in Metrics.
+ *
+ * Main thread only.
+ */
+public class MarkerRenderScheduler {
+
+    static final int MAX_MARKERS_PER_FRAME = 64;
+
+    public interface FrameSource {
+        // Runs the callback at the start of the next frame (Choreographer on the device)
+        void postFrameCallback(Runnable frame);
+    }
+
+    public interface Renderer {
+        void moveMarker(String petName, double lat, double lng);
+    }
+
+    private final FrameSource frameSource;
+    private final Renderer renderer;
+
+    // Newest position per pet and when its update came in, in the order they first became pending
+    private final Map<String, double[]> pending = new LinkedHashMap<>();
+    private final Map<String, Long> receivedAt = new HashMap<>();
+    private final Metrics.Histogram renderMicros = renderHistogram();
+    private boolean frameScheduled = false;
+    private long frames = 0;
+    private long applied = 0;
+
+    private final Runnable frame = new Runnable() {
+        @Override
+        public void run() {
+            doFrame();
+        }
+    };
+
+    static Metrics.Histogram renderHistogram() {
+        return Metrics.getDefault().histogram("tracker_update_render_micros",
+                "Time from a tracker update coming in to its pet marker moving", Metrics.LATENCY_MICROS);
+    }
+
+    public MarkerRenderScheduler(FrameSource frameSource, Renderer renderer) {
+        this.frameSource = frameSource;
+        this.renderer = renderer;
+    }
+
+    public void post(String petName, double lat, double lng) {
+        post(petName, lat, lng, 0);
+    }
+
+    // receivedNanos is System.nanoTime() when the update came in, 0 if unknown
+    public void post(String petName, double lat, double lng, long receivedNanos) {
+        if (receivedNanos != 0) {
+            receivedAt.put(petName, receivedNanos);
+        }
+        double[] position = pending.get(petName);
+        if (position == null) {
+            pending.put(petName, new double[]{lat, lng});
+        } else {
+            position[0] = lat;
+            position[1] = lng;
+        }
+        scheduleFrame();
+    }
+
+    // Drops anything not drawn yet, e.g. when the pets are reloaded
+    public void clear() {
+        pending.clear();
+        receivedAt.clear();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    // Frames that applied at least one marker
+    public long getFrameCount() {
+        return frames;
+    }
+
+    public long getAppliedCount() {
+        return applied;
+    }
+
+    private void scheduleFrame() {
+        if (!frameScheduled) {
+            frameScheduled = true;
+            frameSource.postFrameCallback(frame);
+        }
+    }
+
+    private void doFrame() {
+        frameScheduled = false;
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        frames++;
+        int count = 0;
+        Iterator<Map.Entry<String, double[]>> it = pending.entrySet().iterator();
+        while (it.hasNext() && count < MAX_MARKERS_PER_FRAME) {
+            Map.Entry<String, double[]> entry = it.next();
+            it.remove();
+            renderer.moveMarker(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+            count++;
+            Long received = receivedAt.remove(entry.getKey());
+            if (received != null) {
+                renderMicros.record((System.nanoTime() - received) / 1000);
+            }
+        }
+        applied += count;
+
+        if (!pending.isEmpty()) {
+            scheduleFrame();
+        }
+    }
+}
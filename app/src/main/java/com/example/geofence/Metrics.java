@@ -0,0 +1,252 @@
+package com.example.geofence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for the tracker hot path, kept in process
+ * and shown on MetricsActivity.
+ *
+ * Recording never locks or allocates: a Counter is one AtomicLong and a
+ * Histogram an AtomicLongArray of fixed buckets, so the worker thread and the
+ * fork-join containment tasks can record as they go. Values that some class
+ * already counts (listeners, coalesced updates) are registered as a Reading
+ * and only read when the metrics are dumped.
+ *
+ * dump() writes everything in the Prometheus text format, sorted by name.
+ * Histogram percentiles are the upper bound of the bucket they fall in.
+ */
+public class Metrics {
+
+    // Microseconds, about 2.5x apart from 50 us to 10 s
+    public static final long[] LATENCY_MICROS = {50, 100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+            100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000};
+    public static final long[] SMALL_COUNTS = {0, 1, 2, 3, 4, 6, 8, 12, 16, 32, 64};
+
+    private static final Metrics DEFAULT = new Metrics();
+
+    public interface Reading {
+        // Called from whichever thread dumps the metrics
+        long read();
+    }
+
+    public static final class Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    public static final class Histogram {
+        // Inclusive upper bounds, the last bucket takes everything above them
+        private final long[] bounds;
+        private final AtomicLongArray buckets;
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+        Histogram(long[] bounds) {
+            for (int i = 1; i < bounds.length; i++) {
+                if (bounds[i] <= bounds[i - 1]) {
+                    throw new IllegalArgumentException("bounds must be increasing");
+                }
+            }
+            this.bounds = bounds.clone();
+            this.buckets = new AtomicLongArray(bounds.length + 1);
+        }
+
+        public void record(long value) {
+            buckets.incrementAndGet(bucket(value));
+            sum.addAndGet(value);
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                count += buckets.get(i);
+            }
+            return count;
+        }
+
+        public long getSum() {
+            return sum.get();
+        }
+
+        // 0 before anything was recorded
+        public long getMax() {
+            long value = max.get();
+            return value == Long.MIN_VALUE ? 0 : value;
+        }
+
+        /**
+         * Upper bound of the bucket holding the p-th value, p from 0 to 1.
+         * Values past the last bound report the largest value seen.
+         */
+        public long percentile(double p) {
+            long[] counts = counts();
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(p * total));
+            long seen = 0;
+            for (int i = 0; i < bounds.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(bounds[i], getMax());
+                }
+            }
+            return getMax();
+        }
+
+        private long[] counts() {
+            long[] counts = new long[buckets.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+            }
+            return counts;
+        }
+
+        // First bound the value fits under, or the overflow bucket
+        private int bucket(long value) {
+            int lo = 0;
+            int hi = bounds.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (bounds[mid] < value) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    private static final class Entry {
+        final String help;
+        final Object metric;
+
+        Entry(String help, Object metric) {
+            this.help = help;
+            this.metric = metric;
+        }
+    }
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // The registry the app records into
+    public static Metrics getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * The counter with that name, created the first time. Callers keep the
+     * Counter in a field rather than looking it up per event.
+     */
+    public Counter counter(String name, String help) {
+        return get(name, help, new Counter(), Counter.class);
+    }
+
+    public Histogram histogram(String name, String help, long[] bounds) {
+        return get(name, help, new Histogram(bounds), Histogram.class);
+    }
+
+    // Replaces any reading registered under the same name
+    public void register(String name, String help, Reading reading) {
+        entries.put(name, new Entry(help, reading));
+    }
+
+    public void unregister(String name) {
+        entries.remove(name);
+    }
+
+    // A counter or reading, 0 if nothing is registered under the name
+    public long getValue(String name) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            return 0;
+        }
+        if (entry.metric instanceof Counter) {
+            return ((Counter) entry.metric).get();
+        }
+        if (entry.metric instanceof Reading) {
+            return ((Reading) entry.metric).read();
+        }
+        throw new IllegalArgumentException(name + " is a histogram");
+    }
+
+    public String dump() {
+        List<String> names = new ArrayList<>(entries.keySet());
+        Collections.sort(names);
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            Entry entry = entries.get(name);
+            if (entry == null) {
+                continue;
+            }
+            sb.append("# HELP ").append(name).append(' ').append(entry.help).append('\n');
+            if (entry.metric instanceof Counter) {
+                sb.append("# TYPE ").append(name).append(" counter\n");
+                sb.append(name).append(' ').append(((Counter) entry.metric).get()).append('\n');
+            } else if (entry.metric instanceof Reading) {
+                sb.append("# TYPE ").append(name).append(" gauge\n");
+                sb.append(name).append(' ').append(((Reading) entry.metric).read()).append('\n');
+            } else {
+                dumpHistogram(sb, name, (Histogram) entry.metric);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void dumpHistogram(StringBuilder sb, String name, Histogram histogram) {
+        long[] counts = histogram.counts();
+        long cumulative = 0;
+        sb.append("# TYPE ").append(name).append(" histogram\n");
+        for (int i = 0; i < histogram.bounds.length; i++) {
+            cumulative += counts[i];
+            sb.append(name).append("_bucket{le=\"").append(histogram.bounds[i]).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        cumulative += counts[counts.length - 1];
+        sb.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        sb.append(name).append("_sum ").append(histogram.getSum()).append('\n');
+        sb.append(name).append("_count ").append(cumulative).append('\n');
+        sb.append(String.format(Locale.US, "# %s p50 %d, p90 %d, p99 %d, max %d\n", name,
+                histogram.percentile(0.5), histogram.percentile(0.9), histogram.percentile(0.99),
+                histogram.getMax()));
+    }
+
+    private <M> M get(String name, String help, M created, Class<M> type) {
+        Entry entry = entries.get(name);
+        if (entry == null) {
+            Entry previous = entries.putIfAbsent(name, new Entry(help, created));
+            entry = previous == null ? entries.get(name) : previous;
+        }
+        if (!type.isInstance(entry.metric)) {
+            throw new IllegalArgumentException(name + " is already registered as another kind of metric");
+        }
+        return type.cast(entry.metric);
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.geofence;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+
+import com.example.geofence.databinding.ActivityMetricsBinding;
+
+import java.util.Locale;
+
+/**
+ * Debug panel for the tracker hot path: a summary of the Metrics that matter
+ * most, the full dump under it, and a button to share the dump as text.
+ * Refreshed every second while shown. Only in the drawer of debug builds.
+ */
+public class MetricsActivity extends DrawerBaseActivity {
+
+    private static final long REFRESH_MS = 1000;
+
+    ActivityMetricsBinding activityMetricsBinding;
+    private final Metrics metrics = Metrics.getDefault();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Runnable refresh = new Runnable() {
+        @Override
+        public void run() {
+            showMetrics();
+            handler.postDelayed(this, REFRESH_MS);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        activityMetricsBinding = ActivityMetricsBinding.inflate(getLayoutInflater());
+        setContentView(activityMetricsBinding.getRoot());
+        setNavActivityTitle("Metrics");
+
+        activityMetricsBinding.metricsShare.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                Intent intent = new Intent(Intent.ACTION_SEND);
+                intent.setType("text/plain");
+                intent.putExtra(Intent.EXTRA_SUBJECT, "Geofence metrics");
+                intent.putExtra(Intent.EXTRA_TEXT, metrics.dump());
+                startActivity(Intent.createChooser(intent, "Share metrics"));
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        handler.post(refresh);
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        handler.removeCallbacks(refresh);
+    }
+
+    private void showMetrics(){
+        Metrics.Histogram render = MarkerRenderScheduler.renderHistogram();
+        Metrics.Histogram containment = TrackerPipeline.evaluationHistogram();
+        Metrics.Histogram fences = GeofenceEngine.fencesTestedHistogram();
+
+        String summary = String.format(Locale.US,
+                "Update to marker: p50 %s, p99 %s\n"
+                        + "Containment batch: p50 %s, p99 %s\n"
+                        + "Fences tested per update: p50 %d, p99 %d\n"
+                        + "Tracker listeners: %d\n"
+                        + "Updates checked: %d, dropped as stale: %d\n"
+                        + "Notifications sent: %d",
+                millis(render.percentile(0.5)), millis(render.percentile(0.99)),
+                millis(containment.percentile(0.5)), millis(containment.percentile(0.99)),
+                fences.percentile(0.5), fences.percentile(0.99),
+                metrics.getValue("firebase_tracker_listeners"),
+                metrics.getValue("tracker_updates_checked"), metrics.getValue("tracker_updates_dropped_stale"),
+                metrics.getValue("notifications_sent_total"));
+        activityMetricsBinding.metricsSummary.setText(summary);
+        activityMetricsBinding.metricsDump.setText(metrics.dump());
+    }
+
+    private static String millis(long micros){
+        return String.format(Locale.US, "%.1f ms", micros / 1000.0);
+    }
+}
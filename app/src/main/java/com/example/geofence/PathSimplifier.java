@@ -0,0 +1,217 @@
+package com.example.geofence;
+
+import java.util.Arrays;
+
+/**
+ * Simplifies a traced outline while it is being drawn.
+ *
+ * Touch points come in at up to 120 Hz and a yard traced by finger is
+ * thousands of them. Each point is fed to add() as it arrives and only the
+ * vertices that matter for the tolerance are kept, using an opening window:
+ * the points since the last kept vertex are tested against the segment from
+ * that vertex to the newest point, and as soon as one strays further than the
+ * tolerance the point before the newest one is kept. The window is capped so
+ * a long straight stroke can't make add() slow. finish() closes the outline
+ * and runs one Douglas-Peucker pass over the (few) kept vertices to drop the
+ * ones the window kept too eagerly.
+ *
+ * Distances are in meters on a flat projection around the first point.
+ */
+public class PathSimplifier {
+
+    // Points tested per add() at most
+    static final int MAX_WINDOW = 64;
+
+    private final double tolerance;
+
+    private double originLat;
+    private double originLng;
+    private double metersPerDegreeLng;
+
+    // Kept vertices, in degrees and in local meters
+    private double[] lats = new double[32];
+    private double[] lngs = new double[32];
+    private double[] xs = new double[32];
+    private double[] ys = new double[32];
+    private int count = 0;
+
+    // Points since the last kept vertex, the newest one last
+    private final double[] windowLats = new double[MAX_WINDOW];
+    private final double[] windowLngs = new double[MAX_WINDOW];
+    private final double[] windowXs = new double[MAX_WINDOW];
+    private final double[] windowYs = new double[MAX_WINDOW];
+    private int windowCount = 0;
+
+    private int inputCount = 0;
+    private boolean finished = false;
+
+    public PathSimplifier(double toleranceMeters) {
+        this.tolerance = toleranceMeters;
+    }
+
+    public void add(double lat, double lng) {
+        if (finished) {
+            throw new IllegalStateException("Path already finished");
+        }
+        inputCount++;
+
+        if (count == 0) {
+            originLat = lat;
+            originLng = lng;
+            metersPerDegreeLng = GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(lat));
+            keep(lat, lng, 0, 0);
+            return;
+        }
+
+        double x = GeoMath.wrapDegrees(lng - originLng) * metersPerDegreeLng;
+        double y = (lat - originLat) * GeoMath.METERS_PER_DEGREE;
+
+        // Finger jitter, too close to the previous point to matter
+        double lastX = windowCount > 0 ? windowXs[windowCount - 1] : xs[count - 1];
+        double lastY = windowCount > 0 ? windowYs[windowCount - 1] : ys[count - 1];
+        if (Math.hypot(x - lastX, y - lastY) < tolerance) {
+            return;
+        }
+
+        if (windowCount == MAX_WINDOW || !windowFits(x, y)) {
+            int last = windowCount - 1;
+            keep(windowLats[last], windowLngs[last], windowXs[last], windowYs[last]);
+            windowCount = 0;
+        }
+
+        windowLats[windowCount] = lat;
+        windowLngs[windowCount] = lng;
+        windowXs[windowCount] = x;
+        windowYs[windowCount] = y;
+        windowCount++;
+    }
+
+    /**
+     * Ends the outline. The last point is kept, one that lands back on the
+     * start is dropped, and the vertices are simplified once more as a whole.
+     */
+    public void finish() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+
+        if (windowCount > 0) {
+            int last = windowCount - 1;
+            keep(windowLats[last], windowLngs[last], windowXs[last], windowYs[last]);
+            windowCount = 0;
+        }
+        // The outline is closed anyway
+        if (count > 1 && Math.hypot(xs[count - 1] - xs[0], ys[count - 1] - ys[0]) < tolerance) {
+            count--;
+        }
+        if (count > 3) {
+            douglasPeucker();
+        }
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Vertices of the outline so far. While drawing this includes the newest
+     * point so a preview follows the finger.
+     */
+    public int size() {
+        return count + (windowCount > 0 ? 1 : 0);
+    }
+
+    public double getLatitude(int i) {
+        return i < count ? lats[i] : windowLats[windowCount - 1];
+    }
+
+    public double getLongitude(int i) {
+        return i < count ? lngs[i] : windowLngs[windowCount - 1];
+    }
+
+    // Touch points fed in, for comparing with size()
+    public int getInputCount() {
+        return inputCount;
+    }
+
+    private void keep(double lat, double lng, double x, double y) {
+        if (count == lats.length) {
+            int capacity = count * 2;
+            lats = Arrays.copyOf(lats, capacity);
+            lngs = Arrays.copyOf(lngs, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+        }
+        lats[count] = lat;
+        lngs[count] = lng;
+        xs[count] = x;
+        ys[count] = y;
+        count++;
+    }
+
+    // True if every point in the window is within the tolerance of last kept vertex -> (x, y)
+    private boolean windowFits(double x, double y) {
+        double ax = xs[count - 1];
+        double ay = ys[count - 1];
+        for (int i = 0; i < windowCount; i++) {
+            if (segmentDistance(windowXs[i], windowYs[i], ax, ay, x, y) > tolerance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void douglasPeucker() {
+        boolean[] keep = new boolean[count];
+        keep[0] = true;
+        keep[count - 1] = true;
+
+        // Explicit stack of [from, to] ranges
+        int[] stack = new int[2 * count];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        while (top > 0) {
+            int to = stack[--top];
+            int from = stack[--top];
+            double worst = tolerance;
+            int index = -1;
+            for (int i = from + 1; i < to; i++) {
+                double d = segmentDistance(xs[i], ys[i], xs[from], ys[from], xs[to], ys[to]);
+                if (d > worst) {
+                    worst = d;
+                    index = i;
+                }
+            }
+            if (index >= 0) {
+                keep[index] = true;
+                stack[top++] = from;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = to;
+            }
+        }
+
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (keep[i]) {
+                lats[n] = lats[i];
+                lngs[n] = lngs[i];
+                xs[n] = xs[i];
+                ys[n] = ys[i];
+                n++;
+            }
+        }
+        count = n;
+    }
+
+    private static double segmentDistance(double px, double py, double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSq = dx * dx + dy * dy;
+        double t = lengthSq == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSq;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(px - (ax + t * dx), py - (ay + t * dy));
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.geofence;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.clustering.ClusterItem;
+
+/**
+ * One pet on the clustered pet layer. The position is updated in place when
+ * the tracker moves; PetClusterLayer tells the ClusterManager afterwards.
+ */
+public class PetClusterItem implements ClusterItem {
+
+    private final String petName;
+    private LatLng position;
+
+    public PetClusterItem(String petName, LatLng position) {
+        this.petName = petName;
+        this.position = position;
+    }
+
+    public String getPetName() {
+        return petName;
+    }
+
+    void setPosition(LatLng position) {
+        this.position = position;
+    }
+
+    @Override
+    public LatLng getPosition() {
+        return position;
+    }
+
+    @Override
+    public String getTitle() {
+        return petName + " is here!";
+    }
+
+    @Override
+    public String getSnippet() {
+        return null;
+    }
+}
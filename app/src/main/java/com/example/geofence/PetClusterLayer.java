@@ -0,0 +1,122 @@
+package com.example.geofence;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.clustering.ClusterManager;
+import com.google.maps.android.clustering.algo.NonHierarchicalViewBasedAlgorithm;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pet markers grouped by zoom level with android-maps-utils' ClusterManager.
+ *
+ * Each pet is one PetClusterItem that is moved in place; only pets that are
+ * new get added. ClusterManager computes the clusters on its own background
+ * executor, and only for the visible part of the map
+ * (NonHierarchicalViewBasedAlgorithm). Recomputing is throttled: any number of
+ * moves within RECLUSTER_INTERVAL_MS result in a single cluster() call.
+ *
+ * Main thread only.
+ */
+public class PetClusterLayer {
+
+    // Tracker batches arrive about once a second; don't recluster more often than this
+    private static final long RECLUSTER_INTERVAL_MS = 250;
+
+    private final ClusterManager<PetClusterItem> clusterManager;
+    private final Map<String, PetClusterItem> items = new HashMap<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private boolean reclusterScheduled = false;
+    private long lastClusterTime = 0;
+
+    private final Runnable recluster = new Runnable() {
+        @Override
+        public void run() {
+            reclusterScheduled = false;
+            lastClusterTime = SystemClock.uptimeMillis();
+            clusterManager.cluster();
+        }
+    };
+
+    public PetClusterLayer(Context context, GoogleMap map) {
+        clusterManager = new ClusterManager<>(context, map);
+
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        clusterManager.setAlgorithm(new NonHierarchicalViewBasedAlgorithm<PetClusterItem>(
+                metrics.widthPixels, metrics.heightPixels));
+        // Markers jump to their new positions, animating hundreds of them every second isn't worth it
+        clusterManager.setAnimation(false);
+    }
+
+    public void movePet(String petName, double lat, double lng) {
+        LatLng position = new LatLng(lat, lng);
+        PetClusterItem item = items.get(petName);
+        if (item == null) {
+            item = new PetClusterItem(petName, position);
+            items.put(petName, item);
+            clusterManager.addItem(item);
+        } else {
+            item.setPosition(position);
+            clusterManager.updateItem(item);
+        }
+        scheduleRecluster();
+    }
+
+    // Removes the markers of pets that are no longer in the list
+    public void retainPets(Collection<String> petNames) {
+        Set<String> keep = new HashSet<>(petNames);
+        List<String> removed = new ArrayList<>();
+        for (String petName : items.keySet()) {
+            if (!keep.contains(petName)) {
+                removed.add(petName);
+            }
+        }
+        if (removed.isEmpty()) {
+            return;
+        }
+        for (String petName : removed) {
+            clusterManager.removeItem(items.remove(petName));
+        }
+        scheduleRecluster();
+    }
+
+    // Removes every marker, used when the layer is replaced
+    public void clear() {
+        handler.removeCallbacks(recluster);
+        reclusterScheduled = false;
+        items.clear();
+        clusterManager.clearItems();
+        clusterManager.cluster();
+    }
+
+    // The visible area changed, so clusters have to be recomputed right away
+    public void onCameraIdle() {
+        clusterManager.onCameraIdle();
+    }
+
+    public int getPetCount() {
+        return items.size();
+    }
+
+    private void scheduleRecluster() {
+        if (reclusterScheduled) {
+            return;
+        }
+        reclusterScheduled = true;
+        long wait = lastClusterTime + RECLUSTER_INTERVAL_MS - SystemClock.uptimeMillis();
+        handler.postDelayed(recluster, Math.max(0, wait));
+    }
+}
@@ -0,0 +1,242 @@
+package com.example.geofence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Everything that watches the pets: the safe areas, one listener per tracker,
+ * the containment pipeline and the exit alerts.
+ *
+ * ForegroundService owns the only instance, so monitoring keeps going when
+ * MapsActivity is gone and there is never a second set of listeners or
+ * workers. The activity attaches an Observer while it is visible to move the
+ * markers and detaches it when it stops, so nothing is drawn in the background.
+ *
+ * Fence, pet and observer changes come from the main thread. Alerts are raised
+ * on the worker.
+ */
+public class PetMonitor<H, T> {
+
+    public interface Alerts {
+        // Called on the worker thread when a pet leaves every safe area
+        void onPetLeft(Pet pet, double lat, double lng);
+
+        // Called on the worker thread when a pet that had left is back inside
+        void onPetReturned(Pet pet);
+    }
+
+    public interface Observer {
+        // The full pet list, every time it changes
+        void onPetsChanged(List<Pet> pets);
+
+        // timeMillis is when the position was checked and saved to the history. receivedNanos is
+        // System.nanoTime() when the update came in, 0 for a position from before attaching
+        void onPetMoved(String petName, long timeMillis, double lat, double lng, long receivedNanos);
+    }
+
+    private final GeofenceEngine engine;
+    private final TrackerSubscriptionManager<H> subscriptions;
+    private final TrackerPipeline<T> pipeline;
+    // Null when every update is checked
+    private final AdaptiveSampler sampler;
+    private final Alerts alerts;
+    private final List<Observer> observers = new CopyOnWriteArrayList<>();
+
+    // Read from the worker thread when raising alerts, so replaced rather than modified
+    private volatile Map<String, List<Pet>> petsByTracker = new HashMap<>();
+    private List<Pet> pets = new ArrayList<>();
+    // Newest position per tracker, handed to an observer as it attaches
+    private final Map<String, TrackerSample> lastPositions = new LinkedHashMap<>();
+    private boolean started = false;
+
+    public PetMonitor(GeofenceEngine engine, TrackerSubscriptionManager.Source<H> trackers,
+                      TrackerPipeline.Parser<T> parser, Executor worker, Executor mainThread, Alerts alerts) {
+        this(engine, trackers, parser, worker, mainThread, alerts, null);
+    }
+
+    public PetMonitor(GeofenceEngine engine, TrackerSubscriptionManager.Source<H> trackers,
+                      TrackerPipeline.Parser<T> parser, Executor worker, Executor mainThread, Alerts alerts,
+                      AdaptiveSampler sampler) {
+        this.engine = engine;
+        this.sampler = sampler;
+        this.alerts = alerts;
+        this.subscriptions = new TrackerSubscriptionManager<>(trackers);
+        this.pipeline = new TrackerPipeline<>(engine, parser, worker, mainThread, new TrackerPipeline.Listener() {
+            @Override
+            public void onExit(String trackerID, double lat, double lng) {
+                List<Pet> left = petsByTracker.get(trackerID);
+                if (left != null) {
+                    for (Pet pet : left) {
+                        PetMonitor.this.alerts.onPetLeft(pet, lat, lng);
+                    }
+                }
+            }
+
+            @Override
+            public void onReturn(String trackerID) {
+                List<Pet> returned = petsByTracker.get(trackerID);
+                if (returned != null) {
+                    for (Pet pet : returned) {
+                        PetMonitor.this.alerts.onPetReturned(pet);
+                    }
+                }
+            }
+
+            @Override
+            public void onPositions(List<TrackerSample> samples) {
+                for (TrackerSample sample : samples) {
+                    lastPositions.put(sample.trackerID, sample);
+                    notifyMoved(sample);
+                }
+            }
+        }, sampler);
+    }
+
+    public void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        subscriptions.start();
+    }
+
+    // Detaches every tracker listener, the caller shuts the worker down afterwards
+    public void stop() {
+        started = false;
+        subscriptions.stop();
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    public void setPets(List<Pet> newPets) {
+        Map<String, List<Pet>> trackers = new HashMap<>();
+        List<String> trackerIDs = new ArrayList<>();
+        for (Pet pet : newPets) {
+            String trackerID = pet.getPetTrackerID();
+            List<Pet> sharing = trackers.get(trackerID);
+            if (sharing == null) {
+                sharing = new ArrayList<>();
+                trackers.put(trackerID, sharing);
+            }
+            sharing.add(pet);
+            trackerIDs.add(trackerID);
+        }
+        Map<String, List<Pet>> previous = petsByTracker;
+        petsByTracker = trackers;
+        pets = new ArrayList<>(newPets);
+        lastPositions.keySet().retainAll(trackers.keySet());
+
+        // Only trackers that were added or removed get their listener attached or detached
+        subscriptions.setDesired(trackerIDs);
+        for (String trackerID : previous.keySet()) {
+            if (!trackers.containsKey(trackerID)) {
+                pipeline.forget(trackerID);
+            }
+        }
+        for (Observer observer : observers) {
+            observer.onPetsChanged(pets);
+        }
+    }
+
+    public void putFence(String key, CompiledFence fence) {
+        engine.put(key, fence);
+    }
+
+    public void removeFence(String key) {
+        engine.remove(key);
+    }
+
+    public void retainFences(Collection<String> keys) {
+        engine.retainAll(keys);
+    }
+
+    // Called with every Trackers/{id} update, the work happens on the worker
+    public void offer(String trackerID, T raw) {
+        pipeline.offer(trackerID, raw);
+    }
+
+    public void addObserver(Observer observer) {
+        observers.add(observer);
+        observer.onPetsChanged(pets);
+        for (TrackerSample sample : lastPositions.values()) {
+            List<Pet> moved = petsByTracker.get(sample.trackerID);
+            if (moved != null) {
+                for (Pet pet : moved) {
+                    observer.onPetMoved(pet.getPetName(), sample.checkedMillis, sample.latitude, sample.longitude, 0);
+                }
+            }
+        }
+    }
+
+    public void removeObserver(Observer observer) {
+        observers.remove(observer);
+    }
+
+    // Every checked position, on the worker
+    public void setRecorder(TrackerPipeline.Recorder recorder) {
+        pipeline.setRecorder(recorder);
+    }
+
+    // Ignored without a sampler
+    public void setPowerProfile(AdaptiveSampler.PowerProfile profile) {
+        if (sampler != null) {
+            sampler.setProfile(profile);
+        }
+    }
+
+    public GeofenceEngine getEngine() {
+        return engine;
+    }
+
+    public int getActiveListenerCount() {
+        return subscriptions.getActiveListenerCount();
+    }
+
+    public long getProcessedCount() {
+        return pipeline.getProcessedCount();
+    }
+
+    public long getCoalescedCount() {
+        return pipeline.getCoalescedCount();
+    }
+
+    public long getDeferredCount() {
+        return pipeline.getDeferredCount();
+    }
+
+    public long getCacheHitCount() {
+        return pipeline.getCacheHitCount();
+    }
+
+    public long getCacheMissCount() {
+        return pipeline.getCacheMissCount();
+    }
+
+    public long getCoarseDecisionCount() {
+        return pipeline.getCoarseDecisionCount();
+    }
+
+    private void notifyMoved(TrackerSample sample) {
+        if (observers.isEmpty()) {
+            return;
+        }
+        List<Pet> moved = petsByTracker.get(sample.trackerID);
+        if (moved == null) {
+            return;
+        }
+        for (Pet pet : moved) {
+            for (Observer observer : observers) {
+                observer.onPetMoved(pet.getPetName(), sample.checkedMillis, sample.latitude, sample.longitude,
+                        sample.receivedNanos);
+            }
+        }
+    }
+}
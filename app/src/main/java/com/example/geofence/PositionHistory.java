@@ -0,0 +1,581 @@
+package com.example.geofence;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every position a tracker reported, kept on the device so trails and
+ * statistics don't need the history from Firebase.
+ *
+ * Each tracker has its own directory of segment files, named
+ * {first timestamp}-{generation}.seg. A segment is a 16 byte header (MAGIC,
+ * VERSION, record count, thinning interval in seconds) followed by fixed
+ * width records:
+ *
+ *   long timestamp in ms, int latitude and int longitude in 1e-7 degrees,
+ *   int flags
+ *
+ * Records are only ever appended, in time order, to the newest segment of a
+ * tracker, which is memory-mapped for writing, so an append is a few stores
+ * into the mapping and allocates nothing. The record goes in before the count
+ * in the header is raised, so a killed process never leaves a half record
+ * behind. A full segment is sealed and the next append rolls over to a new
+ * file. That newest segment is the only mapping a tracker keeps: loading reads
+ * just the header and last timestamp of each file, and scan() and compact()
+ * map the sealed segments they touch and let go of them when done. scan()
+ * binary searches each segment for the start of the range.
+ *
+ * compact() drops sealed segments past retention and thins older ones to one
+ * record per interval, keeping every flagged record. The thinned records are
+ * written to temporary files of the next generation, then a journal naming
+ * them and the segments they replace is written and renamed into place. That
+ * rename is the commit: what remains is renaming the new segments and deleting
+ * the old ones. Loading a tracker finishes a compaction whose journal is there
+ * and deletes the temporary files of one whose journal isn't, so records are
+ * never lost or kept twice whenever the process dies.
+ *
+ * Safe to call from any thread, every method is synchronized.
+ */
+public class PositionHistory {
+
+    public interface Visitor {
+        void onPosition(long timestampMillis, double lat, double lng, int flags);
+    }
+
+    // The pet was outside every safe area
+    public static final int FLAG_OUTSIDE = 1;
+
+    static final int MAGIC = 0x47465048;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 16;
+    static final int RECORD_BYTES = 20;
+    // 80 KB, about an hour of one tracker reporting every second
+    static final int DEFAULT_SEGMENT_RECORDS = 4096;
+
+    private static final double SCALE = 1e7;
+    private static final String SUFFIX = ".seg";
+    private static final String TEMP_SUFFIX = ".seg.tmp";
+    static final String JOURNAL = "compact.journal";
+    private static final String JOURNAL_TEMP = "compact.journal.tmp";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static class Segment {
+        File file;
+        long firstTimestamp;
+        int generation;
+        int count;
+        long lastTimestamp;
+        // Records were thinned to this interval, such a segment never takes appends
+        int thinnedSeconds;
+        // Records the file has room for
+        int capacity;
+        // Kept for the segment taking appends, otherwise only while a scan or compaction reads it
+        MappedByteBuffer buffer;
+        boolean writable;
+
+        long timestampAt(int i) {
+            return buffer.getLong(HEADER_BYTES + i * RECORD_BYTES);
+        }
+    }
+
+    private static class Track {
+        final File directory;
+        final List<Segment> segments = new ArrayList<>();
+
+        Track(File directory) {
+            this.directory = directory;
+        }
+
+        Segment last() {
+            return segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        }
+    }
+
+    private static final Comparator<Segment> BY_TIME = new Comparator<Segment>() {
+        @Override
+        public int compare(Segment a, Segment b) {
+            return Long.compare(a.firstTimestamp, b.firstTimestamp);
+        }
+    };
+
+    private final File root;
+    private final int segmentRecords;
+    private final Map<String, Track> tracks = new HashMap<>();
+
+    public PositionHistory(File root) {
+        this(root, DEFAULT_SEGMENT_RECORDS);
+    }
+
+    PositionHistory(File root, int segmentRecords) {
+        this.root = root;
+        this.segmentRecords = segmentRecords;
+    }
+
+    /**
+     * Adds a position after the tracker's newest one. Returns false without
+     * storing anything if it is older than that.
+     */
+    public synchronized boolean append(String trackerID, long timestampMillis, double lat, double lng, int flags)
+            throws IOException {
+        Track track = track(trackerID);
+        Segment segment = track.last();
+        if (segment != null && segment.count > 0 && timestampMillis < segment.lastTimestamp) {
+            return false;
+        }
+        if (segment == null || segment.thinnedSeconds > 0 || segment.count >= segment.capacity) {
+            seal(segment);
+            segment = create(track, timestampMillis, 0, segmentRecords, false);
+            track.segments.add(segment);
+        } else if (!segment.writable) {
+            openForAppend(segment);
+        }
+
+        ByteBuffer buffer = segment.buffer;
+        int at = HEADER_BYTES + segment.count * RECORD_BYTES;
+        buffer.putLong(at, timestampMillis);
+        buffer.putInt(at + 8, (int) Math.round(lat * SCALE));
+        buffer.putInt(at + 12, (int) Math.round(lng * SCALE));
+        buffer.putInt(at + 16, flags);
+        segment.count++;
+        segment.lastTimestamp = timestampMillis;
+        buffer.putInt(8, segment.count);
+        return true;
+    }
+
+    /**
+     * Visits the tracker's positions with fromMillis <= timestamp < toMillis in
+     * time order, returns how many there were.
+     */
+    public synchronized int scan(String trackerID, long fromMillis, long toMillis, Visitor visitor) throws IOException {
+        Track track = track(trackerID);
+        int visited = 0;
+        for (Segment segment : track.segments) {
+            if (segment.count == 0 || segment.lastTimestamp < fromMillis) {
+                continue;
+            }
+            if (segment.firstTimestamp >= toMillis) {
+                break;
+            }
+            map(segment);
+            try {
+                for (int i = firstAtOrAfter(segment, fromMillis); i < segment.count; i++) {
+                    int at = HEADER_BYTES + i * RECORD_BYTES;
+                    long timestamp = segment.buffer.getLong(at);
+                    if (timestamp >= toMillis) {
+                        break;
+                    }
+                    visitor.onPosition(timestamp,
+                            segment.buffer.getInt(at + 8) / SCALE,
+                            segment.buffer.getInt(at + 12) / SCALE,
+                            segment.buffer.getInt(at + 16));
+                    visited++;
+                }
+            } finally {
+                release(segment);
+            }
+        }
+        return visited;
+    }
+
+    public synchronized int getRecordCount(String trackerID) throws IOException {
+        int count = 0;
+        for (Segment segment : track(trackerID).segments) {
+            count += segment.count;
+        }
+        return count;
+    }
+
+    public synchronized int getSegmentCount(String trackerID) throws IOException {
+        return track(trackerID).segments.size();
+    }
+
+    // Segments mapped right now, over every tracker loaded
+    synchronized int getMappedCount() {
+        int mapped = 0;
+        for (Track track : tracks.values()) {
+            for (Segment segment : track.segments) {
+                if (segment.buffer != null) {
+                    mapped++;
+                }
+            }
+        }
+        return mapped;
+    }
+
+    /**
+     * Deletes sealed segments that end before dropBefore, and rewrites the
+     * other sealed segments that end before thinBefore with at most one
+     * record per thinInterval. Flagged records and the first record after
+     * the flags change are always kept. Every tracker on disk is compacted.
+     */
+    public synchronized void compact(long dropBefore, long thinBefore, long thinIntervalMillis) throws IOException {
+        File[] directories = root.listFiles();
+        if (directories == null) {
+            return;
+        }
+        for (File directory : directories) {
+            if (directory.isDirectory()) {
+                compact(trackFor(directory), dropBefore, thinBefore, thinIntervalMillis);
+            }
+        }
+    }
+
+    // Writes the mapped records out, call before the process is expected to end
+    public synchronized void flush() {
+        for (Track track : tracks.values()) {
+            Segment last = track.last();
+            if (last != null && last.writable) {
+                last.buffer.force();
+            }
+        }
+    }
+
+    private void compact(Track track, long dropBefore, long thinBefore, long thinIntervalMillis) throws IOException {
+        int thinSeconds = (int) Math.max(1, thinIntervalMillis / 1000);
+        List<Segment> thin = new ArrayList<>();
+        int generation = 0;
+        for (int s = 0; s < track.segments.size(); s++) {
+            Segment segment = track.segments.get(s);
+            // The newest segment may still take appends
+            boolean sealed = s < track.segments.size() - 1 || segment.thinnedSeconds > 0
+                    || segment.count >= segment.capacity;
+            if (!sealed) {
+                break;
+            }
+            if (segment.lastTimestamp < dropBefore) {
+                delete(segment);
+                track.segments.remove(s--);
+            } else if (segment.lastTimestamp < thinBefore && segment.thinnedSeconds < thinSeconds) {
+                thin.add(segment);
+                generation = Math.max(generation, segment.generation);
+            } else if (!thin.isEmpty()) {
+                // Only a run of neighbors, so the new segments overlap nothing but their inputs
+                break;
+            }
+        }
+        if (thin.isEmpty()) {
+            return;
+        }
+
+        // Kept records in order, then written out in full segments
+        List<long[]> kept = new ArrayList<>();
+        long lastKept = Long.MIN_VALUE;
+        int lastFlags = -1;
+        for (Segment segment : thin) {
+            map(segment);
+            for (int i = 0; i < segment.count; i++) {
+                int at = HEADER_BYTES + i * RECORD_BYTES;
+                long timestamp = segment.buffer.getLong(at);
+                int flags = segment.buffer.getInt(at + 16);
+                if (flags != 0 || flags != lastFlags || timestamp - lastKept >= thinIntervalMillis) {
+                    kept.add(new long[]{timestamp, segment.buffer.getInt(at + 8), segment.buffer.getInt(at + 12), flags});
+                    lastKept = timestamp;
+                }
+                lastFlags = flags;
+            }
+            release(segment);
+        }
+
+        List<Segment> written = new ArrayList<>();
+        for (int start = 0; start < kept.size(); start += segmentRecords) {
+            int n = Math.min(segmentRecords, kept.size() - start);
+            Segment segment = create(track, kept.get(start)[0], generation + 1, n, true);
+            for (int i = 0; i < n; i++) {
+                long[] record = kept.get(start + i);
+                int at = HEADER_BYTES + i * RECORD_BYTES;
+                segment.buffer.putLong(at, record[0]);
+                segment.buffer.putInt(at + 8, (int) record[1]);
+                segment.buffer.putInt(at + 12, (int) record[2]);
+                segment.buffer.putInt(at + 16, (int) record[3]);
+            }
+            segment.count = n;
+            segment.lastTimestamp = kept.get(start + n - 1)[0];
+            segment.thinnedSeconds = thinSeconds;
+            segment.buffer.putInt(8, n);
+            segment.buffer.putInt(12, thinSeconds);
+            seal(segment);
+            written.add(segment);
+        }
+
+        // The new generation is complete on disk before the journal names it
+        List<String> outputs = new ArrayList<>();
+        List<String> inputs = new ArrayList<>();
+        for (Segment segment : written) {
+            segment.file = new File(track.directory, segment.firstTimestamp + "-" + segment.generation + SUFFIX);
+            outputs.add(segment.file.getName());
+        }
+        for (Segment segment : thin) {
+            inputs.add(segment.file.getName());
+        }
+        writeJournal(track.directory, outputs, inputs);
+        finishCompaction(track.directory);
+        track.segments.removeAll(thin);
+        track.segments.addAll(written);
+        Collections.sort(track.segments, BY_TIME);
+    }
+
+    private Track track(String trackerID) throws IOException {
+        Track track = tracks.get(trackerID);
+        if (track == null) {
+            track = trackFor(new File(root, directoryName(trackerID)));
+        }
+        return track;
+    }
+
+    // Loads a tracker's segments the first time it is used
+    private Track trackFor(File directory) throws IOException {
+        String key = trackerID(directory.getName());
+        Track track = tracks.get(key);
+        if (track != null) {
+            return track;
+        }
+        track = new Track(directory);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        // Dies during a compaction: with its journal written it is finished, before that it never happened
+        if (new File(directory, JOURNAL).exists()) {
+            finishCompaction(directory);
+        }
+        File[] files = directory.listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            String name = file.getName();
+            if (name.endsWith(TEMP_SUFFIX) || name.equals(JOURNAL_TEMP)) {
+                file.delete();
+                continue;
+            }
+            Segment segment = load(file);
+            if (segment == null || segment.count == 0) {
+                file.delete();
+            } else {
+                track.segments.add(segment);
+            }
+        }
+        Collections.sort(track.segments, BY_TIME);
+        tracks.put(key, track);
+        return track;
+    }
+
+    // Reads the header and the last timestamp, null for anything that isn't a segment
+    private Segment load(File file) throws IOException {
+        String name = file.getName();
+        int dash = name.indexOf('-');
+        if (!name.endsWith(SUFFIX) || dash <= 0) {
+            return null;
+        }
+        Segment segment = new Segment();
+        segment.file = file;
+        try {
+            segment.firstTimestamp = Long.parseLong(name.substring(0, dash));
+            segment.generation = Integer.parseInt(name.substring(dash + 1, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        long length = file.length();
+        if (length < HEADER_BYTES) {
+            return null;
+        }
+        // Read rather than mapped, most segments are never looked at again
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            int magic = in.readInt();
+            int version = in.readInt();
+            int count = in.readInt();
+            if (magic != MAGIC || version != VERSION
+                    || count < 0 || HEADER_BYTES + (long) count * RECORD_BYTES > length) {
+                return null;
+            }
+            segment.count = count;
+            segment.thinnedSeconds = in.readInt();
+            segment.capacity = (int) ((length - HEADER_BYTES) / RECORD_BYTES);
+            if (count == 0) {
+                segment.lastTimestamp = segment.firstTimestamp;
+            } else {
+                in.seek(HEADER_BYTES + (long) (count - 1) * RECORD_BYTES);
+                segment.lastTimestamp = in.readLong();
+            }
+        } finally {
+            in.close();
+        }
+        return segment;
+    }
+
+    private Segment create(Track track, long firstTimestamp, int generation, int records, boolean temp)
+            throws IOException {
+        Segment segment = new Segment();
+        segment.firstTimestamp = firstTimestamp;
+        segment.generation = generation;
+        segment.lastTimestamp = firstTimestamp;
+        segment.file = new File(track.directory, firstTimestamp + "-" + generation + (temp ? TEMP_SUFFIX : SUFFIX));
+        RandomAccessFile file = new RandomAccessFile(segment.file, "rw");
+        try {
+            long size = HEADER_BYTES + (long) records * RECORD_BYTES;
+            file.setLength(size);
+            segment.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } finally {
+            file.close();
+        }
+        segment.writable = true;
+        segment.capacity = records;
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, VERSION);
+        segment.buffer.putInt(8, 0);
+        segment.buffer.putInt(12, 0);
+        return segment;
+    }
+
+    private void map(Segment segment) throws IOException {
+        if (segment.buffer != null) {
+            return;
+        }
+        RandomAccessFile file = new RandomAccessFile(segment.file, "r");
+        try {
+            segment.buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            file.close();
+        }
+    }
+
+    // The newest segment after a restart, mapped again for writing
+    private void openForAppend(Segment segment) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segment.file, "rw");
+        try {
+            segment.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+        } finally {
+            file.close();
+        }
+        segment.writable = true;
+    }
+
+    // The mapping goes with the last reference to it, Java has no unmap
+    private void seal(Segment segment) {
+        if (segment != null && segment.writable) {
+            segment.buffer.force();
+            segment.writable = false;
+            segment.buffer = null;
+        }
+    }
+
+    private void release(Segment segment) {
+        if (!segment.writable) {
+            segment.buffer = null;
+        }
+    }
+
+    private void delete(Segment segment) {
+        segment.buffer = null;
+        segment.file.delete();
+    }
+
+    /**
+     * Commits a compaction: the outputs, still under their temporary names,
+     * replace the inputs. Lines are "+" and an output, then "-" and an input.
+     * Synced before the rename, so a journal that exists is complete.
+     */
+    static void writeJournal(File directory, List<String> outputs, List<String> inputs) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String output : outputs) {
+            sb.append('+').append(output).append('\n');
+        }
+        for (String input : inputs) {
+            sb.append('-').append(input).append('\n');
+        }
+        File temp = new File(directory, JOURNAL_TEMP);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(sb.toString().getBytes(UTF_8));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(new File(directory, JOURNAL))) {
+            throw new IOException("Could not write " + JOURNAL + " in " + directory);
+        }
+    }
+
+    // Renames and deletes what the journal says, then drops it. Running it again does nothing more.
+    private static void finishCompaction(File directory) throws IOException {
+        File journal = new File(directory, JOURNAL);
+        List<String> lines = new ArrayList<>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journal), UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 1) {
+                    lines.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        // Every output is in place before any input goes
+        for (String line : lines) {
+            if (line.charAt(0) == '+') {
+                File temp = new File(directory, line.substring(1) + ".tmp");
+                if (temp.exists() && !temp.renameTo(new File(directory, line.substring(1)))) {
+                    throw new IOException("Could not replace " + line.substring(1) + " in " + directory);
+                }
+            }
+        }
+        for (String line : lines) {
+            if (line.charAt(0) == '-') {
+                new File(directory, line.substring(1)).delete();
+            }
+        }
+        journal.delete();
+    }
+
+    // First record at or after the timestamp, count if there is none
+    private static int firstAtOrAfter(Segment segment, long timestamp) {
+        int lo = 0;
+        int hi = segment.count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (segment.timestampAt(mid) < timestamp) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Tracker IDs are used as directory names as they are, unless they contain anything unusual
+    static String directoryName(String trackerID) {
+        if (trackerID.matches("[A-Za-z0-9_]+")) {
+            return trackerID;
+        }
+        StringBuilder hex = new StringBuilder("-");
+        for (byte b : trackerID.getBytes(UTF_8)) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    static String trackerID(String directoryName) {
+        if (!directoryName.startsWith("-")) {
+            return directoryName;
+        }
+        byte[] bytes = new byte[(directoryName.length() - 1) / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(directoryName.substring(1 + i * 2, 3 + i * 2), 16);
+        }
+        return new String(bytes, UTF_8);
+    }
+}
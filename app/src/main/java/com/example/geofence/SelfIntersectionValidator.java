@@ -0,0 +1,344 @@
+package com.example.geofence;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TreeSet;
+
+/**
+ * Finds whether a fence outline crosses itself, in O(n log n).
+ *
+ * A self-intersecting outline gives containment answers that make no sense
+ * to the owner (the overlapping part counts as outside), so the editor won't
+ * save one. This is the Shamos-Hoey sweep: edges are entered into an ordered
+ * set as a vertical sweep line passes their left end and taken out at their
+ * right end, and only edges that become neighbours in that set are tested
+ * against each other. The sweep stops at the first crossing it finds.
+ *
+ * Edges that share a vertex only count as crossing if they fold back over
+ * each other; two vertices on the same spot always do. Coordinates are
+ * projected flat around the first vertex.
+ */
+public final class SelfIntersectionValidator {
+
+    // Heights within this many degrees (well under a millimeter) count as equal on the sweep line
+    private static final double Y_EPSILON = 1e-11;
+    // Points count as collinear when the sine of the angle between them is below this
+    private static final double SINE_EPSILON = 1e-9;
+
+    /**
+     * Two edges that cross. Edge i runs from vertex i to vertex i + 1 (the
+     * last one back to vertex 0).
+     */
+    public static class Crossing {
+        public final int edgeA;
+        public final int edgeB;
+        public final double latitude;
+        public final double longitude;
+
+        Crossing(int edgeA, int edgeB, double latitude, double longitude) {
+            this.edgeA = edgeA;
+            this.edgeB = edgeB;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+
+    private SelfIntersectionValidator() {
+    }
+
+    /**
+     * Returns a crossing, or null if the outline is simple.
+     */
+    public static Crossing findCrossing(double[] lats, double[] lngs) {
+        if (lats.length != lngs.length) {
+            throw new IllegalArgumentException("lats and lngs must be the same length");
+        }
+        int n = lats.length;
+        if (n < 3) {
+            return null;
+        }
+        return new Sweep(lats, lngs).run();
+    }
+
+    private static class Sweep {
+        final int n;
+        final double originLat;
+        final double originLng;
+        final double cosLat;
+        final double[] xs;
+        final double[] ys;
+        // Left and right end of each edge, by vertex index
+        final int[] left;
+        final int[] right;
+        // Current event point, and whether edges are leaving or entering there
+        double sweepX;
+        double sweepY;
+        boolean leaving;
+
+        final TreeSet<Integer> active;
+
+        Sweep(double[] lats, double[] lngs) {
+            n = lats.length;
+            originLat = lats[0];
+            originLng = lngs[0];
+            cosLat = Math.cos(Math.toRadians(originLat));
+            xs = new double[n];
+            ys = new double[n];
+            for (int i = 0; i < n; i++) {
+                xs[i] = GeoMath.wrapDegrees(lngs[i] - originLng) * cosLat;
+                ys[i] = lats[i] - originLat;
+            }
+
+            left = new int[n];
+            right = new int[n];
+            for (int e = 0; e < n; e++) {
+                int a = e;
+                int b = (e + 1) % n;
+                if (pointLess(a, b)) {
+                    left[e] = a;
+                    right[e] = b;
+                } else {
+                    left[e] = b;
+                    right[e] = a;
+                }
+            }
+
+            active = new TreeSet<>(new Comparator<Integer>() {
+                @Override
+                public int compare(Integer e1, Integer e2) {
+                    return compareEdges(e1, e2);
+                }
+            });
+        }
+
+        Crossing run() {
+            // Event k < n is edge k entering, k >= n is edge k - n leaving
+            Integer[] events = new Integer[2 * n];
+            for (int k = 0; k < 2 * n; k++) {
+                events[k] = k;
+            }
+            Arrays.sort(events, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer k1, Integer k2) {
+                    int p1 = eventPoint(k1);
+                    int p2 = eventPoint(k2);
+                    int c = Double.compare(xs[p1], xs[p2]);
+                    if (c == 0) {
+                        c = Double.compare(ys[p1], ys[p2]);
+                    }
+                    if (c == 0) {
+                        // Edges ending at a point leave before the ones starting there come in
+                        c = (k1 < n ? 1 : 0) - (k2 < n ? 1 : 0);
+                    }
+                    return c;
+                }
+            });
+
+            int start = 0;
+            while (start < events.length) {
+                int p = eventPoint(events[start]);
+                int end = start;
+                while (end < events.length && samePoint(eventPoint(events[end]), p)) {
+                    end++;
+                }
+                sweepX = xs[p];
+                sweepY = ys[p];
+
+                for (int k = start; k < end; k++) {
+                    // Two vertices on the same spot, the outline touches itself there
+                    if (eventPoint(events[k]) != p) {
+                        return crossingAt(edgeOf(events[start]), edgeOf(events[k]), xs[p], ys[p]);
+                    }
+                }
+
+                // Edges ending here, ordered as they were just left of the point
+                leaving = true;
+                for (int k = start; k < end && events[k] >= n; k++) {
+                    int e = events[k] - n;
+                    Integer above = active.higher(e);
+                    Integer below = active.lower(e);
+                    if (!active.remove(e)) {
+                        // Only happens around a crossing the neighbours didn't show
+                        return findByScan();
+                    }
+                    if (above != null && below != null) {
+                        Crossing crossing = check(above, below);
+                        if (crossing != null) {
+                            return crossing;
+                        }
+                    }
+                }
+
+                // Edges starting here, ordered as they will be just right of it
+                leaving = false;
+                for (int k = start; k < end; k++) {
+                    if (events[k] >= n) {
+                        continue;
+                    }
+                    int e = events[k];
+                    Integer above = active.higher(e);
+                    Integer below = active.lower(e);
+                    active.add(e);
+                    Crossing crossing = check(e, above);
+                    if (crossing == null) {
+                        crossing = check(e, below);
+                    }
+                    if (crossing != null) {
+                        return crossing;
+                    }
+                }
+                start = end;
+            }
+            return null;
+        }
+
+        // Every pair, a safety net that should never be reached
+        Crossing findByScan() {
+            for (int e = 0; e < n; e++) {
+                for (int f = e + 1; f < n; f++) {
+                    Crossing crossing = check(e, f);
+                    if (crossing != null) {
+                        return crossing;
+                    }
+                }
+            }
+            return null;
+        }
+
+        int edgeOf(int k) {
+            return k < n ? k : k - n;
+        }
+
+        boolean samePoint(int a, int b) {
+            return xs[a] == xs[b] && ys[a] == ys[b];
+        }
+
+        int eventPoint(int k) {
+            return k < n ? left[k] : right[k - n];
+        }
+
+        boolean pointLess(int a, int b) {
+            return xs[a] < xs[b] || (xs[a] == xs[b] && ys[a] < ys[b]);
+        }
+
+        // Height of the edge where the sweep line is, vertical edges as close to the event point as they get
+        double yAt(int e) {
+            int a = left[e];
+            int b = right[e];
+            if (xs[a] == xs[b]) {
+                return Math.max(ys[a], Math.min(ys[b], sweepY));
+            }
+            double t = (sweepX - xs[a]) / (xs[b] - xs[a]);
+            return ys[a] + t * (ys[b] - ys[a]);
+        }
+
+        double slope(int e) {
+            int a = left[e];
+            int b = right[e];
+            if (xs[a] == xs[b]) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return (ys[b] - ys[a]) / (xs[b] - xs[a]);
+        }
+
+        int compareEdges(int e1, int e2) {
+            if (e1 == e2) {
+                return 0;
+            }
+            double y1 = yAt(e1);
+            double y2 = yAt(e2);
+            int c = Math.abs(y1 - y2) <= Y_EPSILON ? 0 : Double.compare(y1, y2);
+            if (c == 0) {
+                // Meeting at the event point: just left of it the steeper edge is lower
+                c = leaving ? Double.compare(slope(e2), slope(e1)) : Double.compare(slope(e1), slope(e2));
+            }
+            if (c == 0) {
+                c = e1 - e2;
+            }
+            return c;
+        }
+
+        Crossing check(int e1, Integer other) {
+            if (other == null) {
+                return null;
+            }
+            int e2 = other;
+            boolean adjacent = Math.abs(e1 - e2) == 1 || Math.abs(e1 - e2) == n - 1;
+
+            int a = e1;
+            int b = (e1 + 1) % n;
+            int c = e2;
+            int d = (e2 + 1) % n;
+
+            if (adjacent) {
+                // Shared vertex is fine unless the edges run back over each other
+                int shared = (b == c) ? b : a;
+                int p = (shared == a) ? b : a;
+                int q = (shared == c) ? d : c;
+                if (orientation(shared, p, q) == 0 && dot(shared, p, q) > 0) {
+                    int nearer = length2(shared, p) < length2(shared, q) ? p : q;
+                    return crossingAt(e1, e2, xs[nearer], ys[nearer]);
+                }
+                return null;
+            }
+
+            int o1 = orientation(a, b, c);
+            int o2 = orientation(a, b, d);
+            int o3 = orientation(c, d, a);
+            int o4 = orientation(c, d, b);
+
+            if (o1 != o2 && o3 != o4) {
+                double denom = (xs[b] - xs[a]) * (ys[d] - ys[c]) - (ys[b] - ys[a]) * (xs[d] - xs[c]);
+                double t = denom == 0 ? 0
+                        : ((xs[c] - xs[a]) * (ys[d] - ys[c]) - (ys[c] - ys[a]) * (xs[d] - xs[c])) / denom;
+                return crossingAt(e1, e2, xs[a] + t * (xs[b] - xs[a]), ys[a] + t * (ys[b] - ys[a]));
+            }
+
+            // Touching or overlapping while collinear
+            if (o1 == 0 && onSegment(a, b, c)) {
+                return crossingAt(e1, e2, xs[c], ys[c]);
+            }
+            if (o2 == 0 && onSegment(a, b, d)) {
+                return crossingAt(e1, e2, xs[d], ys[d]);
+            }
+            if (o3 == 0 && onSegment(c, d, a)) {
+                return crossingAt(e1, e2, xs[a], ys[a]);
+            }
+            if (o4 == 0 && onSegment(c, d, b)) {
+                return crossingAt(e1, e2, xs[b], ys[b]);
+            }
+            return null;
+        }
+
+        Crossing crossingAt(int e1, int e2, double x, double y) {
+            double lng = GeoMath.wrapDegrees(originLng + x / cosLat);
+            return new Crossing(Math.min(e1, e2), Math.max(e1, e2), originLat + y, lng);
+        }
+
+        int orientation(int p, int q, int r) {
+            double cross = (xs[q] - xs[p]) * (ys[r] - ys[p]) - (ys[q] - ys[p]) * (xs[r] - xs[p]);
+            // Rounding from the projection shouldn't decide whether a vertex sits on an edge
+            double scale = Math.sqrt(length2(p, q) * length2(p, r));
+            if (Math.abs(cross) <= SINE_EPSILON * scale) {
+                return 0;
+            }
+            return cross > 0 ? 1 : -1;
+        }
+
+        double dot(int origin, int p, int q) {
+            return (xs[p] - xs[origin]) * (xs[q] - xs[origin]) + (ys[p] - ys[origin]) * (ys[q] - ys[origin]);
+        }
+
+        double length2(int p, int q) {
+            double dx = xs[q] - xs[p];
+            double dy = ys[q] - ys[p];
+            return dx * dx + dy * dy;
+        }
+
+        // r is collinear with p-q, is it between them
+        boolean onSegment(int p, int q, int r) {
+            return Math.min(xs[p], xs[q]) <= xs[r] && xs[r] <= Math.max(xs[p], xs[q])
+                    && Math.min(ys[p], ys[q]) <= ys[r] && ys[r] <= Math.max(ys[p], ys[q]);
+        }
+    }
+}
@@ -2,13 +2,21 @@ package com.example.geofence;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import android.content.Context;
+import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.widget.RadioGroup;
 
 import com.example.geofence.databinding.ActivitySettingsBinding;
 
 public class SettingsActivity extends DrawerBaseActivity {
 
+    // ForegroundService listens for changes to these
+    public static final String PREFS_NAME = "settings";
+    public static final String KEY_POWER_PROFILE = "power_profile";
+
     ActivitySettingsBinding activitySettingsBinding;
+    SharedPreferences settings;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -16,6 +24,53 @@ public class SettingsActivity extends DrawerBaseActivity {
         activitySettingsBinding = ActivitySettingsBinding.inflate(getLayoutInflater());
         setContentView(activitySettingsBinding.getRoot());
         setNavActivityTitle("Settings");
+
+        settings = getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        AdaptiveSampler.PowerProfile current = AdaptiveSampler.PowerProfile.forName(
+                settings.getString(KEY_POWER_PROFILE, AdaptiveSampler.PowerProfile.BALANCED.name));
+        activitySettingsBinding.settingsPowerProfile.check(buttonFor(current));
+        showDescription(current);
+
+        activitySettingsBinding.settingsPowerProfile.setOnCheckedChangeListener(new RadioGroup.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(RadioGroup group, int checkedId) {
+                AdaptiveSampler.PowerProfile profile = profileFor(checkedId);
+                settings.edit().putString(KEY_POWER_PROFILE, profile.name).apply();
+                showDescription(profile);
+            }
+        });
+    }
+
+    private int buttonFor(AdaptiveSampler.PowerProfile profile){
+        if(profile == AdaptiveSampler.PowerProfile.REAL_TIME){
+            return R.id.settings_RealTime;
+        }
+        if(profile == AdaptiveSampler.PowerProfile.BATTERY_SAVER){
+            return R.id.settings_BatterySaver;
+        }
+        return R.id.settings_Balanced;
+    }
+
+    private AdaptiveSampler.PowerProfile profileFor(int buttonID){
+        if(buttonID == R.id.settings_RealTime){
+            return AdaptiveSampler.PowerProfile.REAL_TIME;
+        }
+        if(buttonID == R.id.settings_BatterySaver){
+            return AdaptiveSampler.PowerProfile.BATTERY_SAVER;
+        }
+        return AdaptiveSampler.PowerProfile.BALANCED;
+    }
+
+    private void showDescription(AdaptiveSampler.PowerProfile profile){
+        String description;
+        if(profile.maxIntervalMillis <= 0){
+            description = "Every tracker update is checked.";
+        }
+        else {
+            description = "Pets well inside a safe area are checked less often, at least every "
+                    + (profile.maxIntervalMillis / 1000) + " seconds. Pets near an edge are always checked right away.";
+        }
+        activitySettingsBinding.settingsPowerDescription.setText(description);
     }
 
     // Disable back button navigation
@@ -23,4 +78,4 @@ public class SettingsActivity extends DrawerBaseActivity {
     public void onBackPressed() {
 
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,274 @@
+package com.example.geofence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Packed R-tree over fence bounding boxes, bulk loaded with Sort-Tile-Recursive.
+ *
+ * A packed tree can't take inserts, so fences added after the last pack sit in
+ * a small pending list that is scanned linearly, and removed fences are only
+ * marked. Once the pending and removed fences make up a quarter of the tree it
+ * gets packed again, so a single fence change never costs a full rebuild.
+ */
+public class StrRTree implements GeofenceIndex {
+
+    private static final int NODE_CAPACITY = 8;
+    private static final int MIN_REPACK = 16;
+
+    // Packed fences in STR order
+    private CompiledFence[] items = new CompiledFence[0];
+    private boolean[] removed = new boolean[0];
+    private int removedCount = 0;
+    private final Map<CompiledFence, Integer> slots = new IdentityHashMap<>();
+
+    // levels[0] holds the leaves, the last level holds the root
+    private Level[] levels = new Level[0];
+
+    // Inserted since the last pack
+    private final List<CompiledFence> pending = new ArrayList<>();
+
+    private static class Level {
+        final double[] minLat;
+        final double[] maxLat;
+        final double[] minLng;
+        final double[] maxLng;
+        // Range of children (or items, for leaves) covered by each node
+        final int[] start;
+        final int[] end;
+
+        Level(int size) {
+            minLat = new double[size];
+            maxLat = new double[size];
+            minLng = new double[size];
+            maxLng = new double[size];
+            start = new int[size];
+            end = new int[size];
+        }
+
+        int size() {
+            return start.length;
+        }
+    }
+
+    @Override
+    public void build(List<CompiledFence> fences) {
+        pending.clear();
+        pack(new ArrayList<>(fences));
+    }
+
+    @Override
+    public void insert(CompiledFence fence) {
+        pending.add(fence);
+        maybeRepack();
+    }
+
+    @Override
+    public boolean remove(CompiledFence fence) {
+        Integer slot = slots.get(fence);
+        if (slot != null && !removed[slot]) {
+            removed[slot] = true;
+            removedCount++;
+            maybeRepack();
+            return true;
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            if (pending.get(i) == fence) {
+                pending.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        pending.clear();
+        pack(new ArrayList<CompiledFence>());
+    }
+
+    @Override
+    public int size() {
+        return items.length - removedCount + pending.size();
+    }
+
+    // Number of levels in the packed part, mostly for tests
+    public int getHeight() {
+        return levels.length;
+    }
+
+    @Override
+    public void search(double lat, double lng, List<CompiledFence> out) {
+        if (levels.length > 0) {
+            searchNode(levels.length - 1, 0, lat, lng, out);
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            CompiledFence fence = pending.get(i);
+            if (fence.boxContains(lat, lng)) {
+                out.add(fence);
+            }
+        }
+    }
+
+    private void searchNode(int depth, int node, double lat, double lng, List<CompiledFence> out) {
+        Level level = levels[depth];
+        if (lat < level.minLat[node] || lat > level.maxLat[node]
+                || lng < level.minLng[node] || lng > level.maxLng[node]) {
+            return;
+        }
+
+        if (depth == 0) {
+            for (int i = level.start[node]; i < level.end[node]; i++) {
+                if (!removed[i] && items[i].boxContains(lat, lng)) {
+                    out.add(items[i]);
+                }
+            }
+        } else {
+            for (int child = level.start[node]; child < level.end[node]; child++) {
+                searchNode(depth - 1, child, lat, lng, out);
+            }
+        }
+    }
+
+    private void maybeRepack() {
+        int churn = pending.size() + removedCount;
+        if (churn > Math.max(MIN_REPACK, (items.length - removedCount) / 4)) {
+            List<CompiledFence> live = new ArrayList<>(size());
+            for (int i = 0; i < items.length; i++) {
+                if (!removed[i]) {
+                    live.add(items[i]);
+                }
+            }
+            live.addAll(pending);
+            pending.clear();
+            pack(live);
+        }
+    }
+
+    private void pack(List<CompiledFence> fences) {
+        int n = fences.size();
+
+        // Order the fences themselves, then group them into leaves
+        double[] minLat = new double[n];
+        double[] maxLat = new double[n];
+        double[] minLng = new double[n];
+        double[] maxLng = new double[n];
+        for (int i = 0; i < n; i++) {
+            CompiledFence fence = fences.get(i);
+            minLat[i] = fence.getMinLatitude();
+            maxLat[i] = fence.getMaxLatitude();
+            minLng[i] = fence.getMinLongitude();
+            maxLng[i] = fence.getMaxLongitude();
+        }
+        Integer[] order = strOrder(minLat, maxLat, minLng, maxLng);
+
+        items = new CompiledFence[n];
+        removed = new boolean[n];
+        removedCount = 0;
+        slots.clear();
+        for (int i = 0; i < n; i++) {
+            items[i] = fences.get(order[i]);
+            slots.put(items[i], i);
+        }
+
+        List<Level> built = new ArrayList<>();
+        if (n > 0) {
+            Level level = group(permute(minLat, order), permute(maxLat, order),
+                    permute(minLng, order), permute(maxLng, order), n);
+            built.add(level);
+
+            while (level.size() > 1) {
+                // STR order the nodes, keeping their child ranges, then group again
+                Integer[] nodeOrder = strOrder(level.minLat, level.maxLat, level.minLng, level.maxLng);
+                Level sorted = new Level(level.size());
+                for (int i = 0; i < level.size(); i++) {
+                    int from = nodeOrder[i];
+                    sorted.minLat[i] = level.minLat[from];
+                    sorted.maxLat[i] = level.maxLat[from];
+                    sorted.minLng[i] = level.minLng[from];
+                    sorted.maxLng[i] = level.maxLng[from];
+                    sorted.start[i] = level.start[from];
+                    sorted.end[i] = level.end[from];
+                }
+                built.set(built.size() - 1, sorted);
+
+                level = group(sorted.minLat, sorted.maxLat, sorted.minLng, sorted.maxLng, sorted.size());
+                built.add(level);
+            }
+        }
+        levels = built.toArray(new Level[0]);
+    }
+
+    // Groups consecutive boxes into nodes of NODE_CAPACITY
+    private static Level group(double[] minLat, double[] maxLat, double[] minLng, double[] maxLng, int n) {
+        int nodes = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        Level level = new Level(nodes);
+        for (int node = 0; node < nodes; node++) {
+            int start = node * NODE_CAPACITY;
+            int end = Math.min(n, start + NODE_CAPACITY);
+            double loLat = Double.POSITIVE_INFINITY;
+            double hiLat = Double.NEGATIVE_INFINITY;
+            double loLng = Double.POSITIVE_INFINITY;
+            double hiLng = Double.NEGATIVE_INFINITY;
+            for (int i = start; i < end; i++) {
+                loLat = Math.min(loLat, minLat[i]);
+                hiLat = Math.max(hiLat, maxLat[i]);
+                loLng = Math.min(loLng, minLng[i]);
+                hiLng = Math.max(hiLng, maxLng[i]);
+            }
+            level.minLat[node] = loLat;
+            level.maxLat[node] = hiLat;
+            level.minLng[node] = loLng;
+            level.maxLng[node] = hiLng;
+            level.start[node] = start;
+            level.end[node] = end;
+        }
+        return level;
+    }
+
+    // Sort-Tile-Recursive: sort by longitude into vertical slices, then by latitude inside each slice
+    private static Integer[] strOrder(double[] minLat, double[] maxLat, double[] minLng, double[] maxLng) {
+        int n = minLat.length;
+        final double[] centerLat = new double[n];
+        final double[] centerLng = new double[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            centerLat[i] = (minLat[i] + maxLat[i]) / 2;
+            centerLng[i] = (minLng[i] + maxLng[i]) / 2;
+            order[i] = i;
+        }
+
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(centerLng[a], centerLng[b]);
+            }
+        });
+
+        int pages = (n + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int slices = (int) Math.ceil(Math.sqrt(pages));
+        int sliceSize = slices * NODE_CAPACITY;
+        Comparator<Integer> byLat = new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Double.compare(centerLat[a], centerLat[b]);
+            }
+        };
+        for (int start = 0; start < n; start += sliceSize) {
+            Arrays.sort(order, start, Math.min(n, start + sliceSize), byLat);
+        }
+        return order;
+    }
+
+    private static double[] permute(double[] values, Integer[] order) {
+        double[] result = new double[values.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = values[order[i]];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.geofence;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per tracker containment decisions with a "safe radius" short-circuit.
+ *
+ * After a full check the distance from the pet to the closest fence edge is
+ * kept with the decision. A pet can't cross a boundary without moving at least
+ * that far, so later updates that stay inside the radius reuse the decision
+ * without running any polygon test. Trackers jitter by under a meter
+ * constantly, so most updates end up as hits.
+ *
+ * On a miss the engine's coarse monitor is asked first. A pet inside a
+ * fence's inner circle or outside every outer circle gets its decision (and
+ * safe radius) from the circles alone; only positions near a boundary run the
+ * polygon test and the nearest-edge search.
+ *
+ * Hits, misses and coarse decisions are counted per tracker and in total;
+ * the totals can be read from any thread.
+ *
+ * Not thread safe; TrackerPipeline only uses it from its worker thread.
+ */
+public class TrackerContainment {
+
+    // Keep a margin for the flat earth distance approximation
+    private static final double SAFETY_FACTOR = 0.9;
+
+    private final GeofenceEngine engine;
+    private final Map<String, TrackerState> states = new HashMap<>();
+    // Scratch for the coarse monitor's margin
+    private final double[] margin = new double[1];
+    // Decisions made here test no fence, GeofenceEngine records the ones it makes
+    private final Metrics.Histogram fencesTested = GeofenceEngine.fencesTestedHistogram();
+    private final AtomicLong hitTotal = new AtomicLong();
+    private final AtomicLong missTotal = new AtomicLong();
+    private final AtomicLong coarseTotal = new AtomicLong();
+
+    private static class TrackerState {
+        double lat;
+        double lng;
+        double safeRadius;
+        boolean inside;
+        long engineVersion = -1;
+
+        long hits;
+        long misses;
+        long coarseDecisions;
+    }
+
+    public TrackerContainment(GeofenceEngine engine) {
+        this.engine = engine;
+    }
+
+    public boolean isInside(String trackerID, double lat, double lng) {
+        // Read the version first, a fence change part way through only costs a later miss
+        long version = engine.getVersion();
+        TrackerState state = stateFor(trackerID);
+        if (isHit(state, version, lat, lng)) {
+            state.hits++;
+            hitTotal.incrementAndGet();
+            fencesTested.record(0);
+            return state.inside;
+        }
+
+        state.misses++;
+        missTotal.incrementAndGet();
+        if (decideCoarse(state, version, lat, lng)) {
+            fencesTested.record(0);
+            return state.inside;
+        }
+        remember(state, version, lat, lng, engine.contains(lat, lng));
+        return state.inside;
+    }
+
+    /**
+     * Same as isInside for many trackers at once. Trackers that miss the cache
+     * are checked together with GeofenceEngine.containsAll.
+     */
+    public void isInsideAll(String[] trackerIDs, double[] lats, double[] lngs, boolean[] out) {
+        long version = engine.getVersion();
+        int[] missed = new int[trackerIDs.length];
+        int missCount = 0;
+
+        for (int i = 0; i < trackerIDs.length; i++) {
+            TrackerState state = stateFor(trackerIDs[i]);
+            if (isHit(state, version, lats[i], lngs[i])) {
+                state.hits++;
+                hitTotal.incrementAndGet();
+                fencesTested.record(0);
+                out[i] = state.inside;
+            } else {
+                state.misses++;
+                missTotal.incrementAndGet();
+                if (decideCoarse(state, version, lats[i], lngs[i])) {
+                    fencesTested.record(0);
+                    out[i] = state.inside;
+                } else {
+                    missed[missCount++] = i;
+                }
+            }
+        }
+
+        if (missCount == 0) {
+            return;
+        }
+
+        double[] missLats = new double[missCount];
+        double[] missLngs = new double[missCount];
+        for (int j = 0; j < missCount; j++) {
+            missLats[j] = lats[missed[j]];
+            missLngs[j] = lngs[missed[j]];
+        }
+        BitSet inside = engine.containsAll(missLats, missLngs);
+
+        for (int j = 0; j < missCount; j++) {
+            int i = missed[j];
+            remember(states.get(trackerIDs[i]), version, lats[i], lngs[i], inside.get(j));
+            out[i] = inside.get(j);
+        }
+    }
+
+    private TrackerState stateFor(String trackerID) {
+        TrackerState state = states.get(trackerID);
+        if (state == null) {
+            state = new TrackerState();
+            states.put(trackerID, state);
+        }
+        return state;
+    }
+
+    // The last decision holds if the fences haven't changed and the pet hasn't moved far enough
+    private boolean isHit(TrackerState state, long version, double lat, double lng) {
+        return state.engineVersion == version
+                && GeoMath.distanceMeters(state.lat, state.lng, lat, lng) < state.safeRadius;
+    }
+
+    // True if the circles alone decided, the state then holds the decision
+    private boolean decideCoarse(TrackerState state, long version, double lat, double lng) {
+        int coarse = engine.classifyCoarse(lat, lng, margin);
+        if (coarse == CoarseFenceMonitor.NEAR) {
+            return false;
+        }
+        state.coarseDecisions++;
+        coarseTotal.incrementAndGet();
+        state.inside = coarse == CoarseFenceMonitor.INSIDE;
+        state.safeRadius = margin[0] * SAFETY_FACTOR;
+        state.lat = lat;
+        state.lng = lng;
+        state.engineVersion = version;
+        return true;
+    }
+
+    private void remember(TrackerState state, long version, double lat, double lng, boolean inside) {
+        state.inside = inside;
+        state.safeRadius = engine.distanceToNearestBoundary(lat, lng) * SAFETY_FACTOR;
+        state.lat = lat;
+        state.lng = lng;
+        state.engineVersion = version;
+    }
+
+    // Distance the tracker can move from its last full check before it gets re-evaluated
+    public double getSafeRadius(String trackerID) {
+        TrackerState state = states.get(trackerID);
+        return state == null ? 0 : state.safeRadius;
+    }
+
+    // How much of the safe radius is left at this position, 0 if the tracker is unknown or past it
+    public double getRemainingRadius(String trackerID, double lat, double lng) {
+        TrackerState state = states.get(trackerID);
+        if (state == null) {
+            return 0;
+        }
+        return Math.max(0, state.safeRadius - GeoMath.distanceMeters(state.lat, state.lng, lat, lng));
+    }
+
+    public long getHits(String trackerID) {
+        TrackerState state = states.get(trackerID);
+        return state == null ? 0 : state.hits;
+    }
+
+    public long getMisses(String trackerID) {
+        TrackerState state = states.get(trackerID);
+        return state == null ? 0 : state.misses;
+    }
+
+    // Misses the coarse monitor decided without a polygon test
+    public long getCoarseDecisions(String trackerID) {
+        TrackerState state = states.get(trackerID);
+        return state == null ? 0 : state.coarseDecisions;
+    }
+
+    // Updates of every tracker answered from the safe radius
+    public long getHitCount() {
+        return hitTotal.get();
+    }
+
+    public long getMissCount() {
+        return missTotal.get();
+    }
+
+    public long getCoarseDecisionCount() {
+        return coarseTotal.get();
+    }
+
+    public void forget(String trackerID) {
+        states.remove(trackerID);
+    }
+}
@@ -0,0 +1,410 @@
+package com.example.geofence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moves tracker updates off the main thread.
+ *
+ * Firebase delivers every Trackers/{id} change on the main thread; offer()
+ * only stores the raw update. Parsing, containment and alert decisions run on
+ * the worker executor, and only the final marker positions are posted back to
+ * the main executor.
+ *
+ * Updates are coalesced per tracker: if a tracker reports faster than the
+ * worker keeps up, only its newest position is processed. Trackers that are
+ * outside or close to a fence edge skip coalescing and go through a FIFO
+ * priority lane that is drained first, so an exit is never dropped or delayed
+ * behind other trackers. Exit alerts are raised straight from the worker.
+ *
+ * With an AdaptiveSampler, coalesced trackers far inside a safe area are only
+ * checked as often as the sampler allows. Their newest update waits in a
+ * deferred map on the worker and a wakeup is scheduled for when the earliest
+ * one is due.
+ *
+ * A Recorder, if set, is handed every position that was checked, on the
+ * worker.
+ *
+ * Samples carry the time their update was offered, so the time to the marker
+ * moving can be measured, and each batch's containment check is timed into
+ * Metrics.
+ */
+public class TrackerPipeline<T> {
+
+    // Trackers closer than this to an edge get every update checked
+    private static final double PRIORITY_RADIUS_METERS = 15;
+    // Upper bound on how many coalesced trackers are checked in one batch
+    private static final int MAX_BATCH = 512;
+
+    public interface Parser<T> {
+        // Fills in latitude/longitude, returns false if the update should be ignored
+        boolean parse(T raw, TrackerSample out);
+    }
+
+    public interface Listener {
+        // Called on the worker thread as soon as a pet is found outside every safe area
+        void onExit(String trackerID, double lat, double lng);
+
+        // Called on the worker thread when a pet that had left is back inside
+        void onReturn(String trackerID);
+
+        // Called on the main thread with the newest position of every tracker that moved
+        void onPositions(List<TrackerSample> samples);
+    }
+
+    public interface Recorder {
+        // Called on the worker thread for every position that was checked, timeMillis is its checkedMillis
+        void onChecked(String trackerID, long timeMillis, double lat, double lng, boolean inside);
+    }
+
+    private static class Pending<T> {
+        final String trackerID;
+        final T raw;
+        final long receivedNanos;
+
+        Pending(String trackerID, T raw, long receivedNanos) {
+            this.trackerID = trackerID;
+            this.raw = raw;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+
+    private final GeofenceEngine engine;
+    private final Parser<T> parser;
+    private final Executor worker;
+    private final Executor mainThread;
+    private final Listener listener;
+    private volatile Recorder recorder;
+
+    // Newest raw update per tracker, and the order trackers became dirty in
+    private final Map<String, T> latest = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<String> dirty = new ConcurrentLinkedQueue<>();
+    // When the newest coalesced or deferred update of each tracker was offered
+    private final Map<String, Long> receivedAt = new ConcurrentHashMap<>();
+    // Every update from these trackers is processed in order
+    private final ConcurrentLinkedQueue<Pending<T>> priority = new ConcurrentLinkedQueue<>();
+    private final Set<String> priorityTrackers = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+    // Only touched on the worker thread
+    private final TrackerContainment containment;
+    private final Set<String> alerted = new HashSet<>();
+
+    // Null checks every update
+    private final AdaptiveSampler sampler;
+    // Newest update of trackers that aren't due yet, and when a wakeup is already set for
+    private final Map<String, T> deferred = new HashMap<>();
+    private long wakeupAt = Long.MAX_VALUE;
+
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong deferredCount = new AtomicLong();
+    private final Metrics.Histogram evaluationMicros = evaluationHistogram();
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drainQueues();
+        }
+    };
+
+    private final Runnable wakeup = new Runnable() {
+        @Override
+        public void run() {
+            wakeupAt = Long.MAX_VALUE;
+            scheduleDrain();
+        }
+    };
+
+    static Metrics.Histogram evaluationHistogram() {
+        return Metrics.getDefault().histogram("containment_batch_micros",
+                "Time to check one batch of tracker positions against the safe areas", Metrics.LATENCY_MICROS);
+    }
+
+    public TrackerPipeline(GeofenceEngine engine, Parser<T> parser, Executor worker, Executor mainThread,
+                           Listener listener) {
+        this(engine, parser, worker, mainThread, listener, null);
+    }
+
+    public TrackerPipeline(GeofenceEngine engine, Parser<T> parser, Executor worker, Executor mainThread,
+                           Listener listener, AdaptiveSampler sampler) {
+        this.engine = engine;
+        this.sampler = sampler;
+        this.parser = parser;
+        this.worker = worker;
+        this.mainThread = mainThread;
+        this.listener = listener;
+        this.containment = new TrackerContainment(engine);
+    }
+
+    // Called from the Firebase callback, doesn't do any work itself
+    public void offer(String trackerID, T raw) {
+        long now = System.nanoTime();
+        if (priorityTrackers.contains(trackerID)) {
+            // Drop anything older still waiting in the coalesced lane so updates stay in order
+            if (latest.remove(trackerID) != null) {
+                coalesced.incrementAndGet();
+            }
+            priority.add(new Pending<>(trackerID, raw, now));
+        } else {
+            // Set first, so the worker finds it once it sees the update
+            receivedAt.put(trackerID, now);
+            if (latest.put(trackerID, raw) == null) {
+                dirty.add(trackerID);
+            } else {
+                // An older update was waiting and has been replaced
+                coalesced.incrementAndGet();
+            }
+        }
+        scheduleDrain();
+    }
+
+    /**
+     * Drops everything kept for a tracker whose pet was removed, so trackers
+     * coming and going don't pile up state and a tracker added back later
+     * starts out like a new one. Called after its listener is detached; the
+     * work runs on the worker behind anything already queued.
+     */
+    public void forget(final String trackerID) {
+        worker.execute(new Runnable() {
+            @Override
+            public void run() {
+                latest.remove(trackerID);
+                receivedAt.remove(trackerID);
+                priorityTrackers.remove(trackerID);
+                Iterator<Pending<T>> iterator = priority.iterator();
+                while (iterator.hasNext()) {
+                    if (iterator.next().trackerID.equals(trackerID)) {
+                        iterator.remove();
+                    }
+                }
+                alerted.remove(trackerID);
+                containment.forget(trackerID);
+                deferred.remove(trackerID);
+                if (sampler != null) {
+                    sampler.forget(trackerID);
+                }
+            }
+        });
+    }
+
+    public void setRecorder(Recorder recorder) {
+        this.recorder = recorder;
+    }
+
+    // Updates that were processed
+    public long getProcessedCount() {
+        return processed.get();
+    }
+
+    // Updates that were replaced by a newer one before they were processed
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    // Updates the sampler held back because their tracker wasn't due
+    public long getDeferredCount() {
+        return deferredCount.get();
+    }
+
+    // Checks answered from a tracker's safe radius without asking the engine
+    public long getCacheHitCount() {
+        return containment.getHitCount();
+    }
+
+    public long getCacheMissCount() {
+        return containment.getMissCount();
+    }
+
+    // Cache misses the coarse circles decided without a polygon test
+    public long getCoarseDecisionCount() {
+        return containment.getCoarseDecisionCount();
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            worker.execute(drain);
+        }
+    }
+
+    private void drainQueues() {
+        while (true) {
+            drainPriority();
+
+            List<TrackerSample> samples = new ArrayList<>();
+            long now = sampler != null ? sampler.nowMillis() : 0;
+            releaseDue(samples, now);
+            String trackerID;
+            while (samples.size() < MAX_BATCH && (trackerID = dirty.poll()) != null) {
+                T raw = latest.remove(trackerID);
+                if (raw == null) {
+                    continue;
+                }
+                if (sampler != null && !sampler.isDue(trackerID, now)) {
+                    // Far from every edge, keep the newest update for when the tracker is due
+                    deferredCount.incrementAndGet();
+                    if (deferred.put(trackerID, raw) != null) {
+                        coalesced.incrementAndGet();
+                    }
+                    continue;
+                }
+                // A newer update than the deferred one
+                if (deferred.remove(trackerID) != null) {
+                    coalesced.incrementAndGet();
+                }
+                add(trackerID, raw, samples);
+            }
+            scheduleWakeup(now);
+
+            if (!samples.isEmpty()) {
+                evaluate(samples);
+                postPositions(samples);
+                continue;
+            }
+
+            // Nothing left; make sure nothing slipped in before giving up the worker
+            drainScheduled.set(false);
+            if ((priority.isEmpty() && dirty.isEmpty()) || !drainScheduled.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    private void drainPriority() {
+        Pending<T> pending;
+        List<TrackerSample> samples = new ArrayList<>();
+        while ((pending = priority.poll()) != null) {
+            // Anything still deferred is older than this
+            if (deferred.remove(pending.trackerID) != null) {
+                coalesced.incrementAndGet();
+            }
+            TrackerSample sample = new TrackerSample();
+            if (parser.parse(pending.raw, sample)) {
+                sample.trackerID = pending.trackerID;
+                sample.receivedNanos = pending.receivedNanos;
+                samples.add(sample);
+                evaluate(Collections.singletonList(sample));
+            }
+        }
+        if (!samples.isEmpty()) {
+            postPositions(samples);
+        }
+    }
+
+    private void add(String trackerID, T raw, List<TrackerSample> samples) {
+        TrackerSample sample = new TrackerSample();
+        if (parser.parse(raw, sample)) {
+            sample.trackerID = trackerID;
+            // The newest offer's time, which is this update's unless a newer one is already waiting
+            Long received = receivedAt.get(trackerID);
+            sample.receivedNanos = received == null ? 0 : received;
+            samples.add(sample);
+        }
+    }
+
+    // Moves deferred updates whose tracker is due into samples
+    private void releaseDue(List<TrackerSample> samples, long now) {
+        if (deferred.isEmpty()) {
+            return;
+        }
+        Iterator<Map.Entry<String, T>> iterator = deferred.entrySet().iterator();
+        while (iterator.hasNext() && samples.size() < MAX_BATCH) {
+            Map.Entry<String, T> entry = iterator.next();
+            if (latest.containsKey(entry.getKey())) {
+                // A newer update is waiting in dirty and replaces this one
+                coalesced.incrementAndGet();
+                iterator.remove();
+            } else if (sampler.isDue(entry.getKey(), now)) {
+                add(entry.getKey(), entry.getValue(), samples);
+                iterator.remove();
+            }
+        }
+    }
+
+    // One wakeup for the earliest deferred tracker, unless an earlier one is already set
+    private void scheduleWakeup(long now) {
+        if (deferred.isEmpty()) {
+            return;
+        }
+        long earliest = Long.MAX_VALUE;
+        for (String trackerID : deferred.keySet()) {
+            earliest = Math.min(earliest, sampler.getDueAt(trackerID, now));
+        }
+        if (earliest < wakeupAt) {
+            wakeupAt = earliest;
+            sampler.schedule(wakeup, earliest - now);
+        }
+    }
+
+    private void evaluate(List<TrackerSample> samples) {
+        int n = samples.size();
+        String[] ids = new String[n];
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = samples.get(i).trackerID;
+            lats[i] = samples.get(i).latitude;
+            lngs[i] = samples.get(i).longitude;
+        }
+
+        boolean[] inside = new boolean[n];
+        boolean noFences = engine.size() == 0;
+        if (!noFences) {
+            long start = System.nanoTime();
+            containment.isInsideAll(ids, lats, lngs, inside);
+            evaluationMicros.record((System.nanoTime() - start) / 1000);
+        }
+
+        Recorder currentRecorder = recorder;
+        long checkedMillis = System.currentTimeMillis();
+        for (int i = 0; i < n; i++) {
+            processed.incrementAndGet();
+            samples.get(i).checkedMillis = checkedMillis;
+            if (currentRecorder != null) {
+                // Without any safe area no pet counts as outside
+                currentRecorder.onChecked(ids[i], checkedMillis, lats[i], lngs[i], noFences || inside[i]);
+            }
+            if (noFences) {
+                continue;
+            }
+
+            // Only send an alert when the pet leaves, not on every update outside
+            if (!inside[i] && alerted.add(ids[i])) {
+                listener.onExit(ids[i], lats[i], lngs[i]);
+            } else if (inside[i] && alerted.remove(ids[i])) {
+                listener.onReturn(ids[i]);
+            }
+
+            // Pets outside or near an edge stop being coalesced
+            double remaining = inside[i] ? containment.getRemainingRadius(ids[i], lats[i], lngs[i]) : 0;
+            if (!inside[i] || remaining < PRIORITY_RADIUS_METERS) {
+                priorityTrackers.add(ids[i]);
+            } else {
+                priorityTrackers.remove(ids[i]);
+            }
+            if (sampler != null) {
+                sampler.onEvaluated(ids[i], remaining, sampler.nowMillis());
+            }
+        }
+    }
+
+    private void postPositions(final List<TrackerSample> samples) {
+        mainThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                listener.onPositions(samples);
+            }
+        });
+    }
+}
@@ -0,0 +1,41 @@
+package com.example.geofence;
+
+/**
+ * One position reported by a tracker under Trackers/{id}.
+ */
+public class TrackerSample {
+
+    public String trackerID;
+    public double latitude;
+    public double longitude;
+    // System.nanoTime() when the update came in from Firebase, 0 if unknown
+    public long receivedNanos;
+    // System.currentTimeMillis() when it was checked, the time PositionHistory keeps it under
+    public long checkedMillis;
+
+    public TrackerSample() {
+    }
+
+    public TrackerSample(String trackerID, double latitude, double longitude) {
+        this.trackerID = trackerID;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    /**
+     * Reads the raw isActive/latitude/longitude values of a tracker node into
+     * out. Returns false if the tracker is inactive or the node is incomplete,
+     * in which case the update should be ignored.
+     */
+    public static boolean read(Object isActive, Object latitude, Object longitude, TrackerSample out) {
+        if (!Boolean.TRUE.equals(isActive)) {
+            return false;
+        }
+        if (!(latitude instanceof Number) || !(longitude instanceof Number)) {
+            return false;
+        }
+        out.latitude = ((Number) latitude).doubleValue();
+        out.longitude = ((Number) longitude).doubleValue();
+        return true;
+    }
+}
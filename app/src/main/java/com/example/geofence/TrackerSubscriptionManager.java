@@ -0,0 +1,91 @@
+package com.example.geofence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps exactly one Trackers/{id} listener per tracker that some pet uses.
+ *
+ * setDesired() takes the tracker IDs of every pet (a tracker shared by two
+ * pets shows up twice and is reference counted) and attaches or detaches only
+ * the difference. stop() detaches everything and start() attaches the desired
+ * set again, so the activity can tie this to onStart/onStop.
+ *
+ * Main thread only.
+ */
+public class TrackerSubscriptionManager<H> {
+
+    public interface Source<H> {
+        // Starts listening to the tracker and returns whatever is needed to stop again
+        H attach(String trackerID);
+
+        void detach(String trackerID, H handle);
+    }
+
+    private final Source<H> source;
+    private final Map<String, Integer> desired = new HashMap<>();
+    private final Map<String, H> active = new HashMap<>();
+    private boolean started = false;
+
+    public TrackerSubscriptionManager(Source<H> source) {
+        this.source = source;
+    }
+
+    public void setDesired(Collection<String> trackerIDs) {
+        desired.clear();
+        for (String trackerID : trackerIDs) {
+            if (trackerID == null || trackerID.isEmpty()) {
+                continue;
+            }
+            Integer count = desired.get(trackerID);
+            desired.put(trackerID, count == null ? 1 : count + 1);
+        }
+        if (started) {
+            sync();
+        }
+    }
+
+    public void start() {
+        started = true;
+        sync();
+    }
+
+    public void stop() {
+        started = false;
+        for (Map.Entry<String, H> entry : active.entrySet()) {
+            source.detach(entry.getKey(), entry.getValue());
+        }
+        active.clear();
+    }
+
+    public int getActiveListenerCount() {
+        return active.size();
+    }
+
+    // Number of pets using the tracker
+    public int getReferenceCount(String trackerID) {
+        Integer count = desired.get(trackerID);
+        return count == null ? 0 : count;
+    }
+
+    private void sync() {
+        List<String> stale = new ArrayList<>();
+        for (String trackerID : active.keySet()) {
+            if (!desired.containsKey(trackerID)) {
+                stale.add(trackerID);
+            }
+        }
+        for (String trackerID : stale) {
+            source.detach(trackerID, active.remove(trackerID));
+        }
+
+        for (String trackerID : desired.keySet()) {
+            if (!active.containsKey(trackerID)) {
+                active.put(trackerID, source.attach(trackerID));
+            }
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.example.geofence;
+
+import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Polyline;
+import com.google.android.gms.maps.model.PolylineOptions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Each pet's recent movement drawn as a polyline under its marker.
+ *
+ * Every pet has a TrailPyramid. The level drawn is picked from the zoom when
+ * the camera goes idle, and a polyline only gets new points when its level
+ * changed or the pet moved. New positions are added to the pyramid
+ * right away, and the lines are redrawn at most every REDRAW_INTERVAL_MS.
+ *
+ * The earlier part of a trail comes from PositionHistory, read off the main
+ * thread. Positions that arrive while it loads are held and the ones the
+ * history didn't have yet are added after it, see setLoaded().
+ *
+ * Main thread only.
+ */
+public class TrailLayer {
+
+    private static final long REDRAW_INTERVAL_MS = 1000;
+    // A polyline with more points than this is redrawn from a coarser level
+    private static final int MAX_POINTS = 2000;
+
+    private static class Trail {
+        TrailPyramid pyramid = new TrailPyramid();
+        Polyline polyline;
+        // Level and the number of positions fed in when last drawn
+        int level = -1;
+        int drawnInputs = -1;
+        // Positions received while the history loads, null once it has
+        List<Position> pending;
+    }
+
+    private static class Position {
+        final long timeMillis;
+        final double lat;
+        final double lng;
+
+        Position(long timeMillis, double lat, double lng) {
+            this.timeMillis = timeMillis;
+            this.lat = lat;
+            this.lng = lng;
+        }
+    }
+
+    private final GoogleMap map;
+    private final Map<String, Trail> trails = new HashMap<>();
+    private final Set<String> changed = new HashSet<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private float zoom;
+    private boolean redrawScheduled = false;
+
+    private final Runnable redraw = new Runnable() {
+        @Override
+        public void run() {
+            redrawScheduled = false;
+            for (String petName : changed) {
+                draw(trails.get(petName));
+            }
+            changed.clear();
+        }
+    };
+
+    public TrailLayer(GoogleMap map) {
+        this.map = map;
+        this.zoom = map.getCameraPosition().zoom;
+    }
+
+    public boolean hasTrail(String petName) {
+        return trails.containsKey(petName);
+    }
+
+    // timeMillis is the time the position is saved under in PositionHistory
+    public void addPosition(String petName, long timeMillis, double lat, double lng) {
+        Trail trail = trail(petName);
+        if (trail.pending != null) {
+            trail.pending.add(new Position(timeMillis, lat, lng));
+            return;
+        }
+        trail.pyramid.add(lat, lng);
+        changed.add(petName);
+        scheduleRedraw();
+    }
+
+    // Positions for the pet are held until setLoaded() hands over the pyramid built from its history
+    public void startLoading(String petName) {
+        Trail trail = trail(petName);
+        if (trail.pending == null) {
+            trail.pending = new ArrayList<>();
+        }
+    }
+
+    /**
+     * The history is read while the service keeps appending to it, so the
+     * first held positions may already be in the pyramid. Only the ones
+     * newer than loadedUntilMillis, the time of the newest position read,
+     * are added; adding the others again would draw the trail going back
+     * over itself.
+     */
+    public void setLoaded(String petName, TrailPyramid pyramid, long loadedUntilMillis) {
+        Trail trail = trails.get(petName);
+        // Removed while it was loading
+        if (trail == null || trail.pending == null) {
+            return;
+        }
+        for (Position position : trail.pending) {
+            if (position.timeMillis > loadedUntilMillis) {
+                pyramid.add(position.lat, position.lng);
+            }
+        }
+        trail.pending = null;
+        trail.pyramid = pyramid;
+        trail.level = -1;
+        changed.add(petName);
+        scheduleRedraw();
+    }
+
+    // Removes the trails of pets that are no longer in the list
+    public void retainPets(Collection<String> petNames) {
+        Set<String> keep = new HashSet<>(petNames);
+        Iterator<Map.Entry<String, Trail>> iterator = trails.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Trail> entry = iterator.next();
+            if (!keep.contains(entry.getKey())) {
+                remove(entry.getValue());
+                changed.remove(entry.getKey());
+                iterator.remove();
+            }
+        }
+    }
+
+    // The zoom may have changed, so every trail may need another level
+    public void onCameraIdle() {
+        zoom = map.getCameraPosition().zoom;
+        changed.addAll(trails.keySet());
+        handler.removeCallbacks(redraw);
+        redraw.run();
+    }
+
+    // Removes every trail, they are loaded again the next time the pets are shown
+    public void clear() {
+        for (Trail trail : trails.values()) {
+            remove(trail);
+        }
+        trails.clear();
+        changed.clear();
+        handler.removeCallbacks(redraw);
+        redrawScheduled = false;
+    }
+
+    private Trail trail(String petName) {
+        Trail trail = trails.get(petName);
+        if (trail == null) {
+            trail = new Trail();
+            trails.put(petName, trail);
+        }
+        return trail;
+    }
+
+    private void draw(Trail trail) {
+        TrailPyramid pyramid = trail.pyramid;
+        if (pyramid.size(0) < 2) {
+            return;
+        }
+        double lat = pyramid.getLatitude(0, pyramid.size(0) - 1);
+        int level = pyramid.levelFor(zoom, lat, MAX_POINTS);
+        if (level == trail.level && pyramid.getInputCount() == trail.drawnInputs && trail.polyline != null) {
+            return;
+        }
+
+        int size = pyramid.size(level);
+        List<LatLng> points = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            points.add(new LatLng(pyramid.getLatitude(level, i), pyramid.getLongitude(level, i)));
+        }
+        if (trail.polyline == null) {
+            trail.polyline = map.addPolyline(new PolylineOptions()
+                    .color(Color.argb(180, 33, 150, 243))
+                    .width(6)
+                    .zIndex(1));
+        }
+        // Only the last point of a level moves, but the Maps SDK takes the whole list
+        trail.polyline.setPoints(points);
+        trail.level = level;
+        trail.drawnInputs = pyramid.getInputCount();
+    }
+
+    private void remove(Trail trail) {
+        if (trail.polyline != null) {
+            trail.polyline.remove();
+            trail.polyline = null;
+        }
+    }
+
+    private void scheduleRedraw() {
+        if (!redrawScheduled) {
+            redrawScheduled = true;
+            handler.postDelayed(redraw, REDRAW_INTERVAL_MS);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.geofence;
+
+/**
+ * One pet's trail at several levels of detail, for drawing at any zoom.
+ *
+ * A day of positions is tens of thousands of points, far more than a polyline
+ * can redraw smoothly, and at most zooms almost all of them land on the same
+ * pixels. Every level is a PathSimplifier with its own tolerance, fed each
+ * position as it arrives, so the pyramid grows with the trail and is never
+ * rebuilt. finish() is never called: a level is its kept vertices plus the
+ * newest position it took, so the line ends at the marker or within the
+ * level's tolerance of it. Positions closer to the previous one than the
+ * tolerance don't reach a level at all, which is what keeps a resting pet's
+ * GPS jitter out of the coarse levels.
+ *
+ * levelFor() picks the coarsest level whose tolerance is still under one dp
+ * at the camera's zoom, so the simplification can't be seen.
+ */
+public class TrailPyramid {
+
+    // Tolerance in meters of each level, finest first
+    static final double[] TOLERANCES_METERS = {1, 3, 10, 30, 100, 300};
+    // Meters per dp at zoom 0 on the equator, 256 dp world width
+    private static final double METERS_PER_DP_ZOOM_0 = 156543.03392;
+
+    private final PathSimplifier[] levels = new PathSimplifier[TOLERANCES_METERS.length];
+    private int inputCount = 0;
+
+    public TrailPyramid() {
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new PathSimplifier(TOLERANCES_METERS[i]);
+        }
+    }
+
+    public void add(double lat, double lng) {
+        inputCount++;
+        for (PathSimplifier level : levels) {
+            level.add(lat, lng);
+        }
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    public int size(int level) {
+        return levels[level].size();
+    }
+
+    public double getLatitude(int level, int i) {
+        return levels[level].getLatitude(i);
+    }
+
+    public double getLongitude(int level, int i) {
+        return levels[level].getLongitude(i);
+    }
+
+    // Positions fed in
+    public int getInputCount() {
+        return inputCount;
+    }
+
+    /**
+     * Coarsest level that is within a dp of the trail at this zoom, moved
+     * further down if that level still has more than maxPoints points.
+     */
+    public int levelFor(float zoom, double lat, int maxPoints) {
+        double metersPerDp = metersPerDp(zoom, lat);
+        int level = 0;
+        while (level + 1 < levels.length && TOLERANCES_METERS[level + 1] <= metersPerDp) {
+            level++;
+        }
+        while (level + 1 < levels.length && size(level) > maxPoints) {
+            level++;
+        }
+        return level;
+    }
+
+    static double metersPerDp(float zoom, double lat) {
+        return METERS_PER_DP_ZOOM_0 * Math.cos(Math.toRadians(lat)) / Math.pow(2, zoom);
+    }
+}
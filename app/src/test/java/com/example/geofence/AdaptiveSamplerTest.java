@@ -0,0 +1,343 @@
+package com.example.geofence;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class AdaptiveSamplerTest {
+
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> queue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void runAll() {
+            while (!queue.isEmpty()) {
+                queue.remove(0).run();
+            }
+        }
+    }
+
+    // Time only moves when the test says so, scheduled tasks run as it passes them
+    private static class ManualTimer implements AdaptiveSampler.Timer {
+        long now = 0;
+        final List<Runnable> tasks = new ArrayList<>();
+        final List<Long> runAt = new ArrayList<>();
+
+        @Override
+        public long nowMillis() {
+            return now;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            tasks.add(task);
+            runAt.add(now + delayMillis);
+        }
+
+        void advance(long millis) {
+            now += millis;
+            for (int i = 0; i < tasks.size(); i++) {
+                if (runAt.get(i) <= now) {
+                    runAt.remove(i);
+                    tasks.remove(i--).run();
+                }
+            }
+        }
+    }
+
+    private static final TrackerPipeline.Parser<double[]> PARSER = new TrackerPipeline.Parser<double[]>() {
+        @Override
+        public boolean parse(double[] raw, TrackerSample out) {
+            out.latitude = raw[0];
+            out.longitude = raw[1];
+            return true;
+        }
+    };
+
+    private final List<TrackerSample> positions = new ArrayList<>();
+    private final TrackerPipeline.Listener listener = new TrackerPipeline.Listener() {
+        @Override
+        public void onExit(String trackerID, double lat, double lng) {
+        }
+
+        @Override
+        public void onReturn(String trackerID) {
+        }
+
+        @Override
+        public void onPositions(List<TrackerSample> samples) {
+            positions.addAll(samples);
+        }
+    };
+
+    private ManualExecutor worker;
+    private ManualTimer timer;
+    private AdaptiveSampler sampler;
+    private TrackerPipeline<double[]> pipeline;
+
+    @Before
+    public void setUp() {
+        GeofenceEngine engine = new GeofenceEngine();
+        // About 450 m across, the middle is more than 200 m from every edge
+        engine.put("park", new CompiledFence(
+                new double[]{30.280, 30.280, 30.284, 30.284},
+                new double[]{-97.740, -97.735, -97.735, -97.740}));
+        worker = new ManualExecutor();
+        timer = new ManualTimer();
+        sampler = new AdaptiveSampler(timer, AdaptiveSampler.PowerProfile.BALANCED);
+        pipeline = new TrackerPipeline<>(engine, PARSER, worker, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        }, listener, sampler);
+    }
+
+    @Test
+    public void interval_scalesWithSafeRadiusUpToProfileCap() {
+        assertEquals(5000, sampler.intervalMillis(50));
+        assertEquals(10000, sampler.intervalMillis(500));
+        assertEquals(0, sampler.intervalMillis(0));
+
+        sampler.setProfile(AdaptiveSampler.PowerProfile.BATTERY_SAVER);
+        assertEquals(10000, sampler.intervalMillis(40));
+        assertEquals(30000, sampler.intervalMillis(500));
+
+        sampler.setProfile(AdaptiveSampler.PowerProfile.REAL_TIME);
+        assertEquals(0, sampler.intervalMillis(500));
+    }
+
+    @Test
+    public void forName_unknownIsBalanced() {
+        assertSame(AdaptiveSampler.PowerProfile.BATTERY_SAVER, AdaptiveSampler.PowerProfile.forName("battery_saver"));
+        assertSame(AdaptiveSampler.PowerProfile.REAL_TIME, AdaptiveSampler.PowerProfile.forName("real_time"));
+        assertSame(AdaptiveSampler.PowerProfile.BALANCED, AdaptiveSampler.PowerProfile.forName(null));
+        assertSame(AdaptiveSampler.PowerProfile.BALANCED, AdaptiveSampler.PowerProfile.forName("turbo"));
+    }
+
+    @Test
+    public void petFarInside_newestUpdateCheckedWhenDue() {
+        pipeline.offer("t1", new double[]{30.2820, -97.7375});
+        worker.runAll();
+        assertEquals(1, pipeline.getProcessedCount());
+
+        timer.advance(1000);
+        pipeline.offer("t1", new double[]{30.2821, -97.7375});
+        worker.runAll();
+        timer.advance(1000);
+        pipeline.offer("t1", new double[]{30.2822, -97.7375});
+        worker.runAll();
+
+        // Both held back, the second replaced the first
+        assertEquals(1, pipeline.getProcessedCount());
+        assertEquals(2, pipeline.getDeferredCount());
+        assertEquals(1, pipeline.getCoalescedCount());
+
+        // Due 10 s after the first check, the wakeup brings the worker back
+        timer.advance(7999);
+        assertTrue(worker.queue.isEmpty());
+        timer.advance(1);
+        worker.runAll();
+        assertEquals(2, pipeline.getProcessedCount());
+        assertEquals(30.2822, positions.get(positions.size() - 1).latitude, 0);
+    }
+
+    @Test
+    public void petNearEdge_neverDeferred() {
+        // About 10 m inside the north edge
+        pipeline.offer("t1", new double[]{30.28391, -97.7375});
+        worker.runAll();
+        pipeline.offer("t1", new double[]{30.28392, -97.7375});
+        worker.runAll();
+        pipeline.offer("t1", new double[]{30.28393, -97.7375});
+        worker.runAll();
+
+        assertEquals(3, pipeline.getProcessedCount());
+        assertEquals(0, pipeline.getDeferredCount());
+    }
+
+    @Test
+    public void realTimeProfile_checksEveryUpdate() {
+        sampler.setProfile(AdaptiveSampler.PowerProfile.REAL_TIME);
+        pipeline.offer("t1", new double[]{30.2820, -97.7375});
+        worker.runAll();
+        pipeline.offer("t1", new double[]{30.2821, -97.7375});
+        worker.runAll();
+
+        assertEquals(2, pipeline.getProcessedCount());
+        assertEquals(0, pipeline.getDeferredCount());
+        assertTrue(timer.tasks.isEmpty());
+    }
+
+    @Test
+    public void forgottenTracker_deferredUpdateDroppedAndDueAgain() {
+        pipeline.offer("t1", new double[]{30.2820, -97.7375});
+        worker.runAll();
+        timer.advance(1000);
+        pipeline.offer("t1", new double[]{30.2821, -97.7375});
+        worker.runAll();
+        assertEquals(1, pipeline.getDeferredCount());
+        assertTrue(sampler.getDueAt("t1", timer.nowMillis()) > timer.nowMillis());
+
+        pipeline.forget("t1");
+        worker.runAll();
+        assertEquals(timer.nowMillis(), sampler.getDueAt("t1", timer.nowMillis()));
+
+        // The wakeup finds nothing left to check
+        timer.advance(9000);
+        worker.runAll();
+        assertEquals(1, pipeline.getProcessedCount());
+
+        // Added back, its first update is checked straight away
+        pipeline.offer("t1", new double[]{30.2822, -97.7375});
+        worker.runAll();
+        assertEquals(2, pipeline.getProcessedCount());
+    }
+
+    // Ten minutes of a tracker reporting once a second in a 100 m yard
+    private static final int TRACE_SECONDS = 600;
+    private static final double YARD_LAT = 30.2820;
+    private static final double YARD_LNG = -97.7375;
+    private static final double YARD_HALF = 50;
+
+    private static final AdaptiveSampler.PowerProfile[] PROFILES = {
+            AdaptiveSampler.PowerProfile.REAL_TIME,
+            AdaptiveSampler.PowerProfile.BALANCED,
+            AdaptiveSampler.PowerProfile.BATTERY_SAVER};
+
+    @Test
+    public void restingPet_fewerChecksOnThriftierProfiles() {
+        // Asleep on the porch, GPS jitter of a couple of meters
+        Random random = new Random(18);
+        double[][] trace = new double[2][TRACE_SECONDS];
+        for (int s = 0; s < TRACE_SECONDS; s++) {
+            setMeters(trace, s, -20 + random.nextGaussian() * 2, 10 + random.nextGaussian() * 2);
+        }
+
+        long[] checks = new long[PROFILES.length];
+        for (int p = 0; p < PROFILES.length; p++) {
+            long[] result = replay(trace, PROFILES[p]);
+            assertEquals(-1, result[1]);
+            checks[p] = result[0];
+        }
+        assertEquals(TRACE_SECONDS, checks[0]);
+        assertTrue(checks[1] < TRACE_SECONDS / 2);
+        assertTrue(checks[2] < checks[1]);
+    }
+
+    @Test
+    public void petLeaving_everyProfileAlertsWithinItsLongestWait() {
+        Random random = new Random(18);
+        // Out at a run, and at 15 m/s, faster than any profile assumes
+        for (double speed : new double[]{8, 15}) {
+            double[][] trace = wanderThenLeave(random, 300, speed);
+            int firstOutside = -1;
+            CompiledFence yard = yard();
+            for (int s = 0; s < TRACE_SECONDS && firstOutside < 0; s++) {
+                if (!yard.contains(trace[0][s], trace[1][s])) {
+                    firstOutside = s;
+                }
+            }
+            assertTrue(firstOutside > 0);
+
+            for (AdaptiveSampler.PowerProfile profile : PROFILES) {
+                long[] result = replay(trace, profile);
+                assertTrue(speed + " m/s exit missed with " + profile.name, result[1] >= 0);
+                assertTrue(result[1] - firstOutside * 1000L <= profile.maxIntervalMillis);
+                if (profile != AdaptiveSampler.PowerProfile.REAL_TIME) {
+                    assertTrue(result[0] < TRACE_SECONDS);
+                }
+            }
+        }
+    }
+
+    // Checks done and the simulated time of the first exit alert, -1 if none
+    private static long[] replay(double[][] trace, AdaptiveSampler.PowerProfile profile) {
+        GeofenceEngine engine = new GeofenceEngine();
+        engine.put("yard", yard());
+        final ManualTimer timer = new ManualTimer();
+        final long[] alertAt = {-1};
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        TrackerPipeline<double[]> pipeline = new TrackerPipeline<>(engine, PARSER, direct, direct,
+                new TrackerPipeline.Listener() {
+            @Override
+            public void onExit(String trackerID, double lat, double lng) {
+                if (alertAt[0] < 0) {
+                    alertAt[0] = timer.now;
+                }
+            }
+
+            @Override
+            public void onReturn(String trackerID) {
+            }
+
+            @Override
+            public void onPositions(List<TrackerSample> samples) {
+            }
+        }, new AdaptiveSampler(timer, profile));
+
+        for (int s = 0; s < TRACE_SECONDS; s++) {
+            if (s > 0) {
+                timer.advance(1000);
+            }
+            pipeline.offer("t1", new double[]{trace[0][s], trace[1][s]});
+        }
+        // Let the last held back update through
+        timer.advance(profile.maxIntervalMillis);
+        return new long[]{pipeline.getProcessedCount(), alertAt[0]};
+    }
+
+    private static CompiledFence yard() {
+        double dLat = YARD_HALF / GeoMath.METERS_PER_DEGREE;
+        double dLng = dLat / Math.cos(Math.toRadians(YARD_LAT));
+        return new CompiledFence(
+                new double[]{YARD_LAT - dLat, YARD_LAT - dLat, YARD_LAT + dLat, YARD_LAT + dLat},
+                new double[]{YARD_LNG - dLng, YARD_LNG + dLng, YARD_LNG + dLng, YARD_LNG - dLng});
+    }
+
+    private static void setMeters(double[][] trace, int second, double north, double east) {
+        trace[0][second] = YARD_LAT + north / GeoMath.METERS_PER_DEGREE;
+        trace[1][second] = YARD_LNG + east / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(YARD_LAT)));
+    }
+
+    // Walks around the yard at about 1 m/s, then heads straight out east at speed from second runAt
+    private static double[][] wanderThenLeave(Random random, int runAt, double speed) {
+        double[][] trace = new double[2][TRACE_SECONDS];
+        double north = 0;
+        double east = 0;
+        double heading = 0;
+        double limit = YARD_HALF - 5;
+        for (int s = 0; s < TRACE_SECONDS; s++) {
+            if (s >= runAt) {
+                east += speed;
+            } else {
+                heading += random.nextGaussian() * 0.5;
+                north += Math.sin(heading);
+                east += Math.cos(heading);
+                // Turn back before the fence
+                if (Math.abs(north) > limit || Math.abs(east) > limit) {
+                    heading += Math.PI;
+                    north = Math.max(-limit, Math.min(limit, north));
+                    east = Math.max(-limit, Math.min(limit, east));
+                }
+            }
+            setMeters(trace, s, north, east);
+        }
+        return trace;
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.geofence;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CircleFenceMonitorTest {
+
+    private static final double LAT = 30.2848;
+    private static final double LNG = -97.7337;
+
+    // Meters north of the test center, in degrees of latitude
+    private static double north(double meters) {
+        return LAT + meters / GeoMath.METERS_PER_DEGREE;
+    }
+
+    @Test
+    public void classify_insideNearAndOutside() {
+        CircleFenceMonitor monitor = new CircleFenceMonitor();
+        monitor.setRegion("yard", LAT, LNG, 20, 40);
+        double[] margin = new double[1];
+
+        assertEquals(CoarseFenceMonitor.INSIDE, monitor.classify(north(5), LNG, margin));
+        assertEquals(15, margin[0], 0.01);
+        assertEquals(CoarseFenceMonitor.NEAR, monitor.classify(north(30), LNG, margin));
+        assertEquals(CoarseFenceMonitor.OUTSIDE, monitor.classify(north(100), LNG, margin));
+        assertEquals(60, margin[0], 0.01);
+    }
+
+    @Test
+    public void classify_insideAnyInnerCircleWins() {
+        CircleFenceMonitor monitor = new CircleFenceMonitor();
+        // The point is near the first fence's boundary but deep inside the second
+        monitor.setRegion("a", north(-30), LNG, 20, 40);
+        monitor.setRegion("b", LAT, LNG, 20, 40);
+        double[] margin = new double[1];
+        assertEquals(CoarseFenceMonitor.INSIDE, monitor.classify(LAT, LNG, margin));
+        assertEquals(20, margin[0], 0.01);
+    }
+
+    @Test
+    public void classify_outsideMarginIsClosestOuterCircle() {
+        CircleFenceMonitor monitor = new CircleFenceMonitor();
+        monitor.setRegion("a", north(200), LNG, 20, 40);
+        monitor.setRegion("b", north(-100), LNG, 20, 40);
+        double[] margin = new double[1];
+        assertEquals(CoarseFenceMonitor.OUTSIDE, monitor.classify(LAT, LNG, margin));
+        assertEquals(60, margin[0], 0.01);
+    }
+
+    @Test
+    public void removeRegion_keepsTheOthers() {
+        CircleFenceMonitor monitor = new CircleFenceMonitor();
+        for (int i = 0; i < 20; i++) {
+            monitor.setRegion("fence" + i, north(i * 1000), LNG, 20, 40);
+        }
+        monitor.removeRegion("fence3");
+        monitor.removeRegion("missing");
+        assertEquals(19, monitor.size());
+
+        double[] margin = new double[1];
+        assertEquals(CoarseFenceMonitor.OUTSIDE, monitor.classify(north(3000), LNG, margin));
+        // The last fence was moved into the removed one's slot
+        assertEquals(CoarseFenceMonitor.INSIDE, monitor.classify(north(19000), LNG, margin));
+        monitor.setRegion("fence19", north(50000), LNG, 20, 40);
+        assertEquals(19, monitor.size());
+        assertEquals(CoarseFenceMonitor.OUTSIDE, monitor.classify(north(19000), LNG, margin));
+
+        monitor.clear();
+        assertEquals(0, monitor.size());
+        assertEquals(CoarseFenceMonitor.OUTSIDE, monitor.classify(LAT, LNG, margin));
+    }
+
+    @Test
+    public void engineCircles_agreeWithExactCheck() {
+        Random random = new Random(16);
+        CircleFenceMonitor monitor = new CircleFenceMonitor();
+        GeofenceEngine engine = new GeofenceEngine(new StrRTree(), monitor);
+        for (int i = 0; i < 50; i++) {
+            double lat = 30.1 + random.nextDouble() * 0.1;
+            double lng = -97.9 + random.nextDouble() * 0.1;
+            double size = 0.001 + random.nextDouble() * 0.004;
+            engine.put("fence" + i, new CompiledFence(
+                    new double[]{lat, lat, lat + size, lat + size},
+                    new double[]{lng, lng + size, lng + size, lng}));
+        }
+        engine.remove("fence7");
+
+        double[] margin = new double[1];
+        int decided = 0;
+        for (int i = 0; i < 20000; i++) {
+            double lat = 30.1 + random.nextDouble() * 0.1;
+            double lng = -97.9 + random.nextDouble() * 0.1;
+            int coarse = engine.classifyCoarse(lat, lng, margin);
+            if (coarse != CoarseFenceMonitor.NEAR) {
+                assertEquals(engine.contains(lat, lng), coarse == CoarseFenceMonitor.INSIDE);
+                decided++;
+            }
+        }
+        assertTrue(decided > 10000);
+    }
+}
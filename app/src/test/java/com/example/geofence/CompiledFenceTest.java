@@ -0,0 +1,153 @@
+package com.example.geofence;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompiledFenceTest {
+
+    // Roughly a backyard in Austin
+    private static final double[] YARD_LATS = {30.2850, 30.2850, 30.2846, 30.2846};
+    private static final double[] YARD_LNGS = {-97.7340, -97.7334, -97.7334, -97.7340};
+
+    @Test
+    public void contains_pointInsideYard() {
+        CompiledFence fence = new CompiledFence(YARD_LATS, YARD_LNGS);
+        assertTrue(fence.contains(30.2848, -97.7337));
+    }
+
+    @Test
+    public void contains_pointOutsideYard() {
+        CompiledFence fence = new CompiledFence(YARD_LATS, YARD_LNGS);
+        assertFalse(fence.contains(30.2852, -97.7337));
+        assertFalse(fence.contains(30.2848, -97.7330));
+    }
+
+    @Test
+    public void contains_vertexCountsAsInside() {
+        CompiledFence fence = new CompiledFence(YARD_LATS, YARD_LNGS);
+        assertTrue(fence.contains(YARD_LATS[0], YARD_LNGS[0]));
+    }
+
+    @Test
+    public void contains_concaveNotch() {
+        // A "U" shape, the notch in the middle is outside
+        double[] lats = {0, 0, 3, 3, 1, 1, 3, 3};
+        double[] lngs = {0, 3, 3, 2, 2, 1, 1, 0};
+        CompiledFence fence = new CompiledFence(lats, lngs);
+        assertTrue(fence.contains(2, 0.5));
+        assertTrue(fence.contains(2, 2.5));
+        assertFalse(fence.contains(2, 1.5));
+    }
+
+    @Test
+    public void contains_fenceAcrossAntimeridian() {
+        double[] lats = {-1, -1, 1, 1};
+        double[] lngs = {179, -179, -179, 179};
+        CompiledFence fence = new CompiledFence(lats, lngs);
+        assertTrue(fence.contains(0, 179.5));
+        assertTrue(fence.contains(0, -179.5));
+        assertFalse(fence.contains(0, 178.5));
+        assertFalse(fence.contains(0, 0));
+    }
+
+    @Test
+    public void boundingBox_coversVertices() {
+        CompiledFence fence = new CompiledFence(YARD_LATS, YARD_LNGS);
+        assertEquals(30.2846, fence.getMinLatitude(), 0);
+        assertEquals(30.2850, fence.getMaxLatitude(), 0);
+        assertEquals(-97.7340, fence.getMinLongitude(), 0);
+        assertEquals(-97.7334, fence.getMaxLongitude(), 0);
+    }
+
+    @Test
+    public void emptyFence_containsNothing() {
+        CompiledFence fence = new CompiledFence(new double[0], new double[0]);
+        assertFalse(fence.contains(0, 0));
+    }
+
+    @Test
+    public void circles_innerInsideAndOuterAroundFence() {
+        // Concave "U" about 300 m across, the inner circle has to stay out of the notch
+        double[] lats = {30.280, 30.280, 30.283, 30.283, 30.281, 30.281, 30.283, 30.283};
+        double[] lngs = {-97.740, -97.737, -97.737, -97.738, -97.738, -97.739, -97.739, -97.740};
+        CompiledFence fence = new CompiledFence(lats, lngs);
+        assertTrue(fence.getInnerRadius() > 0);
+        assertTrue(fence.getOuterRadius() > fence.getInnerRadius());
+
+        Random random = new Random(15);
+        for (int i = 0; i < 20000; i++) {
+            double lat = 30.278 + random.nextDouble() * 0.007;
+            double lng = -97.742 + random.nextDouble() * 0.007;
+            double d = GeoMath.distanceMeters(fence.getCircleLatitude(), fence.getCircleLongitude(), lat, lng);
+            if (d < fence.getInnerRadius()) {
+                assertTrue(fence.contains(lat, lng));
+            }
+            if (d > fence.getOuterRadius()) {
+                assertFalse(fence.contains(lat, lng));
+            }
+        }
+    }
+
+    @Test
+    public void circles_thinFenceHasNoInnerCircle() {
+        // Thin "L", every candidate center is outside it or on its edge
+        double[] lats = {0, 0, 0.0001, 0.0001, 0.001, 0.001};
+        double[] lngs = {0, 0.001, 0.001, 0.0001, 0.0001, 0};
+        CompiledFence fence = new CompiledFence(lats, lngs);
+        assertEquals(0, fence.getInnerRadius(), 0);
+    }
+
+    @Test
+    public void circle_containsWithinRadius() {
+        CompiledFence fence = CompiledFence.circle(30.2848, -97.7337, 50);
+        assertTrue(fence.isCircle());
+        assertEquals(50, fence.getRadius(), 0);
+        assertTrue(fence.contains(30.2848, -97.7337));
+        // 49 m and 51 m north, then east
+        assertTrue(fence.contains(30.2848 + 49 / GeoMath.METERS_PER_DEGREE, -97.7337));
+        assertFalse(fence.contains(30.2848 + 51 / GeoMath.METERS_PER_DEGREE, -97.7337));
+        double metersPerLng = GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(30.2848));
+        assertTrue(fence.contains(30.2848, -97.7337 + 49 / metersPerLng));
+        assertFalse(fence.contains(30.2848, -97.7337 + 51 / metersPerLng));
+    }
+
+    @Test
+    public void circle_matchesDistanceCheck() {
+        CompiledFence fence = CompiledFence.circle(30.2848, -97.7337, 40);
+        Random random = new Random(16);
+        for (int i = 0; i < 20000; i++) {
+            double lat = 30.2844 + random.nextDouble() * 0.0008;
+            double lng = -97.7342 + random.nextDouble() * 0.0010;
+            double d = GeoMath.distanceMeters(30.2848, -97.7337, lat, lng);
+            // Skip the last millimeter where the two flat approximations may disagree
+            if (Math.abs(d - 40) > 0.001) {
+                assertEquals(d < 40, fence.contains(lat, lng));
+            }
+            assertEquals(Math.abs(d - 40), fence.distanceToBoundary(lat, lng), 1e-6);
+            assertTrue(fence.distanceToBox(lat, lng) <= fence.distanceToBoundary(lat, lng) || fence.contains(lat, lng));
+        }
+    }
+
+    @Test
+    public void circle_boxAndAntimeridian() {
+        CompiledFence fence = CompiledFence.circle(0, 0, 1000);
+        double degrees = 1000 / GeoMath.METERS_PER_DEGREE;
+        assertEquals(-degrees, fence.getMinLatitude(), 1e-12);
+        assertEquals(degrees, fence.getMaxLongitude(), 1e-12);
+
+        CompiledFence wrapped = CompiledFence.circle(0, 179.9999, 1000);
+        assertTrue(wrapped.contains(0, -179.9999));
+        assertFalse(wrapped.contains(0, 179.9));
+    }
+
+    @Test
+    public void circle_sameCenterDifferentRadiusIsAChange() {
+        CompiledFence a = CompiledFence.circle(30.2848, -97.7337, 40);
+        assertTrue(a.hasSameVertices(CompiledFence.circle(30.2848, -97.7337, 40)));
+        assertFalse(a.hasSameVertices(CompiledFence.circle(30.2848, -97.7337, 41)));
+        assertFalse(a.hasSameVertices(new CompiledFence(new double[]{30.2848}, new double[]{-97.7337})));
+    }
+}
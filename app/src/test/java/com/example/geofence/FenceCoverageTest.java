@@ -0,0 +1,63 @@
+package com.example.geofence;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FenceCoverageTest {
+
+    // L shaped yard so the coverage has a concave corner to deal with
+    private static final double[] YARD_LATS = {30.2846, 30.2846, 30.2848, 30.2848, 30.2852, 30.2852};
+    private static final double[] YARD_LNGS = {-97.7340, -97.7330, -97.7330, -97.7335, -97.7335, -97.7340};
+
+    @Test
+    public void classify_agreesWithExactTest() {
+        CompiledFence fence = new CompiledFence(YARD_LATS, YARD_LNGS);
+        FenceCoverage coverage = fence.getCoverage();
+        Random random = new Random(7);
+
+        int boundary = 0;
+        for (int i = 0; i < 20000; i++) {
+            double lat = 30.2844 + random.nextDouble() * 0.001;
+            double lng = -97.7342 + random.nextDouble() * 0.0014;
+            byte cell = coverage.classify(lat, lng);
+            if (cell == FenceCoverage.BOUNDARY) {
+                boundary++;
+            } else {
+                assertEquals(cell == FenceCoverage.INSIDE, fence.containsExact(lat, lng));
+            }
+        }
+
+        // Most positions shouldn't need the polygon walk
+        assertTrue("boundary hits: " + boundary, boundary < 20000 / 4);
+    }
+
+    @Test
+    public void classify_middleOfYardIsInside() {
+        CompiledFence fence = new CompiledFence(YARD_LATS, YARD_LNGS);
+        assertEquals(FenceCoverage.INSIDE, fence.getCoverage().classify(30.2847, -97.7338));
+    }
+
+    @Test
+    public void classify_farAwayIsOutside() {
+        CompiledFence fence = new CompiledFence(YARD_LATS, YARD_LNGS);
+        assertEquals(FenceCoverage.OUTSIDE, fence.getCoverage().classify(31, -97));
+        assertEquals(FenceCoverage.OUTSIDE, fence.getCoverage().classify(30.2851, -97.7331));
+    }
+
+    @Test
+    public void memoryFootprint_isReported() {
+        CompiledFence fence = new CompiledFence(YARD_LATS, YARD_LNGS);
+        FenceCoverage coverage = fence.getCoverage();
+        assertTrue(coverage.getCellCount() > 0);
+        assertTrue(coverage.getMemoryBytes() >= coverage.getCellCount() * 9L);
+    }
+
+    @Test
+    public void fenceAcrossAntimeridian_hasNoCoverage() {
+        CompiledFence fence = new CompiledFence(new double[]{-1, -1, 1, 1}, new double[]{179, -179, -179, 179});
+        assertNull(fence.getCoverage());
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.geofence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class FenceRecordTest {
+
+    private static final double[] LATS = {30.280123, 30.280123, 30.284987, 30.284987};
+    private static final double[] LNGS = {-97.740456, -97.735001, -97.735001, -97.740456};
+
+    static Map<String, Object> legacyPoint(double lat, double lng) {
+        Map<String, Object> point = new HashMap<>();
+        point.put("latitude", lat);
+        point.put("longitude", lng);
+        return point;
+    }
+
+    // Roughly what setValue(polygon) wrote
+    static Map<String, Object> legacyRecord(double[] lats, double[] lngs) {
+        List<Object> points = new ArrayList<>();
+        for (int i = 0; i < lats.length; i++) {
+            points.add(legacyPoint(lats[i], lngs[i]));
+        }
+        Map<String, Object> map = new HashMap<>();
+        map.put("points", points);
+        map.put("holes", new ArrayList<>());
+        map.put("fillColor", 1090519265L);
+        map.put("strokeColor", -520093471L);
+        map.put("strokeWidth", 4L);
+        map.put("strokeJointType", 0L);
+        map.put("clickable", false);
+        map.put("geodesic", false);
+        map.put("visible", true);
+        map.put("zIndex", 0L);
+        map.put("id", "pg0");
+        return map;
+    }
+
+    @Test
+    public void roundTrip() {
+        Map<String, Object> map = FenceRecord.fromPoints(LATS, LNGS).toMap();
+        FenceRecord record = FenceRecord.read(map);
+
+        assertNotNull(record);
+        assertFalse(record.isLegacy());
+        assertEquals(4, record.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(LATS[i], record.getLatitude(i), 0);
+            assertEquals(LNGS[i], record.getLongitude(i), 0);
+        }
+        assertEquals(FenceRecord.VERSION, map.get(FenceRecord.KEY_VERSION));
+    }
+
+    @Test
+    public void roundTrip_negativeAndLargeDeltas() {
+        double[] lats = {-33.868820, 51.507351, 0, -89.999999};
+        double[] lngs = {151.209296, -0.127758, 179.999999, -180};
+        FenceRecord record = FenceRecord.read(FenceRecord.fromPoints(lats, lngs).toMap());
+
+        for (int i = 0; i < lats.length; i++) {
+            assertEquals(lats[i], record.getLatitude(i), 0);
+            assertEquals(lngs[i], record.getLongitude(i), 0);
+        }
+    }
+
+    @Test
+    public void smallerThanLegacyOnTheWire() {
+        for (int f = 0; f < 300; f++) {
+            double lat = 30.1 + f * 0.001;
+            double lng = -97.9 + f * 0.001;
+            double[] lats = {lat, lat, lat + 0.0004, lat + 0.0004};
+            double[] lngs = {lng, lng + 0.0005, lng + 0.0005, lng};
+            Map<String, Object> encoded = FenceRecord.fromPoints(lats, lngs).toMap();
+
+            assertEquals(2, encoded.size());
+            assertTrue(toJson(encoded).length() * 4 < toJson(legacyRecord(lats, lngs)).length());
+        }
+    }
+
+    @Test
+    public void oldRecordWithBox_stillRead() {
+        Map<String, Object> map = FenceRecord.fromPoints(LATS, LNGS).toMap();
+        List<Long> box = new ArrayList<>();
+        box.add(30280123L);
+        box.add(-97740456L);
+        box.add(30284987L);
+        box.add(-97735001L);
+        map.put("box", box);
+
+        FenceRecord record = FenceRecord.read(map);
+        assertNotNull(record);
+        assertEquals(4, record.size());
+    }
+
+    @Test
+    public void otherVersion_notRead() {
+        Map<String, Object> map = FenceRecord.fromPoints(LATS, LNGS).toMap();
+        // Firebase hands numbers back as Long
+        map.put(FenceRecord.KEY_VERSION, (long) FenceRecord.VERSION);
+        assertNotNull(FenceRecord.read(map));
+
+        map.put(FenceRecord.KEY_VERSION, (long) FenceRecord.VERSION + 1);
+        assertNull(FenceRecord.read(map));
+        map.put(FenceRecord.KEY_VERSION, 0L);
+        assertNull(FenceRecord.read(map));
+        map.put(FenceRecord.KEY_VERSION, "1");
+        assertNull(FenceRecord.read(map));
+    }
+
+    @Test
+    public void legacyList_migrated() {
+        FenceRecord record = FenceRecord.read(legacyRecord(LATS, LNGS));
+
+        assertNotNull(record);
+        assertTrue(record.isLegacy());
+        assertEquals(4, record.size());
+        assertEquals(LATS[2], record.getLatitude(2), 0);
+
+        // Writing it back gives the same fence in the new format
+        FenceRecord migrated = FenceRecord.read(record.toMap());
+        assertFalse(migrated.isLegacy());
+        assertTrue(migrated.compile().hasSameVertices(record.compile()));
+    }
+
+    @Test
+    public void legacyMap_readInKeyOrder() {
+        Map<String, Object> points = new HashMap<>();
+        for (int i = 3; i >= 0; i--) {
+            points.put(String.valueOf(i), legacyPoint(LATS[i], LNGS[i]));
+        }
+        Map<String, Object> map = new HashMap<>();
+        map.put("points", points);
+
+        FenceRecord record = FenceRecord.read(map);
+        assertEquals(4, record.size());
+        assertEquals(LNGS[1], record.getLongitude(1), 0);
+    }
+
+    @Test
+    public void unreadable_returnsNull() {
+        assertNull(FenceRecord.read(null));
+        assertNull(FenceRecord.read("pts"));
+        assertNull(FenceRecord.read(new HashMap<String, Object>()));
+
+        Map<String, Object> truncated = new HashMap<>();
+        truncated.put(FenceRecord.KEY_VERSION, 1L);
+        truncated.put(FenceRecord.KEY_POINTS, "_p~iF");
+        assertNull(FenceRecord.read(truncated));
+    }
+
+    @Test
+    public void circle_roundTrip() {
+        Map<String, Object> map = FenceRecord.fromCircle(30.2848123, -97.7337456, 49.996).toMap();
+        assertEquals(50.0, (Double) map.get(FenceRecord.KEY_RADIUS), 0);
+        FenceRecord record = FenceRecord.read(map);
+
+        assertTrue(record.isCircle());
+        assertEquals(1, record.size());
+        assertEquals(30.284812, record.getLatitude(0), 0);
+        assertEquals(-97.733746, record.getLongitude(0), 0);
+        assertEquals(50, record.getRadius(), 0);
+
+        CompiledFence fence = record.compile();
+        assertTrue(fence.isCircle());
+        assertTrue(fence.contains(30.2848, -97.7337));
+    }
+
+    @Test
+    public void circle_badRadius_returnsNull() {
+        Map<String, Object> map = FenceRecord.fromCircle(30.2848, -97.7337, 50).toMap();
+        map.put(FenceRecord.KEY_RADIUS, -1.0);
+        assertNull(FenceRecord.read(map));
+
+        // A radius only makes sense with a single center point
+        Map<String, Object> polygon = FenceRecord.fromPoints(LATS, LNGS).toMap();
+        polygon.put(FenceRecord.KEY_RADIUS, 50L);
+        assertNull(FenceRecord.read(polygon));
+    }
+
+    // The JSON the Realtime Database sends for a value
+    private static String toJson(Object value) {
+        StringBuilder sb = new StringBuilder();
+        appendJson(value, sb);
+        return sb.toString();
+    }
+
+    private static void appendJson(Object value, StringBuilder sb) {
+        if (value instanceof Map) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                sb.append('"').append(entry.getKey()).append("\":");
+                appendJson(entry.getValue(), sb);
+            }
+            sb.append('}');
+        } else if (value instanceof List) {
+            sb.append('[');
+            List<?> list = (List<?>) value;
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                appendJson(list.get(i), sb);
+            }
+            sb.append(']');
+        } else if (value instanceof String) {
+            sb.append('"').append(((String) value).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+        } else {
+            sb.append(value);
+        }
+    }
+}
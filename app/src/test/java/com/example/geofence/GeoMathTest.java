@@ -0,0 +1,47 @@
+package com.example.geofence;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GeoMathTest {
+
+    private static final double LAT = 30.2820;
+    private static final double LNG = -97.7375;
+
+    // Corners of a square with sides of the given length, counterclockwise
+    private static double[][] square(double meters) {
+        double dLat = meters / GeoMath.METERS_PER_DEGREE;
+        double dLng = dLat / Math.cos(Math.toRadians(LAT));
+        return new double[][]{
+                {LAT, LAT, LAT + dLat, LAT + dLat},
+                {LNG, LNG + dLng, LNG + dLng, LNG}};
+    }
+
+    @Test
+    public void area_yardSizedSquare() {
+        double[][] square = square(30);
+        assertEquals(900, GeoMath.areaSquareMeters(square[0], square[1]), 1);
+    }
+
+    @Test
+    public void area_sameEitherWayRound() {
+        double[][] square = square(100);
+        double[] lats = {square[0][3], square[0][2], square[0][1], square[0][0]};
+        double[] lngs = {square[1][3], square[1][2], square[1][1], square[1][0]};
+        assertEquals(GeoMath.areaSquareMeters(square[0], square[1]), GeoMath.areaSquareMeters(lats, lngs), 1e-6);
+    }
+
+    @Test
+    public void area_acrossTheAntimeridian() {
+        double[] lats = {-16.8, -16.8, -16.7, -16.7};
+        double[] shifted = {179.95, 180.05, 180.05, 179.95};
+        double[] wrapped = {179.95, -179.95, -179.95, 179.95};
+        assertEquals(GeoMath.areaSquareMeters(lats, shifted), GeoMath.areaSquareMeters(lats, wrapped), 1e-3);
+    }
+
+    @Test
+    public void area_lessThanThreePointsIsZero() {
+        assertEquals(0, GeoMath.areaSquareMeters(new double[]{LAT, LAT + 1}, new double[]{LNG, LNG}), 0);
+    }
+}
@@ -0,0 +1,212 @@
+package com.example.geofence;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class GeofenceEngineTest {
+
+    private static GeofenceEngine engineWithYards(int count, Random random) {
+        GeofenceEngine engine = new GeofenceEngine();
+        for (int i = 0; i < count; i++) {
+            double lat = 30.1 + random.nextDouble() * 0.1;
+            double lng = -97.9 + random.nextDouble() * 0.1;
+            double size = 0.001 + random.nextDouble() * 0.004;
+            engine.put("fence" + i, new CompiledFence(
+                    new double[]{lat, lat, lat + size, lat + size},
+                    new double[]{lng, lng + size, lng + size, lng}));
+        }
+        return engine;
+    }
+
+    private static void assertBatchMatchesSingleChecks(GeofenceEngine engine, int positions, Random random) {
+        double[] lats = new double[positions];
+        double[] lngs = new double[positions];
+        for (int i = 0; i < positions; i++) {
+            lats[i] = 30.1 + random.nextDouble() * 0.1;
+            lngs[i] = -97.9 + random.nextDouble() * 0.1;
+        }
+
+        BitSet inside = engine.containsAll(lats, lngs);
+        int insideCount = 0;
+        for (int i = 0; i < positions; i++) {
+            assertEquals(engine.contains(lats[i], lngs[i]), inside.get(i));
+            if (inside.get(i)) {
+                insideCount++;
+            }
+        }
+        assertEquals(insideCount, inside.cardinality());
+    }
+
+    @Test
+    public void contains_sameAsCheckingEveryFence() {
+        for (int fenceCount : new int[]{10, 100, 10000}) {
+            Random random = new Random(fenceCount);
+            GeofenceEngine engine = new GeofenceEngine();
+            CompiledFence[] fences = new CompiledFence[fenceCount];
+            // Yard sized fences spread over a city
+            for (int i = 0; i < fenceCount; i++) {
+                double lat = 30.1 + random.nextDouble() * 0.4;
+                double lng = -97.9 + random.nextDouble() * 0.4;
+                double size = 0.0003 + random.nextDouble() * 0.0007;
+                fences[i] = new CompiledFence(
+                        new double[]{lat, lat, lat + size, lat + size},
+                        new double[]{lng, lng + size, lng + size, lng});
+                engine.put("fence" + i, fences[i]);
+            }
+
+            // Half the positions in a yard, the rest anywhere
+            int inside = 0;
+            for (int q = 0; q < 1000; q++) {
+                double lat;
+                double lng;
+                if (q % 2 == 0) {
+                    CompiledFence yard = fences[random.nextInt(fenceCount)];
+                    lat = (yard.getMinLatitude() + yard.getMaxLatitude()) / 2;
+                    lng = (yard.getMinLongitude() + yard.getMaxLongitude()) / 2;
+                } else {
+                    lat = 30.1 + random.nextDouble() * 0.4;
+                    lng = -97.9 + random.nextDouble() * 0.4;
+                }
+                boolean expected = false;
+                for (CompiledFence fence : fences) {
+                    expected |= fence.contains(lat, lng);
+                }
+                assertEquals(expected, engine.contains(lat, lng));
+                if (expected) {
+                    inside++;
+                }
+            }
+            assertTrue(inside >= 500);
+        }
+    }
+
+    @Test
+    public void containsAll_smallBatch() {
+        Random random = new Random(5);
+        assertBatchMatchesSingleChecks(engineWithYards(100, random), 37, random);
+    }
+
+    @Test
+    public void containsAll_largeBatchSplitAcrossPool() {
+        Random random = new Random(6);
+        assertBatchMatchesSingleChecks(engineWithYards(300, random), 5000, random);
+    }
+
+    @Test
+    public void containsAll_noPositions() {
+        GeofenceEngine engine = engineWithYards(10, new Random(7));
+        assertTrue(engine.containsAll(new double[0], new double[0]).isEmpty());
+    }
+
+    @Test
+    public void put_sameVerticesKeepsVersion() {
+        GeofenceEngine engine = engineWithYards(1, new Random(8));
+        long version = engine.getVersion();
+        CompiledFence fence = engine.getFences().get(0);
+        double[] lats = new double[fence.size()];
+        double[] lngs = new double[fence.size()];
+        for (int i = 0; i < fence.size(); i++) {
+            lats[i] = fence.getLatitude(i);
+            lngs[i] = fence.getLongitude(i);
+        }
+
+        engine.put("fence0", new CompiledFence(lats, lngs));
+        assertEquals(version, engine.getVersion());
+        engine.remove("fence0");
+        assertEquals(0, engine.size());
+        assertTrue(engine.getVersion() > version);
+    }
+
+    @Test
+    public void put_oneMoreFenceLeavesOthersUntouched() {
+        GeofenceEngine engine = engineWithYards(300, new Random(9));
+        List<CompiledFence> before = engine.getFences();
+        long version = engine.getVersion();
+
+        engine.put("added", new CompiledFence(
+                new double[]{30.30, 30.30, 30.31, 30.31},
+                new double[]{-97.80, -97.79, -97.79, -97.80}));
+
+        assertEquals(301, engine.size());
+        assertEquals(version + 1, engine.getVersion());
+        // The existing fences are neither recompiled nor replaced
+        Set<CompiledFence> after = Collections.newSetFromMap(new IdentityHashMap<CompiledFence, Boolean>());
+        after.addAll(engine.getFences());
+        for (CompiledFence fence : before) {
+            assertTrue(after.contains(fence));
+        }
+        assertTrue(engine.contains(30.305, -97.795));
+    }
+
+    @Test
+    public void coverageTotals_followFenceChanges() {
+        GeofenceEngine engine = engineWithYards(3, new Random(5));
+        CompiledFence removed = new CompiledFence(
+                new double[]{30.3, 30.3, 30.302, 30.301},
+                new double[]{-97.7, -97.698, -97.698, -97.7});
+        engine.put("removed", removed);
+        int cells = engine.getCoverageCellCount();
+        long bytes = engine.getCoverageMemoryBytes();
+        assertTrue(removed.getCoverage().getCellCount() > 0);
+        assertTrue(bytes > removed.getCoverage().getMemoryBytes());
+
+        engine.remove("removed");
+        assertEquals(cells - removed.getCoverage().getCellCount(), engine.getCoverageCellCount());
+        assertEquals(bytes - removed.getCoverage().getMemoryBytes(), engine.getCoverageMemoryBytes());
+
+        // Circles have no cells
+        engine.put("circle", CompiledFence.circle(30.15, -97.85, 20));
+        assertEquals(cells - removed.getCoverage().getCellCount(), engine.getCoverageCellCount());
+
+        engine.retainAll(Collections.<String>emptySet());
+        assertEquals(0, engine.getCoverageCellCount());
+        assertEquals(0, engine.getCoverageMemoryBytes());
+    }
+
+    @Test
+    public void mixedCirclesAndPolygons_sameAnswersThroughEveryPath() {
+        Random random = new Random(16);
+        GeofenceEngine engine = new GeofenceEngine(new StrRTree(), new CircleFenceMonitor());
+        CompiledFence[] fences = new CompiledFence[200];
+        for (int i = 0; i < fences.length; i++) {
+            double lat = 30.1 + random.nextDouble() * 0.1;
+            double lng = -97.9 + random.nextDouble() * 0.1;
+            double size = 0.001 + random.nextDouble() * 0.004;
+            fences[i] = i % 2 == 0
+                    ? CompiledFence.circle(lat, lng, size * GeoMath.METERS_PER_DEGREE / 2)
+                    : new CompiledFence(
+                            new double[]{lat, lat, lat + size, lat + size},
+                            new double[]{lng, lng + size, lng + size, lng});
+            engine.put("fence" + i, fences[i]);
+        }
+
+        double[] lats = new double[3000];
+        double[] lngs = new double[3000];
+        for (int i = 0; i < lats.length; i++) {
+            lats[i] = 30.1 + random.nextDouble() * 0.1;
+            lngs[i] = -97.9 + random.nextDouble() * 0.1;
+        }
+        BitSet inside = engine.containsAll(lats, lngs);
+        double[] margin = new double[1];
+        for (int i = 0; i < lats.length; i++) {
+            boolean expected = false;
+            for (CompiledFence fence : fences) {
+                expected |= fence.contains(lats[i], lngs[i]);
+            }
+            assertEquals(expected, engine.contains(lats[i], lngs[i]));
+            assertEquals(expected, inside.get(i));
+            int coarse = engine.classifyCoarse(lats[i], lngs[i], margin);
+            if (coarse != CoarseFenceMonitor.NEAR) {
+                assertEquals(expected, coarse == CoarseFenceMonitor.INSIDE);
+            }
+        }
+    }
+}
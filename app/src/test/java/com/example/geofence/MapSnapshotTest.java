@@ -0,0 +1,116 @@
+package com.example.geofence;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MapSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MapSnapshot sample() {
+        MapSnapshot snapshot = new MapSnapshot("uid-1");
+        snapshot.putFence("park", FenceRecord.fromPoints(
+                new double[]{30.280, 30.280, 30.284, 30.284},
+                new double[]{-97.740, -97.735, -97.735, -97.740}));
+        snapshot.putFence("porch", FenceRecord.fromCircle(30.2825, -97.7360, 12.5));
+        snapshot.setPets(Arrays.asList(new Pet("Rex", "7", "000"), new Pet("Milo", "8", "000")));
+        snapshot.setPosition("Rex", 30.2821, -97.7375);
+        return snapshot;
+    }
+
+    @Test
+    public void writeThenRead_sameFencesPetsAndPositions() throws IOException {
+        File file = folder.newFile(MapSnapshot.FILE_NAME);
+        assertTrue(sample().writeIfDirty(file));
+
+        MapSnapshot read = MapSnapshot.read(file);
+        assertNotNull(read);
+        assertEquals("uid-1", read.getUserID());
+
+        Map<String, FenceRecord> fences = read.getFences();
+        assertEquals(Arrays.asList("park", "porch"), Arrays.asList(fences.keySet().toArray()));
+        assertEquals(4, fences.get("park").size());
+        assertEquals(-97.735, fences.get("park").getLongitude(1), 0);
+        assertTrue(fences.get("porch").isCircle());
+        assertEquals(12.5, fences.get("porch").getRadius(), 0);
+        assertTrue(fences.get("park").compile().contains(30.282, -97.7375));
+
+        assertEquals(2, read.getPets().size());
+        assertEquals("8", read.getPets().get(1).getPetTrackerID());
+        assertArrayEquals(new double[]{30.2821, -97.7375}, read.getPosition("Rex"), 0);
+        assertNull(read.getPosition("Milo"));
+    }
+
+    @Test
+    public void unchanged_notWrittenAgain() throws IOException {
+        File file = new File(folder.getRoot(), MapSnapshot.FILE_NAME);
+        MapSnapshot snapshot = sample();
+        assertTrue(snapshot.writeIfDirty(file));
+        assertFalse(snapshot.writeIfDirty(file));
+
+        snapshot.removeFence("porch");
+        assertTrue(snapshot.isDirty());
+        assertTrue(snapshot.writeIfDirty(file));
+        assertEquals(1, MapSnapshot.read(file).getFences().size());
+    }
+
+    @Test
+    public void petRemoved_positionDropped() {
+        MapSnapshot snapshot = sample();
+        snapshot.setPets(Collections.singletonList(new Pet("Milo", "8", "000")));
+        assertNull(snapshot.getPosition("Rex"));
+    }
+
+    @Test
+    public void retainFences_dropsDeleted() {
+        MapSnapshot snapshot = sample();
+        snapshot.retainFences(Collections.singletonList("porch"));
+        assertEquals(Collections.singleton("porch"), snapshot.getFences().keySet());
+    }
+
+    @Test
+    public void missingFile_readsNull() {
+        assertNull(MapSnapshot.read(new File(folder.getRoot(), "nothing.bin")));
+    }
+
+    @Test
+    public void otherVersion_readsNull() {
+        byte[] bytes = sample().encode();
+        ByteBuffer.wrap(bytes).putInt(4, MapSnapshot.VERSION + 1);
+        assertNull(MapSnapshot.decode(ByteBuffer.wrap(bytes)));
+    }
+
+    @Test
+    public void truncatedFile_readsNull() throws IOException {
+        byte[] bytes = sample().encode();
+        for (int length = 0; length < bytes.length; length += 7) {
+            assertNull(MapSnapshot.decode(ByteBuffer.wrap(Arrays.copyOf(bytes, length))));
+        }
+
+        File file = folder.newFile(MapSnapshot.FILE_NAME);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(bytes, 0, bytes.length / 2);
+        out.close();
+        assertNull(MapSnapshot.read(file));
+    }
+
+    @Test
+    public void corruptCount_readsNull() {
+        byte[] bytes = sample().encode();
+        // The fence count follows the magic, version and "uid-1"
+        ByteBuffer.wrap(bytes).putInt(4 + 4 + 2 + 5, Integer.MAX_VALUE);
+        assertNull(MapSnapshot.decode(ByteBuffer.wrap(bytes)));
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.geofence;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MapTypeControllerTest {
+
+    @Test
+    public void zoomAroundThreshold_doesNotFlip() {
+        MapTypeController controller = new MapTypeController();
+
+        assertFalse(controller.update(18.9f));
+        assertTrue(controller.update(19.0f));
+        assertTrue(controller.isHybrid());
+
+        // Small wobbles below 19 keep hybrid
+        assertFalse(controller.update(18.8f));
+        assertFalse(controller.update(19.2f));
+        assertFalse(controller.update(18.5f));
+        assertTrue(controller.isHybrid());
+
+        assertTrue(controller.update(18.4f));
+        assertFalse(controller.isHybrid());
+        assertFalse(controller.update(18.9f));
+    }
+
+    @Test
+    public void setHybrid_followedByUnlock() {
+        MapTypeController controller = new MapTypeController();
+        controller.setHybrid(true);
+
+        assertTrue(controller.update(12f));
+        assertFalse(controller.isHybrid());
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.geofence;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MarkerRenderSchedulerTest {
+
+    private final List<Runnable> frames = new ArrayList<>();
+    private final List<String> moved = new ArrayList<>();
+    private final List<double[]> positions = new ArrayList<>();
+    private MarkerRenderScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new MarkerRenderScheduler(new MarkerRenderScheduler.FrameSource() {
+            @Override
+            public void postFrameCallback(Runnable frame) {
+                frames.add(frame);
+            }
+        }, new MarkerRenderScheduler.Renderer() {
+            @Override
+            public void moveMarker(String petName, double lat, double lng) {
+                moved.add(petName);
+                positions.add(new double[]{lat, lng});
+            }
+        });
+    }
+
+    private void runFrame() {
+        frames.remove(0).run();
+    }
+
+    @Test
+    public void manyUpdatesInOneFrame_appliedOnce() {
+        scheduler.post("Rex", 30.0, -97.0);
+        scheduler.post("Rex", 30.1, -97.1);
+        scheduler.post("Milo", 31.0, -98.0);
+        assertEquals(1, frames.size());
+        assertTrue(moved.isEmpty());
+
+        runFrame();
+
+        assertEquals(2, moved.size());
+        assertEquals("Rex", moved.get(0));
+        assertEquals(30.1, positions.get(0)[0], 0);
+        assertEquals(1, scheduler.getFrameCount());
+        assertTrue(frames.isEmpty());
+    }
+
+    @Test
+    public void largeBurst_spreadOverFrames() {
+        for (int i = 0; i < 200; i++) {
+            scheduler.post("pet" + i, i, i);
+        }
+
+        int frameCount = 0;
+        while (!frames.isEmpty()) {
+            runFrame();
+            frameCount++;
+            assertTrue(moved.size() <= frameCount * MarkerRenderScheduler.MAX_MARKERS_PER_FRAME);
+        }
+
+        assertEquals(200, moved.size());
+        assertEquals(4, frameCount);
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    @Test
+    public void cleared_nothingApplied() {
+        scheduler.post("Rex", 30.0, -97.0);
+        scheduler.clear();
+        runFrame();
+
+        assertTrue(moved.isEmpty());
+        assertEquals(0, scheduler.getFrameCount());
+    }
+
+    @Test
+    public void receivedTime_recordedWhenMarkerMoves() {
+        Metrics.Histogram render = MarkerRenderScheduler.renderHistogram();
+        long before = render.getCount();
+        scheduler.post("Rex", 30.0, -97.0, System.nanoTime());
+        scheduler.post("Milo", 31.0, -98.0);
+        runFrame();
+
+        assertEquals(before + 1, render.getCount());
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.geofence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    private final Metrics metrics = new Metrics();
+
+    @Test
+    public void counter_sameInstanceByName() {
+        Metrics.Counter counter = metrics.counter("alerts_total", "Alerts");
+        counter.increment();
+        metrics.counter("alerts_total", "Alerts").add(2);
+
+        assertEquals(3, counter.get());
+        assertEquals(3, metrics.getValue("alerts_total"));
+        assertEquals(0, metrics.getValue("missing"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sameName_otherKind_throws() {
+        metrics.counter("latency", "Latency");
+        metrics.histogram("latency", "Latency", Metrics.LATENCY_MICROS);
+    }
+
+    @Test
+    public void histogram_percentilesAreBucketBounds() {
+        Metrics.Histogram histogram = metrics.histogram("latency", "Latency", new long[]{10, 100, 1000});
+        for (int i = 0; i < 90; i++) {
+            histogram.record(5);
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.record(50);
+        }
+        histogram.record(700);
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(90 * 5 + 9 * 50 + 700, histogram.getSum());
+        assertEquals(10, histogram.percentile(0.5));
+        assertEquals(10, histogram.percentile(0.9));
+        assertEquals(100, histogram.percentile(0.99));
+        assertEquals(700, histogram.percentile(1));
+        assertEquals(700, histogram.getMax());
+    }
+
+    @Test
+    public void histogram_pastLastBound_reportsMax() {
+        Metrics.Histogram histogram = metrics.histogram("latency", "Latency", new long[]{10, 100});
+        histogram.record(5000);
+        histogram.record(20000);
+
+        assertEquals(20000, histogram.percentile(0.5));
+        assertEquals(20000, histogram.getMax());
+    }
+
+    @Test
+    public void histogram_empty() {
+        Metrics.Histogram histogram = metrics.histogram("latency", "Latency", Metrics.LATENCY_MICROS);
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.percentile(0.99));
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    public void histogram_concurrentRecording_nothingLost() throws InterruptedException {
+        final Metrics.Histogram histogram = metrics.histogram("latency", "Latency", Metrics.SMALL_COUNTS);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int offset = t;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record((i + offset) % 20);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, histogram.getCount());
+        assertEquals(19, histogram.getMax());
+    }
+
+    @Test
+    public void reading_readWhenAskedUntilUnregistered() {
+        final long[] listeners = {2};
+        metrics.register("listeners", "Listeners", new Metrics.Reading() {
+            @Override
+            public long read() {
+                return listeners[0];
+            }
+        });
+        listeners[0] = 5;
+        assertEquals(5, metrics.getValue("listeners"));
+
+        metrics.unregister("listeners");
+        assertEquals(0, metrics.getValue("listeners"));
+        assertFalse(metrics.dump().contains("listeners"));
+    }
+
+    @Test
+    public void dump_prometheusText() {
+        metrics.counter("sent_total", "Sent").add(4);
+        metrics.register("listeners", "Listeners", new Metrics.Reading() {
+            @Override
+            public long read() {
+                return 3;
+            }
+        });
+        Metrics.Histogram histogram = metrics.histogram("latency", "Latency", new long[]{10, 100});
+        histogram.record(5);
+        histogram.record(50);
+        histogram.record(500);
+
+        String dump = metrics.dump();
+
+        assertTrue(dump.contains("# HELP sent_total Sent\n# TYPE sent_total counter\nsent_total 4\n"));
+        assertTrue(dump.contains("# TYPE listeners gauge\nlisteners 3\n"));
+        assertTrue(dump.contains("latency_bucket{le=\"10\"} 1\n"));
+        assertTrue(dump.contains("latency_bucket{le=\"100\"} 2\n"));
+        assertTrue(dump.contains("latency_bucket{le=\"+Inf\"} 3\n"));
+        assertTrue(dump.contains("latency_sum 555\nlatency_count 3\n"));
+        // Sorted by name
+        assertTrue(dump.indexOf("latency") < dump.indexOf("listeners"));
+        assertTrue(dump.indexOf("listeners") < dump.indexOf("sent_total"));
+    }
+}
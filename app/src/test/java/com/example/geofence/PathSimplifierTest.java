@@ -0,0 +1,122 @@
+package com.example.geofence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PathSimplifierTest {
+
+    private static final double LAT = 30.282;
+    private static final double LNG = -97.7375;
+    private static final double LNG_PER_METER = 1 / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(LAT)));
+    private static final double LAT_PER_METER = 1 / GeoMath.METERS_PER_DEGREE;
+
+    // Traces a 30 m square at 5 cm steps with a little finger wobble, back to the start
+    private static List<double[]> tracedSquare(Random random) {
+        List<double[]> points = new ArrayList<>();
+        double[][] corners = {{0, 0}, {30, 0}, {30, 30}, {0, 30}, {0, 0}};
+        for (int c = 0; c < 4; c++) {
+            for (int step = 0; step < 600; step++) {
+                double t = step / 600.0;
+                double x = corners[c][0] + (corners[c + 1][0] - corners[c][0]) * t + random.nextGaussian() * 0.1;
+                double y = corners[c][1] + (corners[c + 1][1] - corners[c][1]) * t + random.nextGaussian() * 0.1;
+                points.add(new double[]{LAT + y * LAT_PER_METER, LNG + x * LNG_PER_METER});
+            }
+        }
+        points.add(new double[]{LAT, LNG});
+        return points;
+    }
+
+    @Test
+    public void tracedSquare_keepsCorners() {
+        PathSimplifier simplifier = new PathSimplifier(1.5);
+        for (double[] p : tracedSquare(new Random(13))) {
+            simplifier.add(p[0], p[1]);
+        }
+        simplifier.finish();
+
+        assertEquals(2401, simplifier.getInputCount());
+        assertEquals(4, simplifier.size());
+
+        // Every traced point of the middle of the square is inside the simplified fence
+        double[] lats = new double[simplifier.size()];
+        double[] lngs = new double[simplifier.size()];
+        for (int i = 0; i < simplifier.size(); i++) {
+            lats[i] = simplifier.getLatitude(i);
+            lngs[i] = simplifier.getLongitude(i);
+        }
+        CompiledFence fence = new CompiledFence(lats, lngs);
+        assertTrue(fence.contains(LAT + 15 * LAT_PER_METER, LNG + 15 * LNG_PER_METER));
+        assertFalse(fence.contains(LAT + 35 * LAT_PER_METER, LNG + 15 * LNG_PER_METER));
+    }
+
+    @Test
+    public void tracedCircle_staysWithinTolerance() {
+        double tolerance = 1.0;
+        PathSimplifier simplifier = new PathSimplifier(tolerance);
+        List<double[]> points = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            double theta = 2 * Math.PI * i / 3000;
+            points.add(new double[]{LAT + 20 * Math.sin(theta) * LAT_PER_METER, LNG + 20 * Math.cos(theta) * LNG_PER_METER});
+        }
+        for (double[] p : points) {
+            simplifier.add(p[0], p[1]);
+        }
+        simplifier.finish();
+
+        int n = simplifier.size();
+        assertTrue(n > 8 && n < 60);
+        // Each traced point is close to some edge of the result
+        for (double[] p : points) {
+            double best = Double.MAX_VALUE;
+            for (int i = 0; i < n; i++) {
+                int j = (i + 1) % n;
+                best = Math.min(best, distanceToSegment(p,
+                        simplifier.getLatitude(i), simplifier.getLongitude(i),
+                        simplifier.getLatitude(j), simplifier.getLongitude(j)));
+            }
+            assertTrue(best <= tolerance * 1.5);
+        }
+    }
+
+    @Test
+    public void whileDrawing_sizeIncludesNewestPoint() {
+        PathSimplifier simplifier = new PathSimplifier(1.0);
+        simplifier.add(LAT, LNG);
+        assertEquals(1, simplifier.size());
+
+        simplifier.add(LAT, LNG + 5 * LNG_PER_METER);
+        assertEquals(2, simplifier.size());
+        assertEquals(LNG + 5 * LNG_PER_METER, simplifier.getLongitude(1), 1e-12);
+
+        // Sub-tolerance jitter is ignored
+        simplifier.add(LAT + 0.2 * LAT_PER_METER, LNG + 5 * LNG_PER_METER);
+        assertEquals(LAT, simplifier.getLatitude(1), 1e-12);
+        assertFalse(simplifier.isFinished());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void addAfterFinish_throws() {
+        PathSimplifier simplifier = new PathSimplifier(1.0);
+        simplifier.add(LAT, LNG);
+        simplifier.finish();
+        simplifier.add(LAT, LNG);
+    }
+
+    private static double distanceToSegment(double[] p, double lat1, double lng1, double lat2, double lng2) {
+        double ax = (lng1 - LNG) / LNG_PER_METER;
+        double ay = (lat1 - LAT) / LAT_PER_METER;
+        double bx = (lng2 - LNG) / LNG_PER_METER;
+        double by = (lat2 - LAT) / LAT_PER_METER;
+        double px = (p[1] - LNG) / LNG_PER_METER;
+        double py = (p[0] - LAT) / LAT_PER_METER;
+        double dx = bx - ax;
+        double dy = by - ay;
+        double t = Math.max(0, Math.min(1, ((px - ax) * dx + (py - ay) * dy) / (dx * dx + dy * dy)));
+        return Math.hypot(px - ax - t * dx, py - ay - t * dy);
+    }
+}
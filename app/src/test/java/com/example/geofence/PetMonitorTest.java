@@ -0,0 +1,231 @@
+package com.example.geofence;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class PetMonitorTest {
+
+    // Runs queued work only when the test asks for it
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> queue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void runAll() {
+            while (!queue.isEmpty()) {
+                queue.remove(0).run();
+            }
+        }
+    }
+
+    private static final TrackerPipeline.Parser<double[]> PARSER = new TrackerPipeline.Parser<double[]>() {
+        @Override
+        public boolean parse(double[] raw, TrackerSample out) {
+            out.latitude = raw[0];
+            out.longitude = raw[1];
+            return true;
+        }
+    };
+
+    // About 45 m x 58 m
+    private static CompiledFence yard() {
+        return new CompiledFence(
+                new double[]{30.2846, 30.2846, 30.2850, 30.2850},
+                new double[]{-97.7340, -97.7334, -97.7334, -97.7340});
+    }
+
+    private static final double[] INSIDE = {30.2848, -97.7337};
+    private static final double[] OUTSIDE = {30.2860, -97.7337};
+
+    private final Map<String, Integer> attached = new HashMap<>();
+    private final List<String> left = new ArrayList<>();
+    private final List<String> returned = new ArrayList<>();
+    private final List<String> moves = new ArrayList<>();
+    private final List<Integer> petCounts = new ArrayList<>();
+    private final ManualExecutor worker = new ManualExecutor();
+    private final ManualExecutor mainThread = new ManualExecutor();
+    private PetMonitor<String, double[]> monitor;
+
+    private final PetMonitor.Observer observer = new PetMonitor.Observer() {
+        @Override
+        public void onPetsChanged(List<Pet> pets) {
+            petCounts.add(pets.size());
+        }
+
+        @Override
+        public void onPetMoved(String petName, long timeMillis, double lat, double lng, long receivedNanos) {
+            moves.add(petName);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        TrackerSubscriptionManager.Source<String> source = new TrackerSubscriptionManager.Source<String>() {
+            @Override
+            public String attach(String trackerID) {
+                Integer count = attached.get(trackerID);
+                attached.put(trackerID, count == null ? 1 : count + 1);
+                return trackerID;
+            }
+
+            @Override
+            public void detach(String trackerID, String handle) {
+                attached.remove(trackerID);
+            }
+        };
+        PetMonitor.Alerts alerts = new PetMonitor.Alerts() {
+            @Override
+            public void onPetLeft(Pet pet, double lat, double lng) {
+                left.add(pet.getPetName());
+            }
+
+            @Override
+            public void onPetReturned(Pet pet) {
+                returned.add(pet.getPetName());
+            }
+        };
+        monitor = new PetMonitor<>(new GeofenceEngine(), source, PARSER, worker, mainThread, alerts);
+        monitor.putFence("yard", yard());
+    }
+
+    private void deliver(String trackerID, double[] position) {
+        monitor.offer(trackerID, position);
+        worker.runAll();
+        mainThread.runAll();
+    }
+
+    @Test
+    public void startTwice_attachesOnce() {
+        monitor.setPets(Arrays.asList(new Pet("Rex", "t1", "000"), new Pet("Tom", "t2", "000")));
+        monitor.start();
+        monitor.start();
+
+        assertEquals(2, monitor.getActiveListenerCount());
+        assertEquals(1, (int) attached.get("t1"));
+        assertEquals(1, (int) attached.get("t2"));
+
+        monitor.stop();
+        assertTrue(attached.isEmpty());
+        assertFalse(monitor.isStarted());
+    }
+
+    @Test
+    public void exit_alertsEveryPetOnTheTracker() {
+        monitor.start();
+        monitor.setPets(Arrays.asList(new Pet("Rex", "t1", "000"), new Pet("Fido", "t1", "000")));
+        assertEquals(1, monitor.getActiveListenerCount());
+
+        deliver("t1", INSIDE);
+        assertTrue(left.isEmpty());
+        deliver("t1", OUTSIDE);
+        assertEquals(Arrays.asList("Rex", "Fido"), left);
+        deliver("t1", INSIDE);
+        assertEquals(Arrays.asList("Rex", "Fido"), returned);
+    }
+
+    @Test
+    public void observer_onlyGetsMovesWhileAttached() {
+        monitor.start();
+        monitor.setPets(Collections.singletonList(new Pet("Rex", "t1", "000")));
+
+        // Nobody is drawing, the check still runs
+        deliver("t1", OUTSIDE);
+        assertEquals(Collections.singletonList("Rex"), left);
+        assertTrue(moves.isEmpty());
+
+        // Attaching hands over the pets and where they were last seen
+        monitor.addObserver(observer);
+        assertEquals(Collections.singletonList(1), petCounts);
+        assertEquals(Collections.singletonList("Rex"), moves);
+
+        deliver("t1", INSIDE);
+        assertEquals(2, moves.size());
+
+        monitor.removeObserver(observer);
+        deliver("t1", OUTSIDE);
+        assertEquals(2, moves.size());
+    }
+
+    @Test
+    public void removedPet_forgetsItsLastPosition() {
+        monitor.start();
+        monitor.setPets(Collections.singletonList(new Pet("Rex", "t1", "000")));
+        deliver("t1", INSIDE);
+
+        monitor.setPets(Collections.singletonList(new Pet("Tom", "t2", "000")));
+        assertNull(attached.get("t1"));
+        assertEquals(1, (int) attached.get("t2"));
+
+        monitor.addObserver(observer);
+        assertTrue(moves.isEmpty());
+    }
+
+    @Test
+    public void petAddedBackWhileOutside_alertsAgain() {
+        monitor.start();
+        List<Pet> rex = Collections.singletonList(new Pet("Rex", "t1", "000"));
+        monitor.setPets(rex);
+        deliver("t1", OUTSIDE);
+        assertEquals(Collections.singletonList("Rex"), left);
+
+        // Removed while out, then added back before it ever came home
+        monitor.setPets(Collections.<Pet>emptyList());
+        worker.runAll();
+        monitor.setPets(rex);
+        deliver("t1", OUTSIDE);
+        assertEquals(Arrays.asList("Rex", "Rex"), left);
+        assertTrue(returned.isEmpty());
+    }
+
+    @Test
+    public void observer_getsTheTimeThePositionWasRecordedUnder() {
+        final List<Long> recorded = new ArrayList<>();
+        final List<Long> observed = new ArrayList<>();
+        monitor.setRecorder(new TrackerPipeline.Recorder() {
+            @Override
+            public void onChecked(String trackerID, long timeMillis, double lat, double lng, boolean inside) {
+                recorded.add(timeMillis);
+            }
+        });
+        monitor.start();
+        monitor.setPets(Collections.singletonList(new Pet("Rex", "t1", "000")));
+        monitor.addObserver(new PetMonitor.Observer() {
+            @Override
+            public void onPetsChanged(List<Pet> pets) {
+            }
+
+            @Override
+            public void onPetMoved(String petName, long timeMillis, double lat, double lng, long receivedNanos) {
+                observed.add(timeMillis);
+            }
+        });
+
+        deliver("t1", INSIDE);
+        deliver("t1", OUTSIDE);
+        assertEquals(2, recorded.size());
+        assertEquals(recorded, observed);
+    }
+
+    @Test
+    public void fences_goStraightToTheEngine() {
+        monitor.putFence("park", CompiledFence.circle(30.29, -97.74, 50));
+        assertEquals(2, monitor.getEngine().size());
+        monitor.retainFences(Collections.singletonList("park"));
+        assertEquals(1, monitor.getEngine().size());
+        monitor.removeFence("park");
+        assertEquals(0, monitor.getEngine().size());
+    }
+}
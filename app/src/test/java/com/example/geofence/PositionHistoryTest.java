@@ -0,0 +1,249 @@
+package com.example.geofence;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PositionHistoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+    private PositionHistory history;
+
+    // Collects what a scan visits
+    private static class Collected implements PositionHistory.Visitor {
+        final List<Long> timestamps = new ArrayList<>();
+        final List<double[]> positions = new ArrayList<>();
+        final List<Integer> flags = new ArrayList<>();
+
+        @Override
+        public void onPosition(long timestampMillis, double lat, double lng, int flag) {
+            timestamps.add(timestampMillis);
+            positions.add(new double[]{lat, lng});
+            flags.add(flag);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        root = folder.newFolder("history");
+        // Four records per segment, so rollover is easy to reach
+        history = new PositionHistory(root, 4);
+    }
+
+    private void appendSeconds(String trackerID, int from, int to, int flags) throws IOException {
+        for (int s = from; s < to; s++) {
+            assertTrue(history.append(trackerID, s * 1000L, 30.28 + s * 1e-5, -97.73, flags));
+        }
+    }
+
+    @Test
+    public void appendThenScan_positionsToSevenDecimals() throws IOException {
+        history.append("7", 1000, 30.2821234, -97.7375678, 0);
+        history.append("7", 2000, 30.2821300, -97.7375600, PositionHistory.FLAG_OUTSIDE);
+
+        Collected collected = new Collected();
+        assertEquals(2, history.scan("7", 0, Long.MAX_VALUE, collected));
+        assertEquals(30.2821234, collected.positions.get(0)[0], 1e-9);
+        assertEquals(-97.7375678, collected.positions.get(0)[1], 1e-9);
+        assertEquals(PositionHistory.FLAG_OUTSIDE, (int) collected.flags.get(1));
+    }
+
+    @Test
+    public void olderThanNewest_rejected() throws IOException {
+        history.append("7", 5000, 30.28, -97.73, 0);
+        assertFalse(history.append("7", 4000, 30.28, -97.73, 0));
+        assertTrue(history.append("7", 5000, 30.28, -97.73, 0));
+        assertEquals(2, history.getRecordCount("7"));
+    }
+
+    @Test
+    public void fullSegment_rollsOver_scanCrossesSegments() throws IOException {
+        appendSeconds("7", 0, 10, 0);
+        assertEquals(3, history.getSegmentCount("7"));
+
+        Collected collected = new Collected();
+        assertEquals(5, history.scan("7", 3000, 8000, collected));
+        assertEquals(3000, (long) collected.timestamps.get(0));
+        assertEquals(7000, (long) collected.timestamps.get(4));
+    }
+
+    @Test
+    public void hoursAtDefaultSegmentSize_hourScanVisitsEachSecond() throws IOException {
+        history = new PositionHistory(folder.newFolder("default"));
+        for (int s = 0; s < 3 * 3600; s++) {
+            history.append("7", s * 1000L, 30.28 + (s % 600) * 1e-6, -97.73, 0);
+        }
+        assertEquals(3 * 3600, history.getRecordCount("7"));
+
+        Collected collected = new Collected();
+        assertEquals(3600, history.scan("7", 3600 * 1000L, 7200 * 1000L, collected));
+        assertEquals(3600 * 1000L, (long) collected.timestamps.get(0));
+        assertEquals(7199 * 1000L, (long) collected.timestamps.get(3599));
+    }
+
+    @Test
+    public void trackersKeptApart() throws IOException {
+        appendSeconds("7", 0, 3, 0);
+        appendSeconds("8", 0, 5, 0);
+        assertEquals(3, history.getRecordCount("7"));
+        assertEquals(5, history.getRecordCount("8"));
+    }
+
+    @Test
+    public void reopened_keepsRecordsAndAppendsToLastSegment() throws IOException {
+        appendSeconds("7", 0, 6, 0);
+        history.flush();
+
+        history = new PositionHistory(root, 4);
+        assertEquals(6, history.getRecordCount("7"));
+        assertEquals(2, history.getSegmentCount("7"));
+        appendSeconds("7", 6, 8, 0);
+        assertEquals(2, history.getSegmentCount("7"));
+        assertEquals(8, history.scan("7", 0, Long.MAX_VALUE, new Collected()));
+    }
+
+    @Test
+    public void compact_thinsOldSegmentsKeepingFlagged() throws IOException {
+        appendSeconds("7", 0, 10, 0);
+        appendSeconds("7", 10, 12, PositionHistory.FLAG_OUTSIDE);
+        appendSeconds("7", 12, 22, 0);
+
+        // Segments ending before 16 s are thinned to one position per 5 s
+        history.compact(0, 16000, 5000);
+
+        Collected collected = new Collected();
+        history.scan("7", 0, Long.MAX_VALUE, collected);
+        List<Long> expected = new ArrayList<>();
+        for (long s : new long[]{0, 5, 10, 11, 12, 16, 17, 18, 19, 20, 21}) {
+            expected.add(s * 1000);
+        }
+        assertEquals(expected, collected.timestamps);
+
+        // Thinning again with the same interval changes nothing
+        history.compact(0, 16000, 5000);
+        assertEquals(11, history.getRecordCount("7"));
+    }
+
+    @Test
+    public void compact_dropsSegmentsPastRetention_neverTheNewest() throws IOException {
+        appendSeconds("7", 0, 10, 0);
+        history.compact(9000, 0, 5000);
+        assertEquals(2, history.getRecordCount("7"));
+
+        history.compact(Long.MAX_VALUE, 0, 5000);
+        assertEquals(2, history.getRecordCount("7"));
+        assertTrue(history.append("7", 10000, 30.28, -97.73, 0));
+    }
+
+    // Segment files of the tracker by name, and their contents
+    private Map<String, byte[]> files(String trackerID) throws IOException {
+        Map<String, byte[]> files = new HashMap<>();
+        for (File file : new File(root, trackerID).listFiles()) {
+            files.put(file.getName(), Files.readAllBytes(file.toPath()));
+        }
+        return files;
+    }
+
+    /**
+     * The directory as a compaction from before to after left it when the
+     * process died: the old segments still there, the new ones under their
+     * temporary names, and the journal committed or not.
+     */
+    private void interruptedCompaction(Map<String, byte[]> before, Map<String, byte[]> after, boolean committed)
+            throws IOException {
+        File directory = new File(root, "7");
+        List<String> outputs = new ArrayList<>();
+        List<String> inputs = new ArrayList<>();
+        for (Map.Entry<String, byte[]> entry : after.entrySet()) {
+            if (!before.containsKey(entry.getKey())) {
+                outputs.add(entry.getKey());
+                new File(directory, entry.getKey()).delete();
+                Files.write(new File(directory, entry.getKey() + ".tmp").toPath(), entry.getValue());
+            }
+        }
+        for (Map.Entry<String, byte[]> entry : before.entrySet()) {
+            if (!after.containsKey(entry.getKey())) {
+                inputs.add(entry.getKey());
+            }
+            Files.write(new File(directory, entry.getKey()).toPath(), entry.getValue());
+        }
+        PositionHistory.writeJournal(directory, outputs, inputs);
+        if (!committed) {
+            assertTrue(new File(directory, PositionHistory.JOURNAL)
+                    .renameTo(new File(directory, PositionHistory.JOURNAL + ".tmp")));
+        }
+    }
+
+    @Test
+    public void compactionInterrupted_afterJournal_finishedOnLoad() throws IOException {
+        appendSeconds("7", 0, 10, 0);
+        history.flush();
+        Map<String, byte[]> before = files("7");
+        history.compact(0, 8000, 5000);
+        int compacted = history.getRecordCount("7");
+        Map<String, byte[]> after = files("7");
+
+        interruptedCompaction(before, after, true);
+        history = new PositionHistory(root, 4);
+
+        assertEquals(compacted, history.getRecordCount("7"));
+        assertEquals(after.keySet(), files("7").keySet());
+    }
+
+    @Test
+    public void compactionInterrupted_beforeJournal_undoneOnLoad() throws IOException {
+        appendSeconds("7", 0, 10, 0);
+        history.flush();
+        Map<String, byte[]> before = files("7");
+        history.compact(0, 8000, 5000);
+        Map<String, byte[]> after = files("7");
+
+        interruptedCompaction(before, after, false);
+        history = new PositionHistory(root, 4);
+
+        assertEquals(10, history.getRecordCount("7"));
+        assertEquals(before.keySet(), files("7").keySet());
+        // And it can run again
+        history.compact(0, 8000, 5000);
+        assertEquals(after.keySet(), files("7").keySet());
+    }
+
+    @Test
+    public void onlyNewestSegmentStaysMapped() throws IOException {
+        appendSeconds("7", 0, 10, 0);
+        appendSeconds("8", 0, 10, 0);
+        history.scan("7", 0, Long.MAX_VALUE, new Collected());
+        history.compact(0, 8000, 5000);
+        assertEquals(2, history.getMappedCount());
+
+        history.flush();
+        history = new PositionHistory(root, 4);
+        history.scan("7", 0, Long.MAX_VALUE, new Collected());
+        history.compact(0, 8000, 5000);
+        assertEquals(0, history.getMappedCount());
+    }
+
+    @Test
+    public void unusualTrackerID_storedUnderEncodedName() throws IOException {
+        history.append("a/b.c", 1000, 30.28, -97.73, 0);
+        assertEquals("a/b.c", PositionHistory.trackerID(PositionHistory.directoryName("a/b.c")));
+
+        history = new PositionHistory(root, 4);
+        history.compact(0, 0, 5000);
+        assertEquals(1, history.getRecordCount("a/b.c"));
+    }
+}
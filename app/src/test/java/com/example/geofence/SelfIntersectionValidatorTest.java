@@ -0,0 +1,149 @@
+package com.example.geofence;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SelfIntersectionValidatorTest {
+
+    // Every edge pair, only used to check the sweep
+    private static boolean crossesBruteForce(double[] lats, double[] lngs) {
+        int n = lats.length;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (lats[i] == lats[j] && lngs[i] == lngs[j]) {
+                    return true;
+                }
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                boolean adjacent = j == i + 1 || (i == 0 && j == n - 1);
+                double[][] e1 = {{lngs[i], lats[i]}, {lngs[(i + 1) % n], lats[(i + 1) % n]}};
+                double[][] e2 = {{lngs[j], lats[j]}, {lngs[(j + 1) % n], lats[(j + 1) % n]}};
+                if (adjacent ? foldsBack(lats, lngs, i, j) : intersects(e1, e2)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Adjacent edges i < j running back over each other from their shared vertex
+    private static boolean foldsBack(double[] lats, double[] lngs, int i, int j) {
+        int n = lats.length;
+        int shared = (j == i + 1) ? j : i;
+        int p = (shared == j) ? i : (i + 1) % n;
+        int q = (shared == j) ? (j + 1) % n : j;
+        double[] s = {lngs[shared], lats[shared]};
+        double[] a = {lngs[p], lats[p]};
+        double[] b = {lngs[q], lats[q]};
+        double dot = (a[0] - s[0]) * (b[0] - s[0]) + (a[1] - s[1]) * (b[1] - s[1]);
+        return cross(s, a, b) == 0 && dot > 0;
+    }
+
+    private static boolean intersects(double[][] s1, double[][] s2) {
+        double d1 = cross(s2[0], s2[1], s1[0]);
+        double d2 = cross(s2[0], s2[1], s1[1]);
+        double d3 = cross(s1[0], s1[1], s2[0]);
+        double d4 = cross(s1[0], s1[1], s2[1]);
+        return Math.signum(d1) * Math.signum(d2) <= 0 && Math.signum(d3) * Math.signum(d4) <= 0
+                && !(d1 == 0 && d2 == 0 && !boxesOverlap(s1, s2));
+    }
+
+    private static boolean boxesOverlap(double[][] s1, double[][] s2) {
+        return Math.max(s1[0][0], s1[1][0]) >= Math.min(s2[0][0], s2[1][0])
+                && Math.max(s2[0][0], s2[1][0]) >= Math.min(s1[0][0], s1[1][0])
+                && Math.max(s1[0][1], s1[1][1]) >= Math.min(s2[0][1], s2[1][1])
+                && Math.max(s2[0][1], s2[1][1]) >= Math.min(s1[0][1], s1[1][1]);
+    }
+
+    // Zero when o, a and b are collinear up to rounding
+    private static double cross(double[] o, double[] a, double[] b) {
+        double cross = (a[0] - o[0]) * (b[1] - o[1]) - (a[1] - o[1]) * (b[0] - o[0]);
+        double scale = Math.hypot(a[0] - o[0], a[1] - o[1]) * Math.hypot(b[0] - o[0], b[1] - o[1]);
+        return Math.abs(cross) <= 1e-9 * scale ? 0 : cross;
+    }
+
+    @Test
+    public void square_isSimple() {
+        assertNull(SelfIntersectionValidator.findCrossing(
+                new double[]{30.280, 30.284, 30.284, 30.280},
+                new double[]{-97.740, -97.740, -97.735, -97.735}));
+    }
+
+    @Test
+    public void bowTie_crossingInTheMiddle() {
+        SelfIntersectionValidator.Crossing crossing = SelfIntersectionValidator.findCrossing(
+                new double[]{30.280, 30.284, 30.280, 30.284},
+                new double[]{-97.740, -97.735, -97.735, -97.740});
+
+        assertNotNull(crossing);
+        assertEquals(0, crossing.edgeA);
+        assertEquals(2, crossing.edgeB);
+        assertEquals(30.282, crossing.latitude, 1e-9);
+        assertEquals(-97.7375, crossing.longitude, 1e-9);
+    }
+
+    @Test
+    public void touchingAtVertex_isCrossing() {
+        // Two triangles joined at (0, 0)
+        assertNotNull(SelfIntersectionValidator.findCrossing(
+                new double[]{0, 1, 1, 0, -1, -1},
+                new double[]{0, -1, 1, 0, 1, -1}));
+    }
+
+    @Test
+    public void foldBack_isCrossing() {
+        // Third point doubles back along the second edge
+        assertNotNull(SelfIntersectionValidator.findCrossing(
+                new double[]{0, 0, 0, 1},
+                new double[]{0, 2, 1, 1}));
+    }
+
+    @Test
+    public void randomOutlines_matchBruteForce() {
+        Random random = new Random(14);
+        int crossingCount = 0;
+        for (int trial = 0; trial < 2000; trial++) {
+            int n = 3 + random.nextInt(10);
+            double[] lats = new double[n];
+            double[] lngs = new double[n];
+            for (int i = 0; i < n; i++) {
+                // A coarse grid so shared x values, vertical edges and touches happen
+                lats[i] = 30.28 + random.nextInt(8) * 0.001;
+                lngs[i] = -97.74 + random.nextInt(8) * 0.001;
+            }
+            boolean expected = crossesBruteForce(lats, lngs);
+            SelfIntersectionValidator.Crossing crossing = SelfIntersectionValidator.findCrossing(lats, lngs);
+            assertEquals("trial " + trial, expected, crossing != null);
+            if (crossing != null) {
+                crossingCount++;
+            }
+        }
+        assertTrue(crossingCount > 0);
+    }
+
+    @Test
+    public void largeStar_isSimple() {
+        Random random = new Random(15);
+        int n = 20000;
+        double[] lats = new double[n];
+        double[] lngs = new double[n];
+        for (int i = 0; i < n; i++) {
+            double theta = 2 * Math.PI * i / n;
+            double r = 0.0005 + random.nextDouble() * 0.0003;
+            lats[i] = 30.282 + r * Math.sin(theta);
+            lngs[i] = -97.7375 + r * Math.cos(theta);
+        }
+        assertNull(SelfIntersectionValidator.findCrossing(lats, lngs));
+
+        // Swapping two vertices far apart makes it cross
+        double lat = lats[100];
+        lats[100] = lats[10000];
+        lats[10000] = lat;
+        assertNotNull(SelfIntersectionValidator.findCrossing(lats, lngs));
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.geofence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StrRTreeTest {
+
+    private static CompiledFence square(double lat, double lng, double size) {
+        return new CompiledFence(
+                new double[]{lat, lat, lat + size, lat + size},
+                new double[]{lng, lng + size, lng + size, lng});
+    }
+
+    private static List<CompiledFence> randomSquares(Random random, int count) {
+        List<CompiledFence> fences = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            fences.add(square(30 + random.nextDouble(), -98 + random.nextDouble(), 0.001 + random.nextDouble() * 0.05));
+        }
+        return fences;
+    }
+
+    private static void assertMatchesLinearScan(StrRTree tree, List<CompiledFence> fences, Random random) {
+        List<CompiledFence> found = new ArrayList<>();
+        for (int q = 0; q < 500; q++) {
+            double lat = 30 + random.nextDouble() * 1.05;
+            double lng = -98 + random.nextDouble() * 1.05;
+
+            found.clear();
+            tree.search(lat, lng, found);
+
+            int expected = 0;
+            for (CompiledFence fence : fences) {
+                if (fence.boxContains(lat, lng)) {
+                    expected++;
+                    assertTrue(found.contains(fence));
+                }
+            }
+            assertEquals(expected, found.size());
+        }
+    }
+
+    @Test
+    public void search_matchesLinearScan() {
+        Random random = new Random(1);
+        List<CompiledFence> fences = randomSquares(random, 1000);
+        StrRTree tree = new StrRTree();
+        tree.build(fences);
+
+        assertEquals(1000, tree.size());
+        assertTrue(tree.getHeight() > 1);
+        assertMatchesLinearScan(tree, fences, random);
+    }
+
+    @Test
+    public void insertAndRemove_matchLinearScan() {
+        Random random = new Random(2);
+        List<CompiledFence> fences = randomSquares(random, 200);
+        StrRTree tree = new StrRTree();
+        tree.build(fences);
+
+        // Enough churn to go through a few repacks
+        for (int i = 0; i < 150; i++) {
+            CompiledFence removed = fences.remove(random.nextInt(fences.size()));
+            assertTrue(tree.remove(removed));
+            CompiledFence added = randomSquares(random, 1).get(0);
+            fences.add(added);
+            tree.insert(added);
+        }
+
+        assertEquals(fences.size(), tree.size());
+        assertMatchesLinearScan(tree, fences, random);
+    }
+
+    @Test
+    public void remove_unknownFence() {
+        StrRTree tree = new StrRTree();
+        tree.build(randomSquares(new Random(3), 10));
+        assertFalse(tree.remove(square(0, 0, 1)));
+        assertEquals(10, tree.size());
+    }
+
+    @Test
+    public void emptyTree_findsNothing() {
+        StrRTree tree = new StrRTree();
+        List<CompiledFence> found = new ArrayList<>();
+        tree.search(30, -97, found);
+        assertTrue(found.isEmpty());
+    }
+}
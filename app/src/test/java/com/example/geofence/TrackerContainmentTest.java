@@ -0,0 +1,208 @@
+package com.example.geofence;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TrackerContainmentTest {
+
+    // About 45 m x 58 m
+    private static CompiledFence yard() {
+        return new CompiledFence(
+                new double[]{30.2846, 30.2846, 30.2850, 30.2850},
+                new double[]{-97.7340, -97.7334, -97.7334, -97.7340});
+    }
+
+    @Test
+    public void jitterInsideYard_reusesDecision() {
+        GeofenceEngine engine = new GeofenceEngine();
+        engine.put("yard", yard());
+        TrackerContainment containment = new TrackerContainment(engine);
+        Random random = new Random(4);
+
+        for (int i = 0; i < 100; i++) {
+            // Sub-meter jitter around the middle of the yard
+            double lat = 30.2848 + (random.nextDouble() - 0.5) * 0.00001;
+            double lng = -97.7337 + (random.nextDouble() - 0.5) * 0.00001;
+            assertTrue(containment.isInside("t1", lat, lng));
+        }
+
+        assertEquals(1, containment.getMisses("t1"));
+        assertEquals(99, containment.getHits("t1"));
+        assertEquals(1, containment.getMissCount());
+        assertEquals(99, containment.getHitCount());
+    }
+
+    @Test
+    public void walkingOut_isDetected() {
+        GeofenceEngine engine = new GeofenceEngine();
+        engine.put("yard", yard());
+        TrackerContainment containment = new TrackerContainment(engine);
+
+        // Walk north out of the yard a meter at a time, every step must match the engine
+        for (double lat = 30.2848; lat < 30.2853; lat += 0.000009) {
+            assertEquals(engine.contains(lat, -97.7337), containment.isInside("t1", lat, -97.7337));
+        }
+        assertFalse(containment.isInside("t1", 30.2853, -97.7337));
+        assertTrue(containment.getHits("t1") > 0);
+    }
+
+    @Test
+    public void safeRadius_isDistanceToClosestEdge() {
+        GeofenceEngine engine = new GeofenceEngine();
+        engine.put("yard", yard());
+        TrackerContainment containment = new TrackerContainment(engine);
+
+        // 0.0001 degrees of latitude from the south edge, about 11 m
+        containment.isInside("t1", 30.2847, -97.7337);
+        double expected = 0.0001 * GeoMath.METERS_PER_DEGREE * 0.9;
+        assertEquals(expected, containment.getSafeRadius("t1"), 0.01);
+    }
+
+    @Test
+    public void fenceChange_invalidatesDecision() {
+        GeofenceEngine engine = new GeofenceEngine();
+        TrackerContainment containment = new TrackerContainment(engine);
+
+        assertFalse(containment.isInside("t1", 30.2848, -97.7337));
+        engine.put("yard", yard());
+        assertTrue(containment.isInside("t1", 30.2848, -97.7337));
+        assertEquals(2, containment.getMisses("t1"));
+    }
+
+    // Stands in for the OS region monitor, answers whatever the test sets
+    private static class FakeCoarseFenceMonitor implements CoarseFenceMonitor {
+        int answer = NEAR;
+        double margin;
+        int regions;
+        int calls;
+
+        @Override
+        public void setRegion(String key, double lat, double lng, double innerRadius, double outerRadius) {
+            regions++;
+        }
+
+        @Override
+        public void removeRegion(String key) {
+            regions--;
+        }
+
+        @Override
+        public void clear() {
+            regions = 0;
+        }
+
+        @Override
+        public int classify(double lat, double lng, double[] margin) {
+            calls++;
+            margin[0] = this.margin;
+            return answer;
+        }
+    }
+
+    // Counts polygon lookups so the tests can see which checks were skipped
+    private static class CountingIndex extends StrRTree {
+        int searches;
+
+        @Override
+        public void search(double lat, double lng, List<CompiledFence> out) {
+            searches++;
+            super.search(lat, lng, out);
+        }
+    }
+
+    @Test
+    public void coarseInside_skipsPolygonTest() {
+        FakeCoarseFenceMonitor monitor = new FakeCoarseFenceMonitor();
+        CountingIndex index = new CountingIndex();
+        GeofenceEngine engine = new GeofenceEngine(index, monitor);
+        engine.put("yard", yard());
+        assertEquals(1, monitor.regions);
+        TrackerContainment containment = new TrackerContainment(engine);
+
+        monitor.answer = CoarseFenceMonitor.INSIDE;
+        monitor.margin = 10;
+        assertTrue(containment.isInside("t1", 30.2848, -97.7337));
+        assertEquals(0, index.searches);
+        assertEquals(1, containment.getCoarseDecisions("t1"));
+        assertEquals(9, containment.getSafeRadius("t1"), 1e-9);
+
+        // Resting inside the margin doesn't even ask the monitor again
+        assertTrue(containment.isInside("t1", 30.28481, -97.7337));
+        assertEquals(1, monitor.calls);
+    }
+
+    @Test
+    public void coarseNear_fallsBackToPolygonTest() {
+        FakeCoarseFenceMonitor monitor = new FakeCoarseFenceMonitor();
+        CountingIndex index = new CountingIndex();
+        GeofenceEngine engine = new GeofenceEngine(index, monitor);
+        engine.put("yard", yard());
+        TrackerContainment containment = new TrackerContainment(engine);
+
+        monitor.answer = CoarseFenceMonitor.NEAR;
+        assertFalse(containment.isInside("t1", 30.2853, -97.7337));
+        assertEquals(1, index.searches);
+        assertEquals(0, containment.getCoarseDecisions("t1"));
+
+        engine.remove("yard");
+        assertEquals(0, monitor.regions);
+    }
+
+    @Test
+    public void coarseGate_batchOnlyChecksNearPositions() {
+        FakeCoarseFenceMonitor monitor = new FakeCoarseFenceMonitor();
+        CountingIndex index = new CountingIndex();
+        GeofenceEngine engine = new GeofenceEngine(index, monitor);
+        engine.put("yard", yard());
+        TrackerContainment containment = new TrackerContainment(engine);
+
+        String[] ids = {"t1", "t2", "t3"};
+        double[] lats = {30.2848, 30.2849, 30.2853};
+        double[] lngs = {-97.7337, -97.7337, -97.7337};
+        boolean[] out = new boolean[3];
+        monitor.answer = CoarseFenceMonitor.OUTSIDE;
+        monitor.margin = 5;
+        containment.isInsideAll(ids, lats, lngs, out);
+        assertFalse(out[0] || out[1] || out[2]);
+        assertEquals(0, index.searches);
+
+        // A fence change invalidates the decisions, now the circles can't tell
+        engine.put("yard2", new CompiledFence(new double[]{1, 1, 2}, new double[]{1, 2, 2}));
+        monitor.answer = CoarseFenceMonitor.NEAR;
+        containment.isInsideAll(ids, lats, lngs, out);
+        assertTrue(out[0] && out[1]);
+        assertFalse(out[2]);
+        assertEquals(3, index.searches);
+        // Totals over all three trackers
+        assertEquals(0, containment.getHitCount());
+        assertEquals(6, containment.getMissCount());
+        assertEquals(3, containment.getCoarseDecisionCount());
+    }
+
+    @Test
+    public void circleMonitor_matchesExactDecisions() {
+        GeofenceEngine exact = new GeofenceEngine();
+        GeofenceEngine gated = new GeofenceEngine(new StrRTree(), new CircleFenceMonitor());
+        exact.put("yard", yard());
+        gated.put("yard", yard());
+        TrackerContainment exactContainment = new TrackerContainment(exact);
+        TrackerContainment gatedContainment = new TrackerContainment(gated);
+
+        // Wander around and through the yard, a few meters per step
+        Random random = new Random(15);
+        double lat = 30.2848;
+        double lng = -97.7337;
+        for (int i = 0; i < 5000; i++) {
+            lat += (random.nextDouble() - 0.5) * 0.00005;
+            lng += (random.nextDouble() - 0.5) * 0.00005;
+            lat = Math.max(30.2840, Math.min(30.2856, lat));
+            lng = Math.max(-97.7346, Math.min(-97.7328, lng));
+            assertEquals(exactContainment.isInside("t1", lat, lng), gatedContainment.isInside("t1", lat, lng));
+        }
+        assertTrue(gatedContainment.getCoarseDecisions("t1") > 0);
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.geofence;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class TrackerPipelineTest {
+
+    // Runs queued work only when the test asks for it
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> queue = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+        }
+
+        void runAll() {
+            while (!queue.isEmpty()) {
+                queue.remove(0).run();
+            }
+        }
+    }
+
+    private static final TrackerPipeline.Parser<double[]> PARSER = new TrackerPipeline.Parser<double[]>() {
+        @Override
+        public boolean parse(double[] raw, TrackerSample out) {
+            // NaN stands in for an inactive tracker
+            if (Double.isNaN(raw[0])) {
+                return false;
+            }
+            out.latitude = raw[0];
+            out.longitude = raw[1];
+            return true;
+        }
+    };
+
+    private final List<String> exits = new ArrayList<>();
+    private final List<String> returns = new ArrayList<>();
+    private final List<TrackerSample> positions = new ArrayList<>();
+    private final TrackerPipeline.Listener listener = new TrackerPipeline.Listener() {
+        @Override
+        public void onExit(String trackerID, double lat, double lng) {
+            exits.add(trackerID);
+        }
+
+        @Override
+        public void onReturn(String trackerID) {
+            returns.add(trackerID);
+        }
+
+        @Override
+        public void onPositions(List<TrackerSample> samples) {
+            positions.addAll(samples);
+        }
+    };
+
+    private ManualExecutor worker;
+    private ManualExecutor main;
+    private TrackerPipeline<double[]> pipeline;
+
+    @Before
+    public void setUp() {
+        GeofenceEngine engine = new GeofenceEngine();
+        // About 450 m across, so the middle is well away from the edges
+        engine.put("park", new CompiledFence(
+                new double[]{30.280, 30.280, 30.284, 30.284},
+                new double[]{-97.740, -97.735, -97.735, -97.740}));
+        worker = new ManualExecutor();
+        main = new ManualExecutor();
+        pipeline = new TrackerPipeline<>(engine, PARSER, worker, main, listener);
+    }
+
+    @Test
+    public void updatesFasterThanWorker_onlyNewestProcessed() {
+        pipeline.offer("t1", new double[]{30.2820, -97.7375});
+        pipeline.offer("t1", new double[]{30.2821, -97.7375});
+        pipeline.offer("t1", new double[]{30.2822, -97.7375});
+        pipeline.offer("t2", new double[]{30.2820, -97.7370});
+        worker.runAll();
+        main.runAll();
+
+        assertEquals(2, pipeline.getProcessedCount());
+        assertEquals(2, pipeline.getCoalescedCount());
+        assertEquals(2, positions.size());
+        assertEquals(30.2822, positions.get(0).latitude, 0);
+        assertTrue(exits.isEmpty());
+    }
+
+    @Test
+    public void exitAlert_sentOnceThenReset() {
+        pipeline.offer("t1", new double[]{30.2820, -97.7375});
+        worker.runAll();
+        pipeline.offer("t1", new double[]{30.2900, -97.7375});
+        worker.runAll();
+        pipeline.offer("t1", new double[]{30.2901, -97.7375});
+        worker.runAll();
+        pipeline.offer("t1", new double[]{30.2820, -97.7375});
+        worker.runAll();
+
+        assertEquals(1, exits.size());
+        assertEquals(1, returns.size());
+    }
+
+    @Test
+    public void trackerOutside_skipsCoalescing() {
+        pipeline.offer("t1", new double[]{30.2900, -97.7375});
+        worker.runAll();
+        assertEquals(1, exits.size());
+
+        // Now on the priority lane, so every update is processed in order
+        pipeline.offer("t1", new double[]{30.2901, -97.7375});
+        pipeline.offer("t1", new double[]{30.2820, -97.7375});
+        pipeline.offer("t1", new double[]{30.2902, -97.7375});
+        worker.runAll();
+        main.runAll();
+
+        assertEquals(4, pipeline.getProcessedCount());
+        assertEquals(0, pipeline.getCoalescedCount());
+        assertEquals(2, exits.size());
+        assertEquals(1, returns.size());
+        assertEquals(30.2902, positions.get(positions.size() - 1).latitude, 0);
+    }
+
+    @Test
+    public void unparseableUpdate_ignored() {
+        pipeline.offer("t1", new double[]{Double.NaN, Double.NaN});
+        worker.runAll();
+        main.runAll();
+
+        assertEquals(0, pipeline.getProcessedCount());
+        assertTrue(positions.isEmpty());
+    }
+}
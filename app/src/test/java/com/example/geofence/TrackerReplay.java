@@ -0,0 +1,504 @@
+package com.example.geofence;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Feeds tracker streams through the monitoring code without a device or
+ * Firebase, to reproduce and measure how it behaves under load.
+ *
+ * A Trace is a time ordered list of Trackers/{id} updates. It can be
+ * synthetic (random walks, pets crossing a fence edge), read from a CSV file
+ * or read from a PositionHistory copied off a device. run() replays it
+ * through a PetMonitor built the way ForegroundService builds one: the same
+ * TrackerSample.read() parsing of boxed Firebase values, GeofenceEngine on an
+ * StrRTree with the CircleFenceMonitor, the pipeline on one scheduled worker
+ * thread and, optionally, an AdaptiveSampler. Positions go to a second thread
+ * standing in for the main thread.
+ *
+ * Pacing, given as speed:
+ *   1, 60, ...  real time or that many times faster; the feeder sleeps until
+ *               each update is due and the sampler's clock runs as fast
+ *   LOCKSTEP    every update with the same timestamp is offered, then the
+ *               feeder waits for the worker to finish them; deterministic, and
+ *               the throughput the worker manages without a backlog
+ *   FIREHOSE    everything is offered as fast as the feeder can, to see how
+ *               coalescing copes with a backlog
+ *
+ * The Report has updates offered, checks done, alerts, and the latency from
+ * offer() to the containment check of that update, as percentiles.
+ */
+public class TrackerReplay {
+
+    public static final double LOCKSTEP = 0;
+    public static final double FIREHOSE = Double.POSITIVE_INFINITY;
+
+    // Yards used by the synthetic traces: 100 m squares, 100 to a row, 200 m apart
+    static final double YARD_HALF_METERS = 50;
+    private static final double YARD_SPACING = 0.002;
+    private static final double BASE_LAT = 30.1;
+    private static final double BASE_LNG = -97.9;
+
+    /**
+     * Updates in time order. Each refers to a tracker by index into
+     * trackerIDs.
+     */
+    public static class Trace {
+        public final List<String> trackerIDs = new ArrayList<>();
+        private final Map<String, Integer> indexes = new HashMap<>();
+        int size = 0;
+        long[] times = new long[1024];
+        int[] trackers = new int[1024];
+        double[] lats = new double[1024];
+        double[] lngs = new double[1024];
+        boolean[] active = new boolean[1024];
+
+        public void add(long timeMillis, String trackerID, boolean isActive, double lat, double lng) {
+            if (size > 0 && timeMillis < times[size - 1]) {
+                throw new IllegalArgumentException("updates must be in time order");
+            }
+            Integer index = indexes.get(trackerID);
+            if (index == null) {
+                index = trackerIDs.size();
+                trackerIDs.add(trackerID);
+                indexes.put(trackerID, index);
+            }
+            if (size == times.length) {
+                int capacity = size * 2;
+                times = Arrays.copyOf(times, capacity);
+                trackers = Arrays.copyOf(trackers, capacity);
+                lats = Arrays.copyOf(lats, capacity);
+                lngs = Arrays.copyOf(lngs, capacity);
+                active = Arrays.copyOf(active, capacity);
+            }
+            times[size] = timeMillis;
+            trackers[size] = index;
+            lats[size] = lat;
+            lngs[size] = lng;
+            active[size] = isActive;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public long getDurationMillis() {
+            return size == 0 ? 0 : times[size - 1] - times[0];
+        }
+    }
+
+    public static class Report {
+        public long updates;
+        public long checks;
+        public long coalesced;
+        public long deferred;
+        public long ignored;
+        public long exits;
+        public long returns;
+        // How the checks were answered: safe radius, or a miss that the coarse circles may have decided
+        public long cacheHits;
+        public long cacheMisses;
+        public long coarseDecisions;
+        public double seconds;
+        // Offer to containment check in microseconds, including any wait the sampler added
+        public long p50;
+        public long p90;
+        public long p99;
+        public long max;
+
+        @Override
+        public String toString() {
+            return String.format("%d updates in %.2f s (%.0f/s), %d checked (%.0f/s), %d coalesced, %d deferred,"
+                            + " %d ignored; %d exits, %d returns; %d cache hits, %d misses, %d coarse;"
+                            + " latency p50 %d us, p90 %d us, p99 %d us, max %d us",
+                    updates, seconds, updates / seconds, checks, checks / seconds, coalesced, deferred, ignored,
+                    exits, returns, cacheHits, cacheMisses, coarseDecisions, p50, p90, p99, max);
+        }
+    }
+
+    // What offer() is handed, in place of a DataSnapshot
+    private static class Update {
+        final String trackerID;
+        final Object isActive;
+        final Object latitude;
+        final Object longitude;
+        final long offeredNanos;
+
+        Update(String trackerID, Object isActive, Object latitude, Object longitude, long offeredNanos) {
+            this.trackerID = trackerID;
+            this.isActive = isActive;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.offeredNanos = offeredNanos;
+        }
+    }
+
+    // Sampler clock in trace time, driven by the feeder unless replaying in real time
+    private static class ReplayTimer implements AdaptiveSampler.Timer {
+        final ScheduledExecutorService worker;
+        final double speed;
+        final long wallStart = System.nanoTime();
+        final long traceStart;
+        volatile long traceNow;
+        private final List<Runnable> tasks = new ArrayList<>();
+        private final List<Long> dueAt = new ArrayList<>();
+
+        ReplayTimer(ScheduledExecutorService worker, double speed, long traceStart) {
+            this.worker = worker;
+            this.speed = speed;
+            this.traceStart = traceStart;
+            this.traceNow = traceStart;
+        }
+
+        boolean paced() {
+            return speed > 0 && speed < FIREHOSE;
+        }
+
+        @Override
+        public long nowMillis() {
+            if (paced()) {
+                return traceStart + (long) ((System.nanoTime() - wallStart) / 1e6 * speed);
+            }
+            return traceNow;
+        }
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            if (paced()) {
+                worker.schedule(task, (long) Math.ceil(delayMillis / speed), TimeUnit.MILLISECONDS);
+                return;
+            }
+            synchronized (this) {
+                tasks.add(task);
+                dueAt.add(traceNow + delayMillis);
+            }
+        }
+
+        // Moves trace time on and hands due wakeups to the worker
+        void advanceTo(long time) {
+            traceNow = time;
+            synchronized (this) {
+                for (int i = 0; i < tasks.size(); i++) {
+                    if (dueAt.get(i) <= time) {
+                        dueAt.remove(i);
+                        worker.execute(tasks.remove(i--));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replays the trace against the fences. profile may be null to check
+     * every update; it is only meaningful when the trace isn't replayed
+     * faster than the sampler can keep up with, see the class comment.
+     */
+    public static Report run(Trace trace, Map<String, CompiledFence> fences, double speed,
+                             AdaptiveSampler.PowerProfile profile) throws InterruptedException {
+        final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor();
+        final ExecutorService mainThread = Executors.newSingleThreadExecutor();
+        final Report report = new Report();
+        final AtomicLong exits = new AtomicLong();
+        final AtomicLong returns = new AtomicLong();
+        final AtomicLong ignored = new AtomicLong();
+        // Worker thread only
+        final Map<String, Long> offeredNanos = new HashMap<>();
+        final long[][] latencies = {new long[Math.max(16, trace.size())]};
+        final int[] latencyCount = {0};
+
+        try {
+            GeofenceEngine engine = new GeofenceEngine(new StrRTree(), new CircleFenceMonitor());
+            for (Map.Entry<String, CompiledFence> fence : fences.entrySet()) {
+                engine.put(fence.getKey(), fence.getValue());
+            }
+
+            // The pipeline parses a batch and then checks it, at most one update per tracker
+            TrackerPipeline.Parser<Update> parser = new TrackerPipeline.Parser<Update>() {
+                @Override
+                public boolean parse(Update raw, TrackerSample out) {
+                    if (!TrackerSample.read(raw.isActive, raw.latitude, raw.longitude, out)) {
+                        ignored.incrementAndGet();
+                        return false;
+                    }
+                    offeredNanos.put(raw.trackerID, raw.offeredNanos);
+                    return true;
+                }
+            };
+
+            TrackerSubscriptionManager.Source<String> source = new TrackerSubscriptionManager.Source<String>() {
+                @Override
+                public String attach(String trackerID) {
+                    return trackerID;
+                }
+
+                @Override
+                public void detach(String trackerID, String handle) {
+                }
+            };
+            PetMonitor.Alerts alerts = new PetMonitor.Alerts() {
+                @Override
+                public void onPetLeft(Pet pet, double lat, double lng) {
+                    exits.incrementAndGet();
+                }
+
+                @Override
+                public void onPetReturned(Pet pet) {
+                    returns.incrementAndGet();
+                }
+            };
+
+            long traceStart = trace.size() == 0 ? 0 : trace.times[0];
+            ReplayTimer timer = new ReplayTimer(worker, speed, traceStart);
+            AdaptiveSampler sampler = profile == null ? null : new AdaptiveSampler(timer, profile);
+            PetMonitor<String, Update> monitor = new PetMonitor<>(engine, source, parser, worker, mainThread,
+                    alerts, sampler);
+            monitor.setRecorder(new TrackerPipeline.Recorder() {
+                @Override
+                public void onChecked(String trackerID, long timeMillis, double lat, double lng, boolean inside) {
+                    Long offered = offeredNanos.remove(trackerID);
+                    if (offered == null) {
+                        return;
+                    }
+                    if (latencyCount[0] == latencies[0].length) {
+                        latencies[0] = Arrays.copyOf(latencies[0], latencyCount[0] * 2);
+                    }
+                    latencies[0][latencyCount[0]++] = (System.nanoTime() - offered) / 1000;
+                }
+            });
+
+            List<Pet> pets = new ArrayList<>();
+            for (String trackerID : trace.trackerIDs) {
+                pets.add(new Pet("pet" + trackerID, trackerID, "000"));
+            }
+            monitor.setPets(pets);
+            monitor.start();
+
+            long wallStart = System.nanoTime();
+            for (int i = 0; i < trace.size(); i++) {
+                long time = trace.times[i];
+                if (timer.paced()) {
+                    long dueNanos = wallStart + (long) ((time - traceStart) / speed * 1e6);
+                    long wait = dueNanos - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                } else {
+                    timer.advanceTo(time);
+                }
+
+                String trackerID = trace.trackerIDs.get(trace.trackers[i]);
+                monitor.offer(trackerID, new Update(trackerID, trace.active[i], trace.lats[i], trace.lngs[i],
+                        System.nanoTime()));
+
+                boolean lastOfTimestamp = i + 1 == trace.size() || trace.times[i + 1] != time;
+                if (speed == LOCKSTEP && lastOfTimestamp) {
+                    awaitIdle(worker);
+                }
+            }
+
+            // Let held back updates through before counting
+            if (profile != null) {
+                if (timer.paced()) {
+                    TimeUnit.MILLISECONDS.sleep((long) Math.ceil(profile.maxIntervalMillis / speed));
+                } else {
+                    awaitIdle(worker);
+                    timer.advanceTo(timer.traceNow + profile.maxIntervalMillis);
+                }
+            }
+            awaitIdle(worker);
+            awaitIdle(worker);
+            report.seconds = (System.nanoTime() - wallStart) / 1e9;
+
+            report.updates = trace.size();
+            report.checks = monitor.getProcessedCount();
+            report.coalesced = monitor.getCoalescedCount();
+            report.deferred = monitor.getDeferredCount();
+            report.ignored = ignored.get();
+            report.exits = exits.get();
+            report.returns = returns.get();
+            report.cacheHits = monitor.getCacheHitCount();
+            report.cacheMisses = monitor.getCacheMissCount();
+            report.coarseDecisions = monitor.getCoarseDecisionCount();
+
+            long[] sorted = Arrays.copyOf(latencies[0], latencyCount[0]);
+            Arrays.sort(sorted);
+            report.p50 = percentile(sorted, 0.50);
+            report.p90 = percentile(sorted, 0.90);
+            report.p99 = percentile(sorted, 0.99);
+            report.max = sorted.length == 0 ? 0 : sorted[sorted.length - 1];
+            monitor.stop();
+            return report;
+        } finally {
+            worker.shutdownNow();
+            mainThread.shutdownNow();
+        }
+    }
+
+    // Everything offered so far has been checked, coalesced or held back by the sampler
+    private static void awaitIdle(ScheduledExecutorService worker) throws InterruptedException {
+        try {
+            worker.submit(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[(int) Math.min(sorted.length - 1, Math.floor(p * sorted.length))];
+    }
+
+    // One yard per index, laid out in rows
+    public static Map<String, CompiledFence> yards(int count) {
+        Map<String, CompiledFence> fences = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            double lat = yardLat(i);
+            double lng = yardLng(i);
+            double dLat = YARD_HALF_METERS / GeoMath.METERS_PER_DEGREE;
+            double dLng = YARD_HALF_METERS / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(lat)));
+            fences.put("yard" + i, new CompiledFence(
+                    new double[]{lat - dLat, lat - dLat, lat + dLat, lat + dLat},
+                    new double[]{lng - dLng, lng + dLng, lng + dLng, lng - dLng}));
+        }
+        return fences;
+    }
+
+    /**
+     * Trackers walking about inside their yard at about 1 m/s, reporting once a
+     * second. Tracker t lives in yard t % yardCount.
+     */
+    public static Trace randomWalk(int trackers, int yardCount, int seconds, long seed) {
+        Random random = new Random(seed);
+        double[] xs = new double[trackers];
+        double[] ys = new double[trackers];
+        double[] headings = new double[trackers];
+        for (int t = 0; t < trackers; t++) {
+            headings[t] = random.nextDouble() * 2 * Math.PI;
+        }
+        double limit = YARD_HALF_METERS - 20;
+        Trace trace = new Trace();
+        for (int s = 0; s < seconds; s++) {
+            for (int t = 0; t < trackers; t++) {
+                headings[t] += random.nextGaussian() * 0.5;
+                xs[t] += Math.cos(headings[t]);
+                ys[t] += Math.sin(headings[t]);
+                if (Math.abs(xs[t]) > limit || Math.abs(ys[t]) > limit) {
+                    headings[t] += Math.PI;
+                    xs[t] = Math.max(-limit, Math.min(limit, xs[t]));
+                    ys[t] = Math.max(-limit, Math.min(limit, ys[t]));
+                }
+                addAt(trace, s * 1000L, t, yardCount, xs[t], ys[t]);
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Trackers pacing east and west across the east edge of their yard, out
+     * and back in once every periodSeconds, each at its own phase.
+     */
+    public static Trace fenceCrossings(int trackers, int yardCount, int seconds, int periodSeconds, long seed) {
+        Random random = new Random(seed);
+        double[] phases = new double[trackers];
+        for (int t = 0; t < trackers; t++) {
+            phases[t] = random.nextDouble() * 2 * Math.PI;
+        }
+        Trace trace = new Trace();
+        for (int s = 0; s < seconds; s++) {
+            for (int t = 0; t < trackers; t++) {
+                double x = YARD_HALF_METERS - 10 + 20 * Math.sin(2 * Math.PI * s / periodSeconds + phases[t]);
+                addAt(trace, s * 1000L, t, yardCount, x, 0);
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Lines of time in ms, tracker ID, isActive, latitude, longitude. Lines
+     * starting with # and a header line are skipped.
+     */
+    public static Trace readCsv(File file) throws IOException {
+        Trace trace = new Trace();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || !Character.isDigit(line.charAt(0))) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                trace.add(Long.parseLong(fields[0].trim()), fields[1].trim(),
+                        Boolean.parseBoolean(fields[2].trim()),
+                        Double.parseDouble(fields[3].trim()), Double.parseDouble(fields[4].trim()));
+            }
+        } finally {
+            reader.close();
+        }
+        return trace;
+    }
+
+    // The recorded positions of the trackers between the two times, merged in time order
+    public static Trace fromHistory(PositionHistory history, List<String> trackerIDs, long fromMillis, long toMillis)
+            throws IOException {
+        final List<Object[]> updates = new ArrayList<>();
+        for (final String trackerID : trackerIDs) {
+            history.scan(trackerID, fromMillis, toMillis, new PositionHistory.Visitor() {
+                @Override
+                public void onPosition(long timestampMillis, double lat, double lng, int flags) {
+                    updates.add(new Object[]{timestampMillis, trackerID, lat, lng});
+                }
+            });
+        }
+        Collections.sort(updates, new Comparator<Object[]>() {
+            @Override
+            public int compare(Object[] a, Object[] b) {
+                return Long.compare((Long) a[0], (Long) b[0]);
+            }
+        });
+        Trace trace = new Trace();
+        for (Object[] update : updates) {
+            trace.add((Long) update[0], (String) update[1], true, (Double) update[2], (Double) update[3]);
+        }
+        return trace;
+    }
+
+    private static void addAt(Trace trace, long time, int tracker, int yardCount, double xMeters, double yMeters) {
+        int yard = tracker % yardCount;
+        double lat = yardLat(yard) + yMeters / GeoMath.METERS_PER_DEGREE;
+        double lng = yardLng(yard) + xMeters / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(yardLat(yard))));
+        trace.add(time, String.valueOf(tracker), true, lat, lng);
+    }
+
+    private static double yardLat(int yard) {
+        return BASE_LAT + (yard / 100) * YARD_SPACING;
+    }
+
+    private static double yardLng(int yard) {
+        return BASE_LNG + (yard % 100) * YARD_SPACING;
+    }
+}
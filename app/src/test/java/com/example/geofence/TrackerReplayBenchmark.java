@@ -0,0 +1,77 @@
+package com.example.geofence;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Load through the monitoring pipeline with TrackerReplay: 10k trackers in
+ * 1k yards reporting once a second, replayed in lockstep and as a firehose,
+ * and 1k trackers crossing fence edges at ten times real speed with the
+ * balanced power profile.
+ *
+ * Skipped unless asked for, the synthetic runs take ten seconds or more:
+ *   ./gradlew :app:testDebugUnitTest --tests '*TrackerReplayBenchmark' -Preplay.benchmark=true
+ * A recorded trace is replayed in lockstep against the synthetic yards:
+ *   -Preplay.trace=path/to/trace.csv   see TrackerReplay.readCsv()
+ *
+ * Results are appended one line per run to build/results/replay.txt, or
+ * to -Preplay.results=path. Whether nothing was lost is asserted in
+ * TrackerReplayTest.
+ */
+public class TrackerReplayBenchmark {
+
+    private static final String RESULTS = "build/results/replay.txt";
+
+    @Test
+    public void tenThousandTrackers() throws Exception {
+        assumeTrue(Boolean.getBoolean("replay.benchmark"));
+        Map<String, CompiledFence> fences = TrackerReplay.yards(1000);
+        TrackerReplay.Trace trace = TrackerReplay.randomWalk(10000, 1000, 30, 1);
+
+        // Warm up
+        TrackerReplay.run(TrackerReplay.randomWalk(10000, 1000, 5, 2), fences, TrackerReplay.FIREHOSE, null);
+
+        report("random walk 10k, lockstep", trace, TrackerReplay.run(trace, fences, TrackerReplay.LOCKSTEP, null));
+        report("random walk 10k, firehose", trace, TrackerReplay.run(trace, fences, TrackerReplay.FIREHOSE, null));
+        report("random walk 10k, lockstep, balanced", trace, TrackerReplay.run(trace, fences,
+                TrackerReplay.LOCKSTEP, AdaptiveSampler.PowerProfile.BALANCED));
+    }
+
+    @Test
+    public void crossingsAtTenTimesRealTime() throws Exception {
+        assumeTrue(Boolean.getBoolean("replay.benchmark"));
+        Map<String, CompiledFence> fences = TrackerReplay.yards(100);
+        TrackerReplay.Trace trace = TrackerReplay.fenceCrossings(1000, 100, 60, 20, 3);
+
+        report("crossings 1k, 10x, balanced", trace, TrackerReplay.run(trace, fences, 10,
+                AdaptiveSampler.PowerProfile.BALANCED));
+    }
+
+    @Test
+    public void recordedTrace() throws Exception {
+        String path = System.getProperty("replay.trace");
+        assumeTrue(path != null);
+        TrackerReplay.Trace trace = TrackerReplay.readCsv(new File(path));
+        report(path, trace, TrackerReplay.run(trace, TrackerReplay.yards(1000), TrackerReplay.LOCKSTEP, null));
+    }
+
+    private static void report(String name, TrackerReplay.Trace trace, TrackerReplay.Report report)
+            throws IOException {
+        assertEquals(trace.size(), report.checks + report.coalesced + report.ignored);
+        File file = new File(System.getProperty("replay.results", RESULTS));
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        FileWriter writer = new FileWriter(file, true);
+        try {
+            writer.write(name + ": " + report + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+}
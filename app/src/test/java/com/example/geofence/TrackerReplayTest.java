@@ -0,0 +1,124 @@
+package com.example.geofence;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TrackerReplayTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void lockstep_alertsMatchTheCrossingsInTheTrace() throws Exception {
+        Map<String, CompiledFence> fences = TrackerReplay.yards(4);
+        TrackerReplay.Trace trace = TrackerReplay.fenceCrossings(20, 4, 120, 30, 3);
+
+        // Every tracker starts out counted as inside, the same as the pipeline
+        boolean[] inside = new boolean[trace.trackerIDs.size()];
+        Arrays.fill(inside, true);
+        int exits = 0;
+        int returns = 0;
+        for (int i = 0; i < trace.size(); i++) {
+            int tracker = trace.trackers[i];
+            CompiledFence yard = fences.get("yard" + (tracker % 4));
+            boolean now = yard.contains(trace.lats[i], trace.lngs[i]);
+            if (inside[tracker] && !now) {
+                exits++;
+            } else if (!inside[tracker] && now) {
+                returns++;
+            }
+            inside[tracker] = now;
+        }
+        assertTrue(exits > 20);
+
+        TrackerReplay.Report report = TrackerReplay.run(trace, fences, TrackerReplay.LOCKSTEP, null);
+        assertEquals(trace.size(), report.updates);
+        assertEquals(trace.size(), report.checks);
+        assertEquals(0, report.coalesced);
+        assertEquals(report.checks, report.cacheHits + report.cacheMisses);
+        assertTrue(report.coarseDecisions <= report.cacheMisses);
+        assertEquals(exits, report.exits);
+        assertEquals(returns, report.returns);
+    }
+
+    @Test
+    public void sampler_holdsBackPetsFarInsideWithoutAlerts() throws Exception {
+        Map<String, CompiledFence> fences = TrackerReplay.yards(10);
+        TrackerReplay.Trace trace = TrackerReplay.randomWalk(50, 10, 60, 5);
+
+        TrackerReplay.Report report = TrackerReplay.run(trace, fences, TrackerReplay.LOCKSTEP,
+                AdaptiveSampler.PowerProfile.BALANCED);
+        assertEquals(0, report.exits);
+        assertTrue(report.deferred > 0);
+        assertTrue(report.checks < report.updates);
+        // Each walk stays 20 m from the edge, two seconds at the assumed 10 m/s
+        assertTrue(report.checks >= report.updates / 2 / 2);
+    }
+
+    @Test
+    public void firehose_everyUpdateCheckedOrCoalesced() throws Exception {
+        Map<String, CompiledFence> fences = TrackerReplay.yards(10);
+        TrackerReplay.Trace trace = TrackerReplay.randomWalk(200, 10, 30, 7);
+
+        TrackerReplay.Report report = TrackerReplay.run(trace, fences, TrackerReplay.FIREHOSE, null);
+        assertEquals(trace.size(), report.updates);
+        assertEquals(trace.size(), report.checks + report.coalesced + report.ignored);
+        assertEquals(0, report.exits);
+    }
+
+    @Test
+    public void crossingsFasterThanRealTime_nothingLost() throws Exception {
+        Map<String, CompiledFence> fences = TrackerReplay.yards(4);
+        TrackerReplay.Trace trace = TrackerReplay.fenceCrossings(20, 4, 60, 20, 3);
+
+        TrackerReplay.Report report = TrackerReplay.run(trace, fences, 10,
+                AdaptiveSampler.PowerProfile.BALANCED);
+        assertEquals(trace.size(), report.checks + report.coalesced + report.ignored);
+        assertTrue(report.exits > 0);
+    }
+
+    @Test
+    public void readCsv_skipsHeaderAndInactiveUpdatesAreIgnored() throws Exception {
+        File file = folder.newFile("trace.csv");
+        FileWriter writer = new FileWriter(file);
+        writer.write("time,tracker,isActive,latitude,longitude\n"
+                + "# a pet taken out of its yard\n"
+                + "1000,a,true,30.1,-97.9\n"
+                + "2000,a,true,30.1,-97.8\n"
+                + "3000,a,false,30.1,-97.8\n"
+                + "4000,a,true,30.1,-97.9\n");
+        writer.close();
+
+        TrackerReplay.Trace trace = TrackerReplay.readCsv(file);
+        assertEquals(4, trace.size());
+        assertEquals(3000, trace.getDurationMillis());
+
+        TrackerReplay.Report report = TrackerReplay.run(trace, TrackerReplay.yards(1), TrackerReplay.LOCKSTEP, null);
+        assertEquals(1, report.ignored);
+        assertEquals(3, report.checks);
+        assertEquals(1, report.exits);
+        assertEquals(1, report.returns);
+    }
+
+    @Test
+    public void fromHistory_mergesTrackersInTimeOrder() throws IOException {
+        PositionHistory history = new PositionHistory(folder.newFolder("history"));
+        history.append("a", 1000, 30.1, -97.9, 0);
+        history.append("a", 3000, 30.1, -97.9, 0);
+        history.append("b", 2000, 30.2, -97.9, 0);
+
+        TrackerReplay.Trace trace = TrackerReplay.fromHistory(history, Arrays.asList("a", "b"), 0, 5000);
+        assertEquals(3, trace.size());
+        assertEquals("b", trace.trackerIDs.get(trace.trackers[1]));
+        assertEquals(2000, trace.times[1]);
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.geofence;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrackerSubscriptionManagerTest {
+
+    private final List<String> attached = new ArrayList<>();
+    private final List<String> detached = new ArrayList<>();
+    private TrackerSubscriptionManager<String> manager;
+
+    @Before
+    public void setUp() {
+        manager = new TrackerSubscriptionManager<>(new TrackerSubscriptionManager.Source<String>() {
+            @Override
+            public String attach(String trackerID) {
+                attached.add(trackerID);
+                return "listener-" + trackerID;
+            }
+
+            @Override
+            public void detach(String trackerID, String handle) {
+                assertEquals("listener-" + trackerID, handle);
+                detached.add(trackerID);
+            }
+        });
+        manager.start();
+    }
+
+    @Test
+    public void repeatedPetListChanges_keepOneListenerPerTracker() {
+        for (int i = 0; i < 10; i++) {
+            manager.setDesired(Arrays.asList("a", "b", "c"));
+        }
+
+        assertEquals(3, manager.getActiveListenerCount());
+        assertEquals(3, attached.size());
+        assertTrue(detached.isEmpty());
+    }
+
+    @Test
+    public void sharedTracker_isReferenceCounted() {
+        manager.setDesired(Arrays.asList("a", "a", "b"));
+        assertEquals(2, manager.getActiveListenerCount());
+        assertEquals(2, manager.getReferenceCount("a"));
+
+        // One of the two pets on "a" is removed, the listener stays
+        manager.setDesired(Arrays.asList("a", "b"));
+        assertEquals(1, manager.getReferenceCount("a"));
+        assertEquals(2, manager.getActiveListenerCount());
+        assertTrue(detached.isEmpty());
+    }
+
+    @Test
+    public void removedPet_detachesOnlyItsTracker() {
+        manager.setDesired(Arrays.asList("a", "b"));
+        manager.setDesired(Arrays.asList("b", "c"));
+
+        assertEquals(Arrays.asList("a"), detached);
+        assertEquals(Arrays.asList("a", "b", "c"), attached);
+        assertEquals(2, manager.getActiveListenerCount());
+    }
+
+    @Test
+    public void stopAndStart_detachAndReattach() {
+        manager.setDesired(Arrays.asList("a", "b"));
+        manager.stop();
+        assertEquals(0, manager.getActiveListenerCount());
+        assertEquals(2, detached.size());
+
+        // Changes while stopped don't attach anything
+        manager.setDesired(Arrays.asList("a"));
+        assertEquals(0, manager.getActiveListenerCount());
+
+        manager.start();
+        assertEquals(1, manager.getActiveListenerCount());
+    }
+
+    @Test
+    public void missingTrackerID_isIgnored() {
+        manager.setDesired(Arrays.asList("a", null, ""));
+        assertEquals(1, manager.getActiveListenerCount());
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.geofence;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TrailPyramidTest {
+
+    private static final double LAT = 30.282;
+    private static final double LNG = -97.7375;
+    private static final double LNG_PER_METER = 1 / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(LAT)));
+    private static final double LAT_PER_METER = 1 / GeoMath.METERS_PER_DEGREE;
+
+    // A pet walking around at about 1 m/s with a couple of meters of GPS noise
+    static List<double[]> walk(Random random, int count) {
+        List<double[]> points = new ArrayList<>();
+        double x = 0;
+        double y = 0;
+        double heading = 0;
+        for (int i = 0; i < count; i++) {
+            heading += random.nextGaussian() * 0.3;
+            x += Math.cos(heading);
+            y += Math.sin(heading);
+            points.add(new double[]{
+                    LAT + (y + random.nextGaussian()) * LAT_PER_METER,
+                    LNG + (x + random.nextGaussian()) * LNG_PER_METER});
+        }
+        return points;
+    }
+
+    @Test
+    public void coarserLevels_fewerPoints_allEndNearNewestPosition() {
+        TrailPyramid pyramid = new TrailPyramid();
+        List<double[]> points = walk(new Random(21), 5000);
+        for (double[] p : points) {
+            pyramid.add(p[0], p[1]);
+        }
+        assertEquals(5000, pyramid.getInputCount());
+
+        double[] newest = points.get(points.size() - 1);
+        for (int level = 0; level < pyramid.getLevelCount(); level++) {
+            if (level > 0) {
+                assertTrue(pyramid.size(level) <= pyramid.size(level - 1));
+            }
+            int last = pyramid.size(level) - 1;
+            double gap = GeoMath.distanceMeters(newest[0], newest[1],
+                    pyramid.getLatitude(level, last), pyramid.getLongitude(level, last));
+            assertTrue(gap <= TrailPyramid.TOLERANCES_METERS[level]);
+        }
+        assertTrue(pyramid.size(0) < 5000);
+        assertTrue(pyramid.size(3) < 500);
+    }
+
+    @Test
+    public void dayTrail_everyZoomDrawsAtMostMaxPoints() {
+        TrailPyramid pyramid = new TrailPyramid();
+        for (double[] p : walk(new Random(86400), 86400)) {
+            pyramid.add(p[0], p[1]);
+        }
+        for (int zoom = 12; zoom <= 20; zoom += 2) {
+            int level = pyramid.levelFor(zoom, LAT, 2000);
+            assertTrue(pyramid.size(level) <= 2000);
+        }
+    }
+
+    @Test
+    public void restingJitter_keptOutOfCoarseLevels() {
+        TrailPyramid pyramid = new TrailPyramid();
+        Random random = new Random(4);
+        for (int i = 0; i < 3600; i++) {
+            pyramid.add(LAT + random.nextGaussian() * 2 * LAT_PER_METER, LNG + random.nextGaussian() * 2 * LNG_PER_METER);
+        }
+        assertTrue(pyramid.size(3) <= 3);
+        assertTrue(pyramid.size(pyramid.getLevelCount() - 1) <= 2);
+    }
+
+    @Test
+    public void levelFor_followsZoom() {
+        TrailPyramid pyramid = new TrailPyramid();
+        for (double[] p : walk(new Random(8), 2000)) {
+            pyramid.add(p[0], p[1]);
+        }
+        // About 0.13 m per dp at zoom 20, 4 m at 15 and 4 km at 5
+        assertEquals(0, pyramid.levelFor(20, LAT, Integer.MAX_VALUE));
+        assertEquals(1, pyramid.levelFor(15, LAT, Integer.MAX_VALUE));
+        assertEquals(pyramid.getLevelCount() - 1, pyramid.levelFor(5, LAT, Integer.MAX_VALUE));
+
+        // Too many points for the zoom's level, a coarser one is used
+        int level = pyramid.levelFor(20, LAT, pyramid.size(0) - 1);
+        assertTrue(level > 0);
+        assertTrue(pyramid.size(level) < pyramid.size(0));
+    }
+}
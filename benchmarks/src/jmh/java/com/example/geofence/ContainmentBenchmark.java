@@ -0,0 +1,214 @@
+package com.example.geofence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Is a pet inside any safe area, per position checked.
+ *
+ * linearScan is what isPetInArea did before the engine: for every polygon,
+ * copy the vertex list the way Polygon.getPoints() does and run the
+ * PolyUtil.containsLocation walk over it, with no box or coverage shortcut.
+ * scanEveryFence checks each CompiledFence in turn, engine goes through the
+ * R-tree and the coarse circles first, and engineBatch is the containsAll()
+ * used for a burst of tracker updates. With shapes=mixed every other safe
+ * area is a circle, which isPetInArea had to walk as a polygon of the
+ * circle's outline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ContainmentBenchmark {
+
+    private static final int POSITIONS = 1024;
+    // Sides of the polygon a Maps Circle was walked as
+    private static final int CIRCLE_SIDES = 64;
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int fenceCount;
+
+    @Param({"4", "16", "64", "256"})
+    public int vertexCount;
+
+    @Param({"polygons", "mixed"})
+    public String shapes;
+
+    private CompiledFence[] fences;
+    // Outlines as LatLng-like pairs, what the Maps SDK held for each polygon
+    private List<List<double[]>> outlines;
+    private GeofenceEngine engine;
+    private double[] lats;
+    private double[] lngs;
+
+    @Setup
+    public void setUp() {
+        List<FenceRecord> records = shapes.equals("mixed")
+                ? Fences.mixed(fenceCount, vertexCount, 1)
+                : Fences.polygons(fenceCount, vertexCount, 1);
+        fences = new CompiledFence[fenceCount];
+        outlines = new ArrayList<>(fenceCount);
+        engine = new GeofenceEngine(new StrRTree(), new CircleFenceMonitor());
+        for (int f = 0; f < fenceCount; f++) {
+            fences[f] = records.get(f).compile();
+            engine.put("fence" + f, fences[f]);
+            outlines.add(outline(records.get(f)));
+        }
+        double[][] positions = Fences.positions(POSITIONS, fenceCount, 2);
+        lats = positions[0];
+        lngs = positions[1];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSITIONS)
+    public int linearScan() {
+        int inside = 0;
+        for (int i = 0; i < POSITIONS; i++) {
+            for (List<double[]> outline : outlines) {
+                if (containsLocation(lats[i], lngs[i], copy(outline))) {
+                    inside++;
+                    break;
+                }
+            }
+        }
+        return inside;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSITIONS)
+    public int scanEveryFence() {
+        int inside = 0;
+        for (int i = 0; i < POSITIONS; i++) {
+            for (CompiledFence fence : fences) {
+                if (fence.contains(lats[i], lngs[i])) {
+                    inside++;
+                    break;
+                }
+            }
+        }
+        return inside;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSITIONS)
+    public int engine() {
+        int inside = 0;
+        for (int i = 0; i < POSITIONS; i++) {
+            if (engine.contains(lats[i], lngs[i])) {
+                inside++;
+            }
+        }
+        return inside;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSITIONS)
+    public BitSet engineBatch() {
+        return engine.containsAll(lats, lngs);
+    }
+
+    private static List<double[]> outline(FenceRecord record) {
+        List<double[]> points = new ArrayList<>();
+        if (record.isCircle()) {
+            double lat = record.getLatitude(0);
+            double lng = record.getLongitude(0);
+            double radiusLat = record.getRadius() / GeoMath.METERS_PER_DEGREE;
+            double radiusLng = radiusLat / Math.cos(Math.toRadians(lat));
+            for (int k = 0; k < CIRCLE_SIDES; k++) {
+                double angle = 2 * Math.PI * k / CIRCLE_SIDES;
+                points.add(new double[]{lat + radiusLat * Math.sin(angle), lng + radiusLng * Math.cos(angle)});
+            }
+        } else {
+            for (int i = 0; i < record.size(); i++) {
+                points.add(new double[]{record.getLatitude(i), record.getLongitude(i)});
+            }
+        }
+        return points;
+    }
+
+    // Polygon.getPoints() hands back new LatLng objects on every call
+    private static List<double[]> copy(List<double[]> outline) {
+        List<double[]> points = new ArrayList<>(outline.size());
+        for (double[] point : outline) {
+            points.add(new double[]{point[0], point[1]});
+        }
+        return points;
+    }
+
+    // PolyUtil.containsLocation(lat, lng, polygon, false), radians and mercator worked out per check
+    private static boolean containsLocation(double lat, double lng, List<double[]> polygon) {
+        int size = polygon.size();
+        if (size == 0) {
+            return false;
+        }
+        double lat3 = Math.toRadians(lat);
+        double lng3 = Math.toRadians(lng);
+        double[] prev = polygon.get(size - 1);
+        double lat1 = Math.toRadians(prev[0]);
+        double lng1 = Math.toRadians(prev[1]);
+        int nIntersect = 0;
+        for (double[] point2 : polygon) {
+            double dLng3 = wrap(lng3 - lng1);
+            if (lat3 == lat1 && dLng3 == 0) {
+                return true;
+            }
+            double lat2 = Math.toRadians(point2[0]);
+            double lng2 = Math.toRadians(point2[1]);
+            if (intersects(lat1, lat2, wrap(lng2 - lng1), lat3, dLng3)) {
+                nIntersect++;
+            }
+            lat1 = lat2;
+            lng1 = lng2;
+        }
+        return (nIntersect & 1) != 0;
+    }
+
+    private static boolean intersects(double lat1, double lat2, double lng2, double lat3, double lng3) {
+        if ((lng3 >= 0 && lng3 >= lng2) || (lng3 < 0 && lng3 < lng2)) {
+            return false;
+        }
+        if (lat3 <= -Math.PI / 2) {
+            return false;
+        }
+        if (lat1 <= -Math.PI / 2 || lat2 <= -Math.PI / 2 || lat1 >= Math.PI / 2 || lat2 >= Math.PI / 2) {
+            return false;
+        }
+        if (lng2 <= -Math.PI) {
+            return false;
+        }
+        double linearLat = (lat1 * (lng2 - lng3) + lat2 * lng3) / lng2;
+        if (lat1 >= 0 && lat2 >= 0 && lat3 < linearLat) {
+            return false;
+        }
+        if (lat1 <= 0 && lat2 <= 0 && lat3 >= linearLat) {
+            return true;
+        }
+        if (lat3 >= Math.PI / 2) {
+            return true;
+        }
+        return mercator(lat3) >= (mercator(lat1) * (lng2 - lng3) + mercator(lat2) * lng3) / lng2;
+    }
+
+    private static double mercator(double latRad) {
+        return Math.log(Math.tan(latRad * 0.5 + Math.PI / 4));
+    }
+
+    private static double wrap(double n) {
+        if (n >= -Math.PI && n < Math.PI) {
+            return n;
+        }
+        double m = 2 * Math.PI;
+        return (((n + Math.PI) % m) + m) % m - Math.PI;
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.geofence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a user's safe areas from the Geofences values, old setValue(polygon)
+ * form against FenceRecord, for all of them at once.
+ *
+ * read is FenceRecord.read() alone, readAndCompile goes on to the
+ * CompiledFence every fence is turned into before it is checked. The old
+ * form starts from plain maps, so the DataSnapshot child() walk the activity
+ * used to do isn't in its numbers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FenceRecordBenchmark {
+
+    @Param({"300"})
+    public int fenceCount;
+
+    @Param({"4", "24"})
+    public int vertexCount;
+
+    @Param({"legacy", "encoded"})
+    public String format;
+
+    private List<Map<String, Object>> values;
+
+    @Setup
+    public void setUp() {
+        List<FenceRecord> records = Fences.polygons(fenceCount, vertexCount, 1);
+        values = new ArrayList<>(fenceCount);
+        for (FenceRecord record : records) {
+            values.add(format.equals("legacy") ? Fences.legacyValue(record) : record.toMap());
+        }
+    }
+
+    @Benchmark
+    public List<FenceRecord> read() {
+        List<FenceRecord> records = new ArrayList<>(values.size());
+        for (Map<String, Object> value : values) {
+            records.add(FenceRecord.read(value));
+        }
+        return records;
+    }
+
+    @Benchmark
+    public List<CompiledFence> readAndCompile() {
+        List<CompiledFence> fences = new ArrayList<>(values.size());
+        for (Map<String, Object> value : values) {
+            fences.add(FenceRecord.read(value).compile());
+        }
+        return fences;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.geofence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Work done once per safe area as it is drawn or loaded, per fence.
+ *
+ * area is the size check before a fence is saved. compile builds the arrays,
+ * cell coverage and the fitted center circles used by every containment
+ * check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FenceShapeBenchmark {
+
+    @Param({"4", "16", "64", "256"})
+    public int vertexCount;
+
+    private FenceRecord record;
+    private double[] lats;
+    private double[] lngs;
+
+    @Setup
+    public void setUp() {
+        record = Fences.polygon(0, vertexCount, new Random(1));
+        lats = new double[vertexCount];
+        lngs = new double[vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            lats[i] = record.getLatitude(i);
+            lngs[i] = record.getLongitude(i);
+        }
+    }
+
+    @Benchmark
+    public double area() {
+        return GeoMath.areaSquareMeters(lats, lngs);
+    }
+
+    @Benchmark
+    public CompiledFence compile() {
+        return record.compile();
+    }
+}
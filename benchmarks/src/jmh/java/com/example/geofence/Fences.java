@@ -0,0 +1,119 @@
+package com.example.geofence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Inputs shared by the benchmarks: yard sized safe areas laid out in rows,
+ * and pet positions around them. Everything comes from a fixed seed, so two
+ * runs measure the same shapes.
+ */
+final class Fences {
+
+    static final double BASE_LAT = 30.2820;
+    static final double BASE_LNG = -97.7375;
+    // 50 m across at most, 200 m apart, 32 to a row
+    private static final double RADIUS_METERS = 25;
+    private static final double SPACING = 0.002;
+    private static final int ROW = 32;
+
+    private Fences() {
+    }
+
+    /**
+     * A polygon around the yard's center with the given number of vertices,
+     * each at its own distance from the center so the outline isn't convex.
+     * Points are in order around the center, so it never crosses itself.
+     */
+    static FenceRecord polygon(int yard, int vertexCount, Random random) {
+        double centerLat = BASE_LAT + (yard / ROW) * SPACING;
+        double centerLng = BASE_LNG + (yard % ROW) * SPACING;
+        double cosLat = Math.cos(Math.toRadians(centerLat));
+        double[] lats = new double[vertexCount];
+        double[] lngs = new double[vertexCount];
+        for (int i = 0; i < vertexCount; i++) {
+            double theta = -2 * Math.PI * i / vertexCount;
+            double meters = RADIUS_METERS * (0.6 + 0.4 * random.nextDouble());
+            lats[i] = centerLat + meters * Math.sin(theta) / GeoMath.METERS_PER_DEGREE;
+            lngs[i] = centerLng + meters * Math.cos(theta) / (GeoMath.METERS_PER_DEGREE * cosLat);
+        }
+        return FenceRecord.fromPoints(lats, lngs);
+    }
+
+    static List<FenceRecord> polygons(int fenceCount, int vertexCount, long seed) {
+        return fences(fenceCount, vertexCount, false, seed);
+    }
+
+    // Every other yard a circle, the way owners mix drawn and round safe areas
+    static List<FenceRecord> mixed(int fenceCount, int vertexCount, long seed) {
+        return fences(fenceCount, vertexCount, true, seed);
+    }
+
+    private static List<FenceRecord> fences(int fenceCount, int vertexCount, boolean circles, long seed) {
+        Random random = new Random(seed);
+        List<FenceRecord> records = new ArrayList<>(fenceCount);
+        for (int f = 0; f < fenceCount; f++) {
+            if (circles && f % 2 == 0) {
+                records.add(FenceRecord.fromCircle(BASE_LAT + (f / ROW) * SPACING, BASE_LNG + (f % ROW) * SPACING,
+                        RADIUS_METERS * (0.6 + 0.4 * random.nextDouble())));
+            } else {
+                records.add(polygon(f, vertexCount, random));
+            }
+        }
+        return records;
+    }
+
+    // Roughly what setValue(polygon) wrote before FenceRecord
+    static Map<String, Object> legacyValue(FenceRecord record) {
+        List<Object> points = new ArrayList<>(record.size());
+        for (int i = 0; i < record.size(); i++) {
+            Map<String, Object> point = new HashMap<>();
+            point.put("latitude", record.getLatitude(i));
+            point.put("longitude", record.getLongitude(i));
+            points.add(point);
+        }
+        Map<String, Object> map = new HashMap<>();
+        map.put("points", points);
+        map.put("holes", new ArrayList<>());
+        map.put("fillColor", 1090519265L);
+        map.put("strokeColor", -520093471L);
+        map.put("strokeWidth", 4L);
+        map.put("strokeJointType", 0L);
+        map.put("clickable", false);
+        map.put("geodesic", false);
+        map.put("visible", true);
+        map.put("zIndex", 0L);
+        map.put("id", "pg0");
+        return map;
+    }
+
+    /**
+     * Pet positions: three in four within 30 m of a yard's center, so inside
+     * or near its edge, the rest anywhere over the rows of yards.
+     */
+    static double[][] positions(int count, int fenceCount, long seed) {
+        Random random = new Random(seed);
+        int columns = Math.min(fenceCount, ROW);
+        int rows = (fenceCount + ROW - 1) / ROW;
+        double[] lats = new double[count];
+        double[] lngs = new double[count];
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(4) > 0) {
+                int yard = random.nextInt(fenceCount);
+                double centerLat = BASE_LAT + (yard / ROW) * SPACING;
+                double theta = random.nextDouble() * 2 * Math.PI;
+                double meters = 30 * Math.sqrt(random.nextDouble());
+                lats[i] = centerLat + meters * Math.sin(theta) / GeoMath.METERS_PER_DEGREE;
+                lngs[i] = BASE_LNG + (yard % ROW) * SPACING
+                        + meters * Math.cos(theta) / (GeoMath.METERS_PER_DEGREE * Math.cos(Math.toRadians(centerLat)));
+            } else {
+                lats[i] = BASE_LAT + (random.nextDouble() * rows - 0.5) * SPACING;
+                lngs[i] = BASE_LNG + (random.nextDouble() * columns - 0.5) * SPACING;
+            }
+        }
+        return new double[][]{lats, lngs};
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.geofence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PositionHistory with one tracker reporting every second.
+ *
+ * appendDay writes a day of positions into an empty history, segment
+ * creation included, and reports the time per append. With the gc profiler
+ * (-PjmhProfilers=gc) it also gives the bytes allocated per append, on the
+ * desktop JVM rather than ART. scanHour reads one hour in the middle of a
+ * day that is already on disk.
+ */
+public class PositionHistoryBenchmark {
+
+    private static final int DAY_SECONDS = 86400;
+
+    @State(Scope.Thread)
+    public static class Day {
+        File directory;
+        PositionHistory history;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("history").toFile();
+            history = new PositionHistory(directory);
+            append(history, DAY_SECONDS);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            delete(directory);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Empty {
+        File directory;
+        PositionHistory history;
+
+        @Setup(Level.Invocation)
+        public void setUp() throws IOException {
+            directory = Files.createTempDirectory("history").toFile();
+            history = new PositionHistory(directory);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            delete(directory);
+        }
+    }
+
+    private static final PositionHistory.Visitor IGNORE = new PositionHistory.Visitor() {
+        @Override
+        public void onPosition(long timestampMillis, double lat, double lng, int flags) {
+        }
+    };
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OperationsPerInvocation(DAY_SECONDS)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public PositionHistory appendDay(Empty empty) throws IOException {
+        append(empty.history, DAY_SECONDS);
+        return empty.history;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int scanHour(Day day) throws IOException {
+        return day.history.scan("7", 43200 * 1000L, 46800 * 1000L, IGNORE);
+    }
+
+    private static void append(PositionHistory history, int seconds) throws IOException {
+        for (int s = 0; s < seconds; s++) {
+            history.append("7", s * 1000L, Fences.BASE_LAT + (s % 600) * 1e-6, Fences.BASE_LNG, 0);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.geofence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * From stored safe areas to fences ready for containment checks, for all of
+ * a user's fences at once.
+ *
+ * firebase reads the values a Geofences snapshot hands over, the way the
+ * child listener does, and compiles them; the round trip to Firebase comes on
+ * top and is what MapsActivity logs on a device. snapshotFile decodes the
+ * cold start MapSnapshot and compiles its fences, the way ForegroundService
+ * preloads the engine. readFile is MapSnapshot.read() on the saved file
+ * without compiling, which is all the map needs to draw.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SnapshotParsingBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int fenceCount;
+
+    @Param({"4", "16", "64", "256"})
+    public int vertexCount;
+
+    private List<Map<String, Object>> values;
+    private byte[] snapshot;
+    private File file;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<FenceRecord> records = Fences.polygons(fenceCount, vertexCount, 1);
+        values = new ArrayList<>(fenceCount);
+        MapSnapshot mapSnapshot = new MapSnapshot("user");
+        for (int f = 0; f < fenceCount; f++) {
+            values.add(records.get(f).toMap());
+            mapSnapshot.putFence("fence" + f, records.get(f));
+        }
+        List<Pet> pets = new ArrayList<>(fenceCount);
+        for (int f = 0; f < fenceCount; f++) {
+            pets.add(new Pet("pet" + f, String.valueOf(f), "000"));
+        }
+        mapSnapshot.setPets(pets);
+        for (Pet pet : pets) {
+            mapSnapshot.setPosition(pet.getPetName(), Fences.BASE_LAT, Fences.BASE_LNG);
+        }
+        snapshot = mapSnapshot.encode();
+        file = File.createTempFile("snapshot", ".bin");
+        mapSnapshot.writeIfDirty(file);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public List<CompiledFence> firebase() {
+        List<CompiledFence> fences = new ArrayList<>(values.size());
+        for (Map<String, Object> value : values) {
+            fences.add(FenceRecord.read(value).compile());
+        }
+        return fences;
+    }
+
+    @Benchmark
+    public List<CompiledFence> snapshotFile() {
+        MapSnapshot mapSnapshot = MapSnapshot.decode(ByteBuffer.wrap(snapshot));
+        List<CompiledFence> fences = new ArrayList<>(fenceCount);
+        for (FenceRecord record : mapSnapshot.getFences().values()) {
+            fences.add(record.compile());
+        }
+        return fences;
+    }
+
+    @Benchmark
+    public MapSnapshot readFile() {
+        return MapSnapshot.read(file);
+    }
+}
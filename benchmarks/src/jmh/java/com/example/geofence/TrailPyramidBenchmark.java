@@ -0,0 +1,69 @@
+package com.example.geofence;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TrailPyramid fed a day of walking at one position a second.
+ *
+ * buildDay adds the whole day to an empty pyramid and reports the time per
+ * position, which is what TrailLayer pays on the main thread for each
+ * update. levelFor is the lookup TrailLayer does on every camera move.
+ */
+@State(Scope.Benchmark)
+public class TrailPyramidBenchmark {
+
+    private static final int DAY_SECONDS = 86400;
+    private static final double LAT_PER_METER = 1 / 111320.0;
+
+    private double[] latitudes;
+    private double[] longitudes;
+    private TrailPyramid day;
+
+    @Setup
+    public void setUp() {
+        latitudes = new double[DAY_SECONDS];
+        longitudes = new double[DAY_SECONDS];
+        double lngPerMeter = LAT_PER_METER / Math.cos(Math.toRadians(Fences.BASE_LAT));
+        Random random = new Random(86400);
+        double x = 0;
+        double y = 0;
+        double heading = 0;
+        for (int i = 0; i < DAY_SECONDS; i++) {
+            heading += random.nextGaussian() * 0.3;
+            x += Math.cos(heading);
+            y += Math.sin(heading);
+            latitudes[i] = Fences.BASE_LAT + (y + random.nextGaussian()) * LAT_PER_METER;
+            longitudes[i] = Fences.BASE_LNG + (x + random.nextGaussian()) * lngPerMeter;
+        }
+        day = buildDay();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OperationsPerInvocation(DAY_SECONDS)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public TrailPyramid buildDay() {
+        TrailPyramid pyramid = new TrailPyramid();
+        for (int i = 0; i < DAY_SECONDS; i++) {
+            pyramid.add(latitudes[i], longitudes[i]);
+        }
+        return pyramid;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int levelFor() {
+        return day.levelFor(16, Fences.BASE_LAT, 2000);
+    }
+}